@@ -48,4 +48,15 @@ public class AABB {
 		if (yMin > l.y) yMin = l.y;
 		if (yMax < l.y) yMax = l.y;
 	}
+
+	/**
+	 * Adjust the AABB to encompass another AABB, if it does not already.
+	 * @param src The AABB to be included.
+	 */
+	public void add(AABB src) {
+		if (xMin > src.xMin) xMin = src.xMin;
+		if (xMax < src.xMax) xMax = src.xMax;
+		if (yMin > src.yMin) yMin = src.yMin;
+		if (yMax < src.yMax) yMax = src.yMax;
+	}
 }
@@ -22,6 +22,11 @@ public class ButtonLoadLocations extends JButton implements ActionListener {
 	private final JFrame parentFrame;
 	private final SolverThread solver;
 
+	/**
+	 * The smallest number of locations for which the distance matrix is saved to file.
+	 */
+	static public final int mappedSizeMin = 2000;
+
 	/**
 	 * Button constructor.
 	 * @param parent The parent JFrame which should be repainted after locations are loaded.
@@ -107,8 +112,15 @@ public class ButtonLoadLocations extends JButton implements ActionListener {
 							}
 						}
 						
-						// Update the solver
-						DistanceMatrix dm = new DistanceMatrix(location.toArray(new Location[location.size()]));
+						// Update the solver, keeping the travel costs of the current distance matrix
+						// Large location lists keep their distances in a file next to the location file
+						Location[] locationList = location.toArray(new Location[location.size()]);
+						CostProvider costProvider = solver.getDistanceMatrix().getCostProvider();
+						DistanceMatrix dm =
+							(locationList.length >= mappedSizeMin) ?
+							MappedDistanceMatrix.openOrCreate(
+								locationList, costProvider, new File(file.getPath() + MappedDistanceMatrix.fileExtension)) :
+							DistanceMatrix.create(locationList, costProvider);
 						solver.setDistanceMatrix(dm);
 						parentFrame.repaint();
 					}
@@ -0,0 +1,87 @@
+package dvr;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+/**
+ * A JButton used to load a road network, so that travel costs follow the roads.
+ * The distance matrix of the current locations is rebuilt using the road network.
+ */
+@SuppressWarnings("serial")
+public class ButtonLoadRoadNetwork extends JButton implements ActionListener {
+	private final JFrame parentFrame;
+	private final SolverThread solver;
+
+	/**
+	 * Button constructor.
+	 * @param parent The parent JFrame which should be repainted after the road network is loaded.
+	 * @param s The solver which contains the data to be updated.
+	 */
+	public ButtonLoadRoadNetwork(JFrame parent, SolverThread s) {
+		super("Load Road Network");
+		parentFrame = parent;
+		solver = s;
+		addActionListener(this);
+	}
+
+	/**
+	 * The action performed when the button is clicked.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (this == e.getSource()) {
+
+			// Enter try-catch block
+			try {
+
+				// Get the previous working directory
+				Config config = new Config();
+				File directory = config.getWorkingDirectory();
+
+				// Create a file filter
+				FileNameExtensionFilter ffRoad = new FileNameExtensionFilter("Road Network Files", "txt", "road");
+
+				// Create and open file chooser dialog window
+				JFileChooser fc = new JFileChooser();
+				fc.addChoosableFileFilter(ffRoad);
+				fc.setFileFilter(ffRoad);
+				fc.setCurrentDirectory(directory);
+				int result = fc.showOpenDialog(this.getTopLevelAncestor());
+
+				// Record current working directory
+				config.setWorkingDirectory(fc.getCurrentDirectory());
+				config.save();
+
+				// Check if a file was selected
+				if (result == JFileChooser.APPROVE_OPTION) {
+					File file = fc.getSelectedFile();
+
+					// Make sure the file exists
+					if (file.isFile() && file.canRead()) {
+						System.out.println("Load road network file: "+file.getName());
+
+						// Load and preprocess the road network
+						long startTime = System.nanoTime();
+						RoadNetwork network = RoadNetwork.load(file);
+						System.out.println("  Nodes: "+network.getNodeCount()+", Shortcuts: "+network.getShortcutCount()+
+							", Time: "+((System.nanoTime() - startTime) / 1000000)+"ms");
+
+						// Rebuild the distance matrix of the current locations using road costs
+						// Every location keeps its original index
+						solver.setDistanceMatrix(solver.getDistanceMatrix().withCostProvider(network));
+						parentFrame.repaint();
+					}
+				}
+			} catch (IOException err) {
+				JOptionPane.showMessageDialog(this, err.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+}
@@ -48,7 +48,7 @@ public class ButtonRandomLocations extends JButton implements ActionListener {
 	
 						// Generate a list of random locations
 						// Give the list to the solver
-						solver.setDistanceMatrix(new DistanceMatrix(Location.RandomList(count, 100)));
+						solver.setDistanceMatrix(DistanceMatrix.create(Location.RandomList(count, 100)));
 						parentFrame.repaint();
 					}
 				}
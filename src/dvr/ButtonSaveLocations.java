@@ -79,11 +79,10 @@ public class ButtonSaveLocations extends JButton implements ActionListener {
 						fileWriter = new FileWriter(file);
 						bufferedWriter = new BufferedWriter(fileWriter);
 						
-						// Write data to file
-						DistanceMatrix dist = solver.getDistanceMatrix();
-						int iMax = dist.size();
-						for (int i=0; i<iMax; i++) {
-							Location l = dist.getLocation(i);
+						// Write data to file, in the original location order
+						// Removed locations are left out, so the locations are numbered by their export index
+						Location[] list = solver.getDistanceMatrix().getOriginalList();
+						for (Location l : list) {
 							bufferedWriter.write(l.coord.x + ", " + l.coord.y + ", \"" + l.name + "\"");
 							bufferedWriter.newLine();
 						}
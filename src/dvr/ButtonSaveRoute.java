@@ -87,40 +87,44 @@ public class ButtonSaveRoute extends JButton implements ActionListener {
 						bufferedWriter = new BufferedWriter(fileWriter);
 						
 						// Write data to file
-						Route[] routes = solver.getRoute();
+						// Locations are numbered by their export index, which matches the saved location file
+						// even after locations have been removed
+						SolverThread.SolverState state = solver.getSolverState();
+						RouteSnapshot routes = state.getRoute();
+						int[] exportIndex = state.getDistanceMatrix().getExportIndex();
 						if (makeCSVFile) {
 							String t;
 
 							// Get maximum number of locations visited for any route
 							int maxLocations = 0;
-							for (Route r : routes) {
-								if (maxLocations < r.size()) maxLocations = r.size();
+							for (int r=0; r<routes.getRouteCount(); r++) {
+								if (maxLocations < routes.size(r)) maxLocations = routes.size(r);
 							}
 							
 							// Write headers for route cost data
 							t = "";
-							for (int i=0; i<routes.length; i++) t += ",\"Route"+i+"\"";
+							for (int i=0; i<routes.getRouteCount(); i++) t += ",\"Route"+i+"\"";
 							bufferedWriter.write(t);
 							bufferedWriter.newLine();
 							
 							// Write cost data
 							t = "\"Cost\"";
-							for (int r=0; r<routes.length; r++) t += ","+routes[r].getCost();
+							for (int r=0; r<routes.getRouteCount(); r++) t += ","+routes.getCost(r);
 							bufferedWriter.write(t);
 							bufferedWriter.newLine();
 							bufferedWriter.newLine(); // Extra line break
 							
 							// Write headers for route location data
 							t = "";
-							for (int r=0; r<routes.length; r++) t += ",\"Route"+r+"\"";
+							for (int r=0; r<routes.getRouteCount(); r++) t += ",\"Route"+r+"\"";
 							bufferedWriter.write(t);
 							bufferedWriter.newLine();
 
 							// Write route location data
 							for (int i=0; i<maxLocations; i++) {
 								t = "";
-								for (int r=0; r<routes.length; r++) {
-									t += "," + ((i < routes[r].size()) ? Integer.toString(routes[r].getLocationIndex(i)) : "");
+								for (int r=0; r<routes.getRouteCount(); r++) {
+									t += "," + ((i < routes.size(r)) ? Integer.toString(exportIndex[routes.getOriginalIndex(r, i)]) : "");
 								}
 								bufferedWriter.write(t);
 								bufferedWriter.newLine();
@@ -129,14 +133,13 @@ public class ButtonSaveRoute extends JButton implements ActionListener {
 						} else {
 							
 							// Write each route to the file
-							int j=0;
-							for (Route r : routes) {
-								String t = "Route " + (j++) + ", Cost " + Long.toString(r.getCost()) + ", Path: ";
-								int length = r.size();
+							for (int r=0; r<routes.getRouteCount(); r++) {
+								String t = "Route " + r + ", Cost " + Long.toString(routes.getCost(r)) + ", Path: ";
+								int length = routes.size(r);
 								if (length > 0) {
-									t += Integer.toString(r.getLocationIndex(0));
+									t += Integer.toString(exportIndex[routes.getOriginalIndex(r, 0)]);
 									for (int i=1; i<length; i++) {
-										t += " -> " + Integer.toString(r.getLocationIndex(i));
+										t += " -> " + Integer.toString(exportIndex[routes.getOriginalIndex(r, i)]);
 									}
 								}
 								bufferedWriter.write(t);
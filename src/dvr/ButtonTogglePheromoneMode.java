@@ -0,0 +1,53 @@
+package dvr;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+
+/**
+ * A JButton used to change the way the ant colony solvers store their pheromone values.
+ * The chosen mode is saved within the configuration file.
+ */
+@SuppressWarnings("serial")
+public class ButtonTogglePheromoneMode extends JButton implements ActionListener {
+	private final JFrame parentFrame;
+	private final SolverThread solver;
+
+	/**
+	 * Button constructor.
+	 * @param parent The parent JFrame which should be repainted after the mode is changed.
+	 * @param s The solver which is to be updated.
+	 */
+	public ButtonTogglePheromoneMode(JFrame parent, SolverThread s) {
+		parentFrame = parent;
+		solver = s;
+		addActionListener(this);
+		setText(getPheromoneMode());
+	}
+
+	/**
+	 * The action performed when the button is clicked.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (this == e.getSource()) {
+			PheromoneMode[] mode = PheromoneMode.values();
+			PheromoneMode next = mode[(solver.getPheromoneMode().ordinal() + 1) % mode.length];
+			solver.setPheromoneMode(next);
+			Config config = new Config();
+			config.setPheromoneMode(next);
+			config.save();
+			setText(getPheromoneMode());
+			parentFrame.repaint();
+		}
+	}
+
+	/**
+	 * Get the button label for the pheromone mode of the solver.
+	 * @return The button label.
+	 */
+	private String getPheromoneMode() {
+		return "Pheromone: " + solver.getPheromoneMode().toString();
+	}
+}
@@ -33,6 +33,9 @@ public class ButtonToggleSolver extends JButton implements ActionListener {
 		if (this == e.getSource()) {
 			switch (solver.getSolverType()) {
 			case ACO:
+				solver.setSolverType(SolverType.MMAS);
+				break;
+			case MMAS:
 				solver.setSolverType(SolverType.GA);
 				break;
 			case GA:
@@ -37,6 +37,7 @@ public class ButtonToggleWorkings extends JButton implements ActionListener {
 				renderer.showWorking = true;
 				setText(labelHide);
 			}
+			renderer.repaint();
 		}
 	}
 }
@@ -11,6 +11,7 @@ import javax.swing.JFileChooser;
  */
 public class Config {
 	static public final String keyWorkingDirectory = "working-directory";
+	static public final String keyPheromoneMode = "pheromone-mode";
 	
 	/**
 	 * Get the current working directory.
@@ -37,6 +38,30 @@ public class Config {
 		updated |= (old == null) || (old.toString() != path);
 	}
 	
+	/**
+	 * Get the way the ant colony solvers store their pheromone values.
+	 * @return The pheromone mode, or PER_VEHICLE if none has been set.
+	 */
+	public PheromoneMode getPheromoneMode() {
+		String mode = prop.getProperty(keyPheromoneMode);
+		if (mode != null) {
+			try {
+				return PheromoneMode.valueOf(mode);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		return PheromoneMode.PER_VEHICLE;
+	}
+	
+	/**
+	 * Set the way the ant colony solvers store their pheromone values.
+	 * @param newValue The pheromone mode.
+	 */
+	public void setPheromoneMode(PheromoneMode newValue) {
+		Object old = prop.setProperty(keyPheromoneMode, newValue.name());
+		updated |= (old == null) || !old.toString().equals(newValue.name());
+	}
+	
 	/**
 	 * Default constructor.
 	 */
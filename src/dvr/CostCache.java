@@ -0,0 +1,97 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of costs, keyed by a 64-bit hash.
+ * Each hash maps to a single slot, and a new entry simply replaces whatever the slot held before,
+ * so memory use is fixed and every lookup takes O(1) time. The full hash is stored, so a lookup only
+ * succeeds for the same hash. Not safe for use by several threads at once.
+ */
+public class CostCache {
+
+	/**
+	 * Cost cache constructor.
+	 * @param size Number of slots, which is rounded up to a power of two.
+	 */
+	public CostCache(int size) {
+		assert size > 0;
+		final int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		key = new long[n];
+		value = new long[n];
+		clear();
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param src The cache to copy.
+	 */
+	public CostCache(CostCache src) {
+		key = src.key.clone();
+		value = src.value.clone();
+		lookups = src.lookups;
+		hits = src.hits;
+	}
+
+	/**
+	 * Get the cost stored for a hash.
+	 * @param hash The hash to search for.
+	 * @return The stored cost, or -1 if the hash is not within the cache.
+	 */
+	public long get(long hash) {
+		final int i = getSlot(hash);
+		lookups++;
+		if ((value[i] >= 0) && (key[i] == hash)) {
+			hits++;
+			return value[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Store the cost for a hash, replacing any entry which was using the same slot.
+	 * @param hash The hash.
+	 * @param cost The cost, which must not be negative.
+	 */
+	public void put(long hash, long cost) {
+		assert cost >= 0;
+		final int i = getSlot(hash);
+		key[i] = hash;
+		value[i] = cost;
+	}
+
+	/**
+	 * Remove every entry. The lookup and hit counts are kept.
+	 */
+	public void clear() {
+		Arrays.fill(value, -1);
+	}
+
+	/**
+	 * Get the number of times the cache has been searched.
+	 * @return Number of lookups.
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Get the number of times a search found a cost.
+	 * @return Number of hits.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the slot used by a hash.
+	 */
+	private int getSlot(long hash) {
+		return (int)(hash ^ (hash >>> 32)) & (key.length - 1);
+	}
+
+	final private long[] key;
+	final private long[] value;
+	private long lookups;
+	private long hits;
+}
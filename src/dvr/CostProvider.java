@@ -0,0 +1,47 @@
+package dvr;
+
+/**
+ * Interface for classes which calculate the cost of travelling between two locations.
+ * Used by a distance matrix when straight-line distances are not wanted.
+ * Implementations must be safe to use from several threads at once, and costs must be symmetric.
+ */
+public interface CostProvider {
+
+	/**
+	 * Calculate the cost of travelling between two locations.
+	 * @param a The first location.
+	 * @param b The second location.
+	 * @return Cost of travelling from location-A to location-B.
+	 */
+	public long getCost(Location a, Location b);
+
+	/**
+	 * Calculate the cost of travelling from one location to every location before it within a list.
+	 * Implementations may override this to share work between the locations.
+	 * @param l The location list.
+	 * @param b Index of the location to travel from.
+	 * @param cost Receives the cost of travelling to locations 0 to b-1.
+	 */
+	public default void getCosts(Location[] l, int b, long[] cost) {
+		for (int a=0; a<b; a++) {
+			cost[a] = getCost(l[a], l[b]);
+		}
+	}
+
+	/**
+	 * Get an upper bound for the cost of travelling between any two locations within a list.
+	 * This is used to choose how the costs are stored, so it must never be too small.
+	 * @param l The location list.
+	 * @return Largest possible cost.
+	 */
+	public long getCostBound(Location[] l);
+
+	/**
+	 * Get a hash which identifies the costs given by this provider, so that costs saved to file can be checked
+	 * against it. Providers which cannot identify their costs return 0, and their costs are never read from file.
+	 * @return A non-zero hash of the costs, or 0 if the costs cannot be identified.
+	 */
+	public default long getCostHash() {
+		return 0;
+	}
+}
@@ -1,49 +1,216 @@
 package dvr;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Used to hold the distances between locations within a location list.
- * This class is to be treated as read-only once constructed.
+ * This class is to be treated as read-only once constructed, so it can be shared between threads.
+ * Adding or removing a location gives a new distance matrix, leaving this one unchanged.
+ * <p>
+ * The matrix is symmetric, so only the upper triangle (excluding the diagonal) is stored.
+ * The cells are packed column by column into one primitive array, and the narrowest cell
+ * type able to hold the largest possible distance is used. A matrix with a location added shares the cell array
+ * with the matrix it came from where it can, as the new column is written past the cells the older matrix reads.
  */
 public class DistanceMatrix {
 
+	/**
+	 * The largest number of locations which can be held within a packed distance matrix.
+	 * Beyond this the number of cells will not fit within a single Java array.
+	 */
+	static final public int packedSizeMax = 65536;
+
+	/**
+	 * The smallest number of locations for which the matrix is built in parallel.
+	 */
+	static final public int parallelSizeMin = 2000;
+
+	/**
+	 * The smallest number of locations which are reordered along a Hilbert curve by create().
+	 */
+	static final public int reorderSizeMin = 1000;
+
+	/**
+	 * The approximate number of cells (or locations) processed by each parallel block.
+	 */
+	static final private int parallelBlockSize = 1 << 16;
+
+	/**
+	 * The number of bits used for each axis of the Hilbert curve grid.
+	 * Curve positions use twice this many bits, and are shifted above a 32-bit location index when sorting,
+	 * so this must stay below 16 to keep the sort key positive.
+	 */
+	static final private int hilbertBits = 15;
+
 	/**
 	 * Distance matrix constructor.
 	 * @param l List of locations used to initialise the distance matrix
 	 */
 	public DistanceMatrix(Location[] l) {
+		this(l, null, true);
+	}
+
+	/**
+	 * Distance matrix constructor using travel costs from a cost provider, such as a road network.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 */
+	public DistanceMatrix(Location[] l, CostProvider p) {
+		this(l, p, true);
+	}
+
+	/**
+	 * Distance matrix constructor used by derived classes which provide their own distance storage.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param fillCells If true then the packed cells are allocated and filled.
+	 */
+	protected DistanceMatrix(Location[] l, boolean fillCells) {
+		this(l, null, fillCells);
+	}
+
+	/**
+	 * Distance matrix constructor used by derived classes which provide their own distance storage.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @param fillCells If true then the packed cells are allocated and filled.
+	 */
+	protected DistanceMatrix(Location[] l, CostProvider p, boolean fillCells) {
 		assert l != null;
 		assert l.length > 0;
-		
+
 		// Record the location list and the number of locations there in
+		// The list is copied as it may later be altered
 		size = l.length;
-		location = l;
-		
-		// Create a new array for the distance matrix
-		distance = new long[size][size];
-		
-		// Loop through every possible combination of two locations
-		// Skip cells where the location leads to itself
-		for (int x=0; x<size; x++) {
-			for (int y=x+1; y<size; y++) {
-				long d = calculate(x, y);
-				distance[x][y] = d;
-				distance[y][x] = d;
-				if (maxDistance < d) maxDistance = d;
-			}
-		}
-		
-		// Set the distance values for cells where the location leads to itself
+		location = Arrays.copyOf(l, l.length);
+		costProvider = p;
+
+		// Each location starts with its own index as its original index
+		originalCount = size;
+		originalIndex = new int[size];
+		internalIndex = new int[size];
 		for (int i=0; i<size; i++) {
-			distance[i][i] = 0;
+			originalIndex[i] = i;
+			internalIndex[i] = i;
 		}
 
+		// Large location lists are processed in blocks over the fork/join pool
+		final boolean parallel = size >= parallelSizeMin;
+
 		// Setup the location AABB
-		locationAABB = new AABB();
-		for (int i=0; i<size; i++) {
-			locationAABB.add(location[i].coord);
+		locationAABB = parallel ? ForkJoinPool.commonPool().invoke(new BoundsTask(0, size)) : getBounds(0, size);
+
+		// Check if the derived class stores the distances
+		if (!fillCells) return;
+		if (size > packedSizeMax) {
+			throw new IllegalArgumentException("Too many locations for a packed distance matrix: " + size);
+		}
+
+		// Create the cell array, using the AABB (or the cost provider) to bound the largest distance
+		allocateCells(getCostBound(), (int)cellCount(size));
+
+		// Fill every cell within the upper triangle, recording the longest distance
+		maxDistance = parallel ? ForkJoinPool.commonPool().invoke(new FillTask(1, size)) : fillColumns(1, size);
+	}
+
+	/**
+	 * Distance matrix copy constructor, used before adding or removing a location.
+	 * The location list is copied, while the packed cells are shared until the copy needs to change them.
+	 * @param src The distance matrix to copy.
+	 */
+	protected DistanceMatrix(DistanceMatrix src) {
+		size = src.size;
+		// Room is left for one more location, as the copy is normally about to have one added
+		location = Arrays.copyOf(src.location, size + 1);
+		originalIndex = Arrays.copyOf(src.originalIndex, size + 1);
+		internalIndex = Arrays.copyOf(src.internalIndex, src.originalCount + 1);
+		originalCount = src.originalCount;
+		costProvider = src.costProvider;
+		locationAABB = new AABB(src.locationAABB);
+		maxDistance = src.maxDistance;
+		cellShort = src.cellShort;
+		cellInt = src.cellInt;
+		cellScale = src.cellScale;
+		cellClaim = src.cellClaim;
+	}
+
+	/**
+	 * Create a distance matrix suited to the number of locations given.
+	 * A packed matrix is used when it fits comfortably within the heap, otherwise the distances
+	 * are calculated on demand by a lazy distance matrix.
+	 * Large location lists are reordered along a Hilbert curve, see create(Location[], CostProvider, boolean).
+	 * @param l List of locations used to initialise the distance matrix
+	 * @return A new distance matrix.
+	 */
+	static public DistanceMatrix create(Location[] l) {
+		return create(l, null);
+	}
+
+	/**
+	 * Create a distance matrix suited to the number of locations given, using travel costs from a cost provider.
+	 * Large location lists are reordered along a Hilbert curve, see create(Location[], CostProvider, boolean).
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @return A new distance matrix.
+	 */
+	static public DistanceMatrix create(Location[] l, CostProvider p) {
+		return create(l, p, l.length >= reorderSizeMin);
+	}
+
+	/**
+	 * Create a distance matrix suited to the number of locations given, using travel costs from a cost provider.
+	 * If requested, the locations are renumbered along a Hilbert curve so that nearby locations have nearby
+	 * indices, which keeps the distances read by the solvers close together in memory. The depot keeps index 0,
+	 * and getOriginalIndex() maps each new index back to its index within the given list.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @param reorder If true then the locations are reordered along a Hilbert curve.
+	 * @return A new distance matrix.
+	 */
+	static public DistanceMatrix create(Location[] l, CostProvider p, boolean reorder) {
+		assert l != null;
+		assert l.length > 0;
+
+		// Reorder the locations if requested
+		int[] order = null;
+		if (reorder) {
+			order = getHilbertOrder(l);
+			l = getReorderedList(l, order);
+		}
+		DistanceMatrix dm = createUnordered(l, p);
+		if (order != null) dm.setOriginalIndex(order);
+		return dm;
+	}
+
+	/**
+	 * Create a distance matrix without reordering, choosing between the packed and lazy matrices.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @return A new distance matrix.
+	 */
+	static private DistanceMatrix createUnordered(Location[] l, CostProvider p) {
+
+		// Work out how much memory the packed cells would need
+		long bound;
+		if (p != null) {
+			bound = p.getCostBound(l);
+		} else {
+			AABB aabb = new AABB();
+			for (Location i : l) aabb.add(i.coord);
+			bound = getDistanceBound(aabb);
+		}
+		long bytes = cellCount(l.length) * getCellWidth(bound);
+
+		// Use the packed matrix if it fits within half the heap
+		if ((l.length <= packedSizeMax) && (bytes <= (Runtime.getRuntime().maxMemory() / 2))) {
+			return new DistanceMatrix(l, p);
+		} else {
+			return new LazyDistanceMatrix(l, p);
 		}
 	}
-	
+
 	/**
 	 * Get the size of the distance matrix in one dimension.
 	 * This is the same as the number of locations within the distance matrix.
@@ -52,7 +219,7 @@ public class DistanceMatrix {
 	public int size() {
 		return size;
 	}
-	
+
 	/**
 	 * Get the distance between two locations.
 	 * @param locationA The index of location-A within the location list.
@@ -60,9 +227,364 @@ public class DistanceMatrix {
 	 * @return Cost of travelling from location-A to location-B.
 	 */
 	public long getDistance(int locationA, int locationB) {
-		return distance[locationA][locationB];
+		if (locationA == locationB) return 0;
+		int i = (locationA < locationB) ? cellIndex(locationA, locationB) : cellIndex(locationB, locationA);
+		if (cellShort != null) return cellShort[i] & 0xFFFF;
+		return (cellInt[i] & 0xFFFFFFFFL) * cellScale;
+	}
+
+	/**
+	 * Get the order in which a list of locations is visited by a Hilbert curve covering their AABB.
+	 * The depot (location 0) is always kept first.
+	 * @param l The location list.
+	 * @return The original index of each location in curve order.
+	 */
+	static public int[] getHilbertOrder(Location[] l) {
+		final int n = l.length;
+		AABB aabb = new AABB();
+		for (Location i : l) aabb.add(i.coord);
+
+		// Scale the AABB onto the curve grid
+		final int side = 1 << hilbertBits;
+		double w = Math.max(1, (double)(aabb.xMax - aabb.xMin));
+		double h = Math.max(1, (double)(aabb.yMax - aabb.yMin));
+		double scale = (side - 1) / Math.max(w, h);
+
+		// Pack the curve position and location index into one value, then sort
+		// The curve position fits within 2*hilbertBits bits, so the sign bit is never set
+		long[] key = new long[n - 1];
+		for (int i=1; i<n; i++) {
+			int x = (int)((l[i].coord.x - aabb.xMin) * scale);
+			int y = (int)((l[i].coord.y - aabb.yMin) * scale);
+			key[i - 1] = (getHilbertIndex(x, y) << 32) | i;
+		}
+		Arrays.sort(key);
+		int[] order = new int[n];
+		for (int i=1; i<n; i++) {
+			order[i] = (int)key[i - 1];
+		}
+		return order;
+	}
+
+	/**
+	 * Get the distance along a Hilbert curve of a point within the curve grid.
+	 * @param x X-component, from 0 to 2^hilbertBits-1.
+	 * @param y Y-component, from 0 to 2^hilbertBits-1.
+	 * @return Distance along the curve, from 0 to 4^hilbertBits-1.
+	 */
+	static long getHilbertIndex(int x, int y) {
+		long d = 0;
+		for (int s=1<<(hilbertBits-1); s>0; s>>>=1) {
+			int rx = ((x & s) != 0) ? 1 : 0;
+			int ry = ((y & s) != 0) ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+
+			// Rotate the quadrant so the curve continues correctly
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Get a location list rearranged into the given order.
+	 * @param l The location list.
+	 * @param order The original index of each location within the new list.
+	 * @return The reordered location list.
+	 */
+	static protected Location[] getReorderedList(Location[] l, int[] order) {
+		Location[] list = new Location[order.length];
+		for (int i=0; i<order.length; i++) list[i] = l[order[i]];
+		return list;
+	}
+
+	/**
+	 * Record the original index of every location, after the location list was reordered.
+	 * @param order The original index of each location.
+	 */
+	protected void setOriginalIndex(int[] order) {
+		assert order.length == size;
+		for (int i=0; i<size; i++) {
+			originalIndex[i] = order[i];
+			internalIndex[order[i]] = i;
+		}
 	}
-	
+
+	/**
+	 * Get the index which a location had within the location list used to create the distance matrix.
+	 * Original indices are never reused. Locations added later are numbered after every original index given out
+	 * so far, and a removed location leaves a gap, so every other location keeps its original index.
+	 * @param index The index of the location within the distance matrix.
+	 * @return The original index of the location.
+	 */
+	public int getOriginalIndex(int index) {
+		return originalIndex[index];
+	}
+
+	/**
+	 * Get the index within the distance matrix of a location, given its original index.
+	 * @param original The original index of the location.
+	 * @return The index of the location within the distance matrix, or -1 if the location has been removed.
+	 */
+	public int getInternalIndex(int original) {
+		return internalIndex[original];
+	}
+
+	/**
+	 * Get the number of original indices given out, including those of removed locations.
+	 * This is the original index the next added location will have.
+	 * @return Number of original indices.
+	 */
+	public int getOriginalCount() {
+		return originalCount;
+	}
+
+	/**
+	 * Get a copy of the location list in its original order, such as for saving to a file.
+	 * Removed locations are left out, so once a location has been removed the position of a location within the
+	 * list (its export index) can be lower than its original index. See getExportIndex().
+	 * @return The location list.
+	 */
+	public Location[] getOriginalList() {
+		Location[] list = new Location[size];
+		int j = 0;
+		for (int o=0; o<originalCount; o++) {
+			if (internalIndex[o] >= 0) list[j++] = location[internalIndex[o]];
+		}
+		return list;
+	}
+
+	/**
+	 * Get the position of each location within the list given by getOriginalList().
+	 * This is used to number locations compactly when they are saved, so that saved routes match saved locations.
+	 * @return The export index of each original index, or -1 for removed locations.
+	 */
+	public int[] getExportIndex() {
+		int[] result = new int[originalCount];
+		int j = 0;
+		for (int o=0; o<originalCount; o++) {
+			result[o] = (internalIndex[o] >= 0) ? j++ : -1;
+		}
+		return result;
+	}
+
+	/**
+	 * Create a distance matrix holding the same locations as this one, using a different cost provider.
+	 * Every location keeps its original index.
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @return The new distance matrix.
+	 */
+	public DistanceMatrix withCostProvider(CostProvider p) {
+		return rebuild(p, null, -1);
+	}
+
+	/**
+	 * Create a distance matrix holding the same locations as this one, plus a new location.
+	 * This distance matrix is not changed, so other threads may keep reading it.
+	 * The new location is given the next original index. If this distance matrix is resizable then the new
+	 * location has an index equal to the size of this distance matrix, otherwise the distance matrix is rebuilt
+	 * and every location may have a new index.
+	 * @param l The location to add.
+	 * @return The new distance matrix.
+	 */
+	public DistanceMatrix withLocationAdded(Location l) {
+		if (!isResizable()) return rebuild(costProvider, l, -1);
+		DistanceMatrix result = makeCopy();
+		result.addLocation(l);
+		return result;
+	}
+
+	/**
+	 * Create a distance matrix holding the same locations as this one, apart from a removed location.
+	 * This distance matrix is not changed, so other threads may keep reading it.
+	 * If this distance matrix is resizable then the last location is moved into the index of the removed location,
+	 * otherwise the distance matrix is rebuilt and every location may have a new index.
+	 * Every other location keeps its original index.
+	 * @param index Index of the location to remove. The depot (location 0) cannot be removed.
+	 * @return The new distance matrix.
+	 */
+	public DistanceMatrix withLocationRemoved(int index) {
+		assert (0 < index) && (index < size);
+		if (!isResizable()) return rebuild(costProvider, null, index);
+		DistanceMatrix result = makeCopy();
+		result.removeLocation(index);
+		return result;
+	}
+
+	/**
+	 * Create a new distance matrix from the locations of this one using create(), keeping their original indices.
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @param added A location to add, which is given the next original index, or null.
+	 * @param removed Index of a location to leave out, or -1.
+	 * @return The new distance matrix.
+	 */
+	private DistanceMatrix rebuild(CostProvider p, Location added, int removed) {
+		
+		// Gather the locations in original order, along with their original indices
+		final int count = size + ((added != null) ? 1 : 0) - ((removed >= 0) ? 1 : 0);
+		Location[] list = new Location[count];
+		int[] original = new int[count];
+		int j = 0;
+		for (int o=0; o<originalCount; o++) {
+			final int i = internalIndex[o];
+			if ((i < 0) || (i == removed)) continue;
+			list[j] = location[i];
+			original[j++] = o;
+		}
+		if (added != null) {
+			list[j] = added;
+			original[j++] = originalCount;
+		}
+		
+		// Create the new distance matrix, then number its locations by their original indices
+		DistanceMatrix result = create(list, p);
+		result.renumberOriginalIndex(original, originalCount + ((added != null) ? 1 : 0));
+		return result;
+	}
+
+	/**
+	 * Replace the original index of every location, after the distance matrix was created from a location list
+	 * which left out removed locations.
+	 * @param original The original index to give each location, by its index within the location list used.
+	 * @param count The number of original indices given out, including those of removed locations.
+	 */
+	private void renumberOriginalIndex(int[] original, int count) {
+		assert original.length == size;
+		internalIndex = new int[count];
+		Arrays.fill(internalIndex, -1);
+		for (int i=0; i<size; i++) {
+			originalIndex[i] = original[originalIndex[i]];
+			internalIndex[originalIndex[i]] = i;
+		}
+		originalCount = count;
+	}
+
+	/**
+	 * Make a copy of this distance matrix, which can then have a location added or removed.
+	 * Derived classes which can be resized must return a copy of their own type.
+	 * @return The copy.
+	 */
+	protected DistanceMatrix makeCopy() {
+		return new DistanceMatrix(this);
+	}
+
+	/**
+	 * Add a new location to the end of the location list.
+	 * Only the distances from the new location are calculated, which are appended to the packed cells.
+	 * Must only be called on a new copy, before any other thread can read it.
+	 * @param l The location to add.
+	 * @return Index of the new location.
+	 */
+	protected int addLocation(Location l) {
+		assert l != null;
+		assert isResizable();
+		final int b = size;
+
+		// Make sure there is room for the new location, then give it the next original index
+		if (b >= location.length) {
+			location = Arrays.copyOf(location, Math.max(b + 1, location.length * 2));
+			originalIndex = Arrays.copyOf(originalIndex, location.length);
+		}
+		final int o = originalCount++;
+		if (o >= internalIndex.length) {
+			internalIndex = Arrays.copyOf(internalIndex, Math.max(o + 1, internalIndex.length * 2));
+		}
+		location[b] = l;
+		originalIndex[b] = o;
+		internalIndex[o] = b;
+		locationAABB.add(l.coord);
+
+		// Calculate the new column of cells, if this matrix stores them
+		if (hasCells()) {
+			if (b >= packedSizeMax) {
+				throw new IllegalArgumentException("Too many locations for a packed distance matrix: " + (b + 1));
+			}
+
+			// Calculate the distances to every existing location
+			// Each distance is calculated on its own, as a cost provider's shared work covers the whole list
+			long[] column = new long[b];
+			long columnMax = 0;
+			for (int a=0; a<b; a++) {
+				column[a] = calculate(a, b);
+				if (columnMax < column[a]) columnMax = column[a];
+			}
+
+			// Widen the cells if the new distances do not fit
+			if (columnMax > getCellLimit()) {
+				repackCells(Math.max(columnMax, getCostBound()));
+			}
+
+			// Make sure the cell array is large enough, then store the new column
+			// A shared cell array is only written in place if no other copy has already claimed the new column
+			long cells = cellCount(b + 1);
+			int allocation = (cellShort != null) ? cellShort.length : cellInt.length;
+			if (cells > allocation) {
+				int newAllocation = (int)Math.min(Math.max(cells, allocation * 2L), cellCount(packedSizeMax));
+				unshareCells(newAllocation, b + 1);
+			} else if (!cellClaim.compareAndSet(b, b + 1)) {
+				unshareCells(allocation, b + 1);
+			}
+			int first = cellIndex(0, b);
+			for (int a=0; a<b; a++) {
+				setCell(first + a, column[a]);
+			}
+			if (maxDistance < columnMax) maxDistance = columnMax;
+		}
+		size = b + 1;
+		return b;
+	}
+
+	/**
+	 * Remove a location from the location list.
+	 * The last location is moved into the place of the removed location, so only O(n) cells are changed.
+	 * The moved location keeps its original index, and the original index of the removed location is not reused.
+	 * The maximum distance and AABB are not reduced, so they remain upper bounds.
+	 * Must only be called on a new copy, before any other thread can read it.
+	 * @param index Index of the location to remove. The depot (location 0) cannot be removed.
+	 */
+	protected void removeLocation(int index) {
+		assert (0 < index) && (index < size);
+		assert isResizable();
+		final int last = size - 1;
+
+		// Leave a gap at the original index of the removed location
+		internalIndex[originalIndex[index]] = -1;
+		if (index != last) {
+
+			// Copy the distances from the last location into the removed location
+			// The cells are changed in place, so they must first be copied away from any older matrix
+			if (hasCells()) {
+				unshareCells((cellShort != null) ? cellShort.length : cellInt.length, last);
+				for (int x=0; x<last; x++) {
+					if (x != index) {
+						int from = cellIndex(x, last);
+						int to = (x < index) ? cellIndex(x, index) : cellIndex(index, x);
+						if (cellShort != null) cellShort[to] = cellShort[from]; else cellInt[to] = cellInt[from];
+					}
+				}
+			}
+			location[index] = location[last];
+			originalIndex[index] = originalIndex[last];
+			internalIndex[originalIndex[index]] = index;
+		}
+		size = last;
+	}
+
+	/**
+	 * Check if locations can be added to or removed from this distance matrix.
+	 * @return True if withLocationAdded() and withLocationRemoved() may be used.
+	 */
+	public boolean isResizable() {
+		return true;
+	}
+
 	/**
 	 * Get a reference to the given location data.
 	 * The location data should be read only.
@@ -71,7 +593,7 @@ public class DistanceMatrix {
 	public Location getLocation(int index) {
 		return location[index];
 	}
-	
+
 	/**
 	 * Get the maximum distance between any two locations within the distance matrix.
 	 * @return Max distance between locations.
@@ -79,7 +601,7 @@ public class DistanceMatrix {
 	public long getMaxDistance() {
 		return maxDistance;
 	}
-	
+
 	/**
 	 * Get a copy of the axis aligned bounding box which encompasses all locations.
 	 * @return AABB encompassing all locations
@@ -88,19 +610,285 @@ public class DistanceMatrix {
 		return new AABB(locationAABB);
 	}
 
+	/**
+	 * Get the number of bytes used to store each cell of the matrix.
+	 * @return Cell width in bytes.
+	 */
+	public int getCellWidth() {
+		return (cellShort != null) ? 2 : 4;
+	}
+
+	/**
+	 * Get the scale applied to stored cell values.
+	 * This is only greater than one when distances are too large to be stored exactly.
+	 * @return Multiplier used to convert a cell value into a distance.
+	 */
+	public long getCellScale() {
+		return cellScale;
+	}
+
+	/**
+	 * Get the cost provider used to calculate travel costs.
+	 * @return The cost provider, or null if straight-line distances are used.
+	 */
+	public CostProvider getCostProvider() {
+		return costProvider;
+	}
+
+	/**
+	 * Get an upper bound for the straight-line distance between any two points within an AABB.
+	 * @param aabb The area containing all locations.
+	 * @return Length of the AABB diagonal, rounded up.
+	 */
+	static public long getDistanceBound(AABB aabb) {
+		if (!aabb.isValid()) return 0;
+		double dx = aabb.xMax - aabb.xMin;
+		double dy = aabb.yMax - aabb.yMin;
+		return (long)Math.ceil(Math.sqrt((dx * dx) + (dy * dy)));
+	}
+
+	/**
+	 * Get an upper bound for the cost of travelling between any two locations within the matrix.
+	 * @return Largest possible distance.
+	 */
+	protected long getCostBound() {
+		if (costProvider != null) return costProvider.getCostBound(Arrays.copyOf(location, size));
+		return getDistanceBound(locationAABB);
+	}
+
+	/**
+	 * Get the index of a cell within the packed upper triangle.
+	 * Column-B holds the distances from locations 0 to B-1, so columns are stored one after the other.
+	 * @param locationA The lower location index.
+	 * @param locationB The higher location index.
+	 * @return Index of the cell within the cell array.
+	 */
+	static protected int cellIndex(int locationA, int locationB) {
+		assert locationA < locationB;
+		return (int)((((long)locationB * (locationB - 1)) >>> 1) + locationA);
+	}
+
+	/**
+	 * Get the number of cells needed to store the upper triangle of a matrix.
+	 * @param n Size of the matrix in one dimension.
+	 * @return Number of cells.
+	 */
+	static protected long cellCount(int n) {
+		return ((long)n * (n - 1)) >>> 1;
+	}
+
+	/**
+	 * Create the cell array using the narrowest type which can hold the given distance.
+	 * @param bound The largest distance which will need to be stored.
+	 */
+	private void allocateCells(long bound, int allocation) {
+		if (getCellWidth(bound) == 2) {
+			cellShort = new short[allocation];
+		} else {
+			cellInt = new int[allocation];
+		}
+		cellScale = getCellScale(bound);
+		cellClaim = new AtomicInteger(size);
+	}
+
+	/**
+	 * Give this matrix its own copy of the cell array, so it can be changed without affecting older matrices.
+	 * @param allocation Length of the new cell array.
+	 * @param claimed Number of locations whose columns the new cell array will hold.
+	 */
+	private void unshareCells(int allocation, int claimed) {
+		if (cellShort != null) cellShort = Arrays.copyOf(cellShort, allocation);
+		else cellInt = Arrays.copyOf(cellInt, allocation);
+		cellClaim = new AtomicInteger(claimed);
+	}
+
+	/**
+	 * Convert the cells to a format which can hold the given distance.
+	 * @param bound The largest distance which will need to be stored.
+	 */
+	private void repackCells(long bound) {
+		short[] oldShort = cellShort;
+		int[] oldInt = cellInt;
+		long oldScale = cellScale;
+		cellShort = null;
+		cellInt = null;
+		allocateCells(bound, (oldShort != null) ? oldShort.length : oldInt.length);
+		int cells = (int)cellCount(size);
+		for (int i=0; i<cells; i++) {
+			setCell(i, (oldShort != null) ? (oldShort[i] & 0xFFFF) : (oldInt[i] & 0xFFFFFFFFL) * oldScale);
+		}
+	}
+
+	/**
+	 * Check if this matrix stores its distances within the packed cells.
+	 * @return True if the cells are used.
+	 */
+	private boolean hasCells() {
+		return (cellShort != null) || (cellInt != null);
+	}
+
+	/**
+	 * Get the largest distance which can be stored within the current cell format.
+	 * @return Largest storable distance.
+	 */
+	private long getCellLimit() {
+		return (cellShort != null) ? 0xFFFF : 0xFFFFFFFFL * cellScale;
+	}
+
+	/**
+	 * Get the narrowest cell width able to store distances up to the given bound.
+	 * @param bound The largest distance which will need to be stored.
+	 * @return Cell width in bytes, either 2 or 4.
+	 */
+	static protected int getCellWidth(long bound) {
+		return (bound <= 0xFFFF) ? 2 : 4;
+	}
+
+	/**
+	 * Get the scale needed so that distances up to the given bound fit within a cell.
+	 * @param bound The largest distance which will need to be stored.
+	 * @return Multiplier used to convert a cell value into a distance.
+	 */
+	static protected long getCellScale(long bound) {
+		return (getCellWidth(bound) == 2) ? 1 : Math.max(1, (bound + 0xFFFFFFFEL) / 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Store a distance within a cell, applying the cell scale if needed.
+	 * @param index Index of the cell.
+	 * @param d The distance to store.
+	 */
+	private void setCell(int index, long d) {
+		if (cellShort != null) {
+			cellShort[index] = (short)d;
+		} else {
+			cellInt[index] = (int)((d + (cellScale / 2)) / cellScale);
+		}
+	}
+
+	/**
+	 * Get the AABB which encompasses a range of locations.
+	 * @param first Index of the first location.
+	 * @param end Index after the last location.
+	 * @return AABB encompassing the locations.
+	 */
+	private AABB getBounds(int first, int end) {
+		AABB aabb = new AABB();
+		for (int i=first; i<end; i++) {
+			aabb.add(location[i].coord);
+		}
+		return aabb;
+	}
+
+	/**
+	 * Fill the cells of a range of columns.
+	 * Column-B holds every combination of location-B with a lower location.
+	 * Cells where the location leads to itself are not stored.
+	 * When a cost provider is used each column is requested at once, so the provider can share work.
+	 * @param first Index of the first column.
+	 * @param end Index after the last column.
+	 * @return The longest distance found within the columns.
+	 */
+	private long fillColumns(int first, int end) {
+		long max = 0;
+		long[] column = (costProvider != null) ? new long[end - 1] : null;
+		for (int b=first; b<end; b++) {
+			if (column != null) costProvider.getCosts(location, b, column);
+			for (int a=0; a<b; a++) {
+				long d = (column != null) ? column[a] : calculate(a, b);
+				setCell(cellIndex(a, b), d);
+				if (max < d) max = d;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Used to calculate the location AABB in parallel.
+	 * Each block of locations gets its own AABB, and the blocks are then merged.
+	 */
+	@SuppressWarnings("serial")
+	private class BoundsTask extends RecursiveTask<AABB> {
+		private final int first;
+		private final int end;
+
+		BoundsTask(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected AABB compute() {
+			if ((end - first) <= parallelBlockSize) {
+				return getBounds(first, end);
+			}
+			int mid = (first + end) >>> 1;
+			BoundsTask upper = new BoundsTask(mid, end);
+			upper.fork();
+			AABB aabb = new BoundsTask(first, mid).compute();
+			aabb.add(upper.join());
+			return aabb;
+		}
+	}
+
+	/**
+	 * Used to fill the cells in parallel.
+	 * The columns are split so that each block holds about the same number of cells,
+	 * and the longest distance of each block is then reduced to a single value.
+	 */
+	@SuppressWarnings("serial")
+	private class FillTask extends RecursiveTask<Long> {
+		private final int first;
+		private final int end;
+
+		FillTask(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected Long compute() {
+			long lower = cellCount(first);
+			long upper = cellCount(end);
+			if (((upper - lower) <= parallelBlockSize) || ((end - first) < 2)) {
+				return fillColumns(first, end);
+			}
+
+			// Find the column which splits the cells in half
+			// This solves mid * (mid - 1) / 2 = cells for mid
+			double cells = (lower + upper) / 2.0;
+			int mid = (int)((1.0 + Math.sqrt(1.0 + (8.0 * cells))) / 2.0);
+			mid = Math.max(first + 1, Math.min(end - 1, mid));
+
+			FillTask right = new FillTask(mid, end);
+			right.fork();
+			long max = new FillTask(first, mid).compute();
+			return Math.max(max, right.join());
+		}
+	}
+
 	/**
 	 * Calculates and returns the cost of travelling from location-A to location-B.
+	 * The cost provider is used if there is one, otherwise the straight-line distance is used.
 	 */
-	private long calculate(int locationA, int locationB) {
+	protected long calculate(int locationA, int locationB) {
 		Location a = location[locationA];
 		Location b = location[locationB];
+		if (costProvider != null) return costProvider.getCost(a, b);
 		double dx = a.coord.x - b.coord.x;
 		double dy = a.coord.y - b.coord.y;
 		return (long)Math.sqrt((dx * dx) + (dy * dy));
 	}
-	
-	private long[][] distance;
+
+	private short[] cellShort;
+	private int[] cellInt;
+	private long cellScale;
+	private AtomicInteger cellClaim;
+	final private CostProvider costProvider;
 	private Location[] location;
+	private int[] originalIndex;
+	private int[] internalIndex;
+	private int originalCount;
 	private int size;
 	private long maxDistance;
 	private AABB locationAABB;
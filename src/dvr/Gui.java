@@ -1,8 +1,6 @@
 package dvr;
 
 import java.awt.*;
-import java.util.Timer;
-import java.util.TimerTask;
 import javax.swing.*;
 
 @SuppressWarnings("serial")
@@ -14,19 +12,24 @@ public class Gui extends JFrame {
 	 */
 	public Gui(SolverThread s) {
 
+		// Use the pheromone mode saved within the configuration file
+		s.setPheromoneMode(new Config().getPheromoneMode());
+
 		// Setup location renderer panel
 		LocationRenderer locationPanel = new LocationRenderer(s);
 
 		// Setup control panel
 		JPanel controlPanel = new JPanel();
-		controlPanel.setLayout(new GridLayout(7, 1));
+		controlPanel.setLayout(new GridLayout(9, 1));
 		controlPanel.add(new ButtonRandomLocations(this, s));
 		controlPanel.add(new ButtonLoadLocations(this, s));
+		controlPanel.add(new ButtonLoadRoadNetwork(this, s));
 		controlPanel.add(new ButtonSaveLocations(s));
 		controlPanel.add(new ButtonSaveRoute(s));
 		controlPanel.add(new ButtonToggleRunning(s));
 		controlPanel.add(new ButtonToggleWorkings(locationPanel));
 		controlPanel.add(new ButtonToggleSolver(this, s));
+		controlPanel.add(new ButtonTogglePheromoneMode(this, s));
 
 		// Setup top split panel
 		JPanel topPanel = new JPanel(new BorderLayout());
@@ -43,14 +46,20 @@ public class Gui extends JFrame {
 		// Final command before returning
 		pack();
 
-		// Set a timer to refresh the screen from time to time
-		refreshTimer = new Timer(true);
-		refreshTimer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				repaint();
+		// Start a thread which refreshes the screen each time the solver publishes a new state
+		// The solver workings change on every run, so they are also refreshed from time to time while shown
+		refreshThread = new Thread(() -> {
+			long generation = -1;
+			try {
+				while (true) {
+					generation = s.awaitNewerThan(generation, locationPanel.showWorking ? workingsInterval : 0).getGeneration();
+					repaint();
+				}
+			} catch (InterruptedException e) {
 			}
-		}, 250, 250);
+		}, "gui-refresh");
+		refreshThread.setDaemon(true);
+		refreshThread.start();
 	}
 	
 
@@ -76,5 +85,10 @@ public class Gui extends JFrame {
 		return frame;
 	}*/
 	
-	private Timer refreshTimer;
+	/**
+	 * Time between refreshes of the solver workings, in milliseconds.
+	 */
+	static final private long workingsInterval = 250;
+	
+	private Thread refreshThread;
 }
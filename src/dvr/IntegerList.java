@@ -61,12 +61,27 @@ public class IntegerList {
 	 */
 	public void remove(int index) {
 		assert (0 <= index) && (index < used);
-		for (int i=used-1; i>index; i--) {
+		for (int i=index+1; i<used; i++) {
 			data[i - 1] = data[i];
 		}
 		used--;
 	}
 
+	/**
+	 * Insert a new integer value into the list at a given index.
+	 * Any values located at or after the index will be moved back within the list to make room.
+	 * @param index Index which the new integer will have.
+	 * @param newValue The new integer to add to the list.
+	 */
+	public void insert(int index, int newValue) {
+		assert (0 <= index) && (index <= used);
+		add(newValue);
+		for (int i=used-1; i>index; i--) {
+			data[i] = data[i - 1];
+		}
+		data[index] = newValue;
+	}
+
 	/**
 	 * Remove the integer value from the list at a given index.
 	 * The value at the end of the list is swapped with the target value, and then the list is shortened.
@@ -0,0 +1,311 @@
+package dvr;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distance matrix which calculates distances on demand instead of storing every cell.
+ * Recently used rows are kept within a bounded cache, which is safe to share between threads.
+ * This allows very large location lists to be used with a bounded heap.
+ * <p>
+ * The cache holds one slot per location, so a lookup is a single volatile read with no lock and no hashing.
+ * A hit only sets the referenced flag of the row, and only if it is not already set. When the cache is full,
+ * a clock hand sweeps the slots and evicts the first row which has not been referenced since the hand last
+ * passed it, which approximates least-recently-used eviction. A lock is only taken when a calculated row is
+ * added, which already costs O(n) time.
+ */
+public class LazyDistanceMatrix extends DistanceMatrix {
+
+	/**
+	 * The fraction of the maximum heap size which the default row cache may use.
+	 */
+	static final public float defaultCacheHeapFraction = 0.25f;
+
+	/**
+	 * Lazy distance matrix constructor.
+	 * The number of cached rows is chosen to fit within a fraction of the heap.
+	 * @param l List of locations used to initialise the distance matrix
+	 */
+	public LazyDistanceMatrix(Location[] l) {
+		this(l, null, getDefaultRowCacheSize(l.length));
+	}
+
+	/**
+	 * Lazy distance matrix constructor.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param rowCacheSize The maximum number of rows to keep within the cache.
+	 */
+	public LazyDistanceMatrix(Location[] l, int rowCacheSize) {
+		this(l, null, rowCacheSize);
+	}
+
+	/**
+	 * Lazy distance matrix constructor using travel costs from a cost provider.
+	 * The number of cached rows is chosen to fit within a fraction of the heap.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 */
+	public LazyDistanceMatrix(Location[] l, CostProvider p) {
+		this(l, p, getDefaultRowCacheSize(l.length));
+	}
+
+	/**
+	 * Lazy distance matrix constructor using travel costs from a cost provider.
+	 * @param l List of locations used to initialise the distance matrix
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @param rowCacheSize The maximum number of rows to keep within the cache.
+	 */
+	public LazyDistanceMatrix(Location[] l, CostProvider p, int rowCacheSize) {
+		super(l, p, false);
+		assert rowCacheSize > 0;
+
+		// Record general values
+		this.rowCacheSize = rowCacheSize;
+		maxDistance = getCostBound();
+		cacheHits = new LongAdder();
+		cacheMisses = new LongAdder();
+		cacheLock = new Object();
+		clearRowCache();
+	}
+
+	/**
+	 * Lazy distance matrix copy constructor, used before adding or removing a location.
+	 * The copy starts with an empty row cache of the same capacity.
+	 * @param src The distance matrix to copy.
+	 */
+	protected LazyDistanceMatrix(LazyDistanceMatrix src) {
+		super(src);
+		rowCacheSize = src.rowCacheSize;
+		maxDistance = src.maxDistance;
+		cacheHits = new LongAdder();
+		cacheMisses = new LongAdder();
+		cacheLock = new Object();
+		clearRowCache();
+	}
+
+	/**
+	 * Make a copy of this distance matrix, which can then have a location added or removed.
+	 * @return The copy.
+	 */
+	@Override
+	protected DistanceMatrix makeCopy() {
+		return new LazyDistanceMatrix(this);
+	}
+
+	/**
+	 * Get the distance between two locations.
+	 * The distance is read from a cached row of either location if possible,
+	 * otherwise the row of location-A is calculated and added to the cache.
+	 * @param locationA The index of location-A within the location list.
+	 * @param locationB The index of location-B within the location list.
+	 * @return Cost of travelling from location-A to location-B.
+	 */
+	@Override
+	public long getDistance(int locationA, int locationB) {
+		if (locationA == locationB) return 0;
+
+		// Search the cache for either row, without locking
+		final AtomicReferenceArray<long[]> cache = rows;
+		long[] row = cache.get(locationA);
+		if (row != null) {
+			markReferenced(locationA);
+			cacheHits.increment();
+			return row[locationB];
+		}
+		row = cache.get(locationB);
+		if (row != null) {
+			markReferenced(locationB);
+			cacheHits.increment();
+			return row[locationA];
+		}
+
+		// Calculate the row, which is then added to the cache
+		cacheMisses.increment();
+		return getRow(locationA)[locationB];
+	}
+
+	/**
+	 * Get every distance from a single location, using the cache if possible.
+	 * The returned row is shared with the cache and must not be altered.
+	 * @param locationA The index of the location within the location list.
+	 * @return The distance from location-A to every other location.
+	 */
+	public long[] getRow(int locationA) {
+		long[] row = rows.get(locationA);
+		if (row != null) {
+			markReferenced(locationA);
+			return row;
+		}
+
+		// Calculate the row outside of the lock so that other readers are not held up
+		final int n = size();
+		row = new long[n];
+		for (int b=0; b<n; b++) {
+			row[b] = (b != locationA) ? calculate(locationA, b) : 0;
+		}
+
+		// Add the row, unless another thread added the same row in the meantime
+		// Evict a row first if the cache is full
+		synchronized(cacheLock) {
+			long[] existing = rows.get(locationA);
+			if (existing != null) return existing;
+			if (cachedCount >= rowCacheSize) evictRow();
+			rows.set(locationA, row);
+			cachedCount++;
+		}
+		return row;
+	}
+
+	/**
+	 * Add a new location to the end of the location list.
+	 * The row cache is cleared, as every cached row is now too short.
+	 * @param l The location to add.
+	 * @return Index of the new location.
+	 */
+	@Override
+	protected int addLocation(Location l) {
+		int index = super.addLocation(l);
+		maxDistance = getCostBound();
+		clearRowCache();
+		return index;
+	}
+
+	/**
+	 * Remove a location from the location list.
+	 * The row cache is cleared, as the last location is moved into the removed index.
+	 * @param index Index of the location to remove.
+	 */
+	@Override
+	protected void removeLocation(int index) {
+		super.removeLocation(index);
+		clearRowCache();
+	}
+
+	/**
+	 * Get an upper bound for the distance between any two locations.
+	 * The exact maximum would need every distance to be calculated, so the length of the
+	 * diagonal across the location AABB (or the bound given by the cost provider) is used instead.
+	 * @return Max distance between locations.
+	 */
+	@Override
+	public long getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Get the number of bytes used to store each cell of a cached row.
+	 * @return Cell width in bytes.
+	 */
+	@Override
+	public int getCellWidth() {
+		return Long.BYTES;
+	}
+
+	/**
+	 * Get the scale applied to stored cell values.
+	 * @return Multiplier used to convert a cell value into a distance.
+	 */
+	@Override
+	public long getCellScale() {
+		return 1;
+	}
+
+	/**
+	 * Get the maximum number of rows kept within the cache.
+	 * @return Row cache capacity.
+	 */
+	public int getRowCacheSize() {
+		return rowCacheSize;
+	}
+
+	/**
+	 * Get the number of distance lookups which were answered from the row cache.
+	 * @return Number of cache hits.
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * Get the number of distance lookups which required a row to be calculated.
+	 * @return Number of cache misses.
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * Get the fraction of distance lookups which were answered from the row cache.
+	 * @return Hit rate between 0 and 1.
+	 */
+	public float getCacheHitRate() {
+		long hits = cacheHits.sum();
+		long total = hits + cacheMisses.sum();
+		return (total > 0) ? (float)hits / (float)total : 0;
+	}
+
+	/**
+	 * Replace the row cache with an empty cache holding one slot per location.
+	 */
+	private void clearRowCache() {
+		synchronized(cacheLock) {
+			referenced = new byte[size()];
+			rows = new AtomicReferenceArray<long[]>(size());
+			cachedCount = 0;
+			clockHand = 0;
+		}
+	}
+
+	/**
+	 * Set the referenced flag of a cached row, so the clock hand passes over it once.
+	 * The flag is only written if it is not already set, so rows which are read often are not written to by
+	 * every reader. The flag is not read or written atomically, as eviction only needs to be approximate.
+	 * @param locationA The index of the location whose row was used.
+	 */
+	private void markReferenced(int locationA) {
+		final byte[] r = referenced;
+		if ((locationA < r.length) && (r[locationA] == 0)) r[locationA] = 1;
+	}
+
+	/**
+	 * Evict one row from the cache, using the clock hand.
+	 * Rows which have been referenced since the hand last passed have their flag cleared and are kept.
+	 * This method must be protected by the cache lock, as it has none of its own.
+	 */
+	private void evictRow() {
+		final int n = rows.length();
+		while (true) {
+			final int i = clockHand;
+			clockHand = (i + 1 < n) ? i + 1 : 0;
+			if (rows.get(i) == null) continue;
+			if (referenced[i] != 0) {
+				referenced[i] = 0;
+			} else {
+				rows.set(i, null);
+				cachedCount--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of rows which fit within the default fraction of the heap.
+	 * @param n Number of locations.
+	 * @return Default row cache capacity.
+	 */
+	static private int getDefaultRowCacheSize(int n) {
+		long budget = (long)(Runtime.getRuntime().maxMemory() * defaultCacheHeapFraction);
+		long rowBytes = (long)n * Long.BYTES;
+		return (int)Math.max(1, Math.min(n, budget / rowBytes));
+	}
+
+	final private int rowCacheSize;
+	private long maxDistance;
+	final private Object cacheLock;
+	private volatile AtomicReferenceArray<long[]> rows;
+	private volatile byte[] referenced;
+	private int cachedCount;
+	private int clockHand;
+	final private LongAdder cacheHits;
+	final private LongAdder cacheMisses;
+}
@@ -0,0 +1,607 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * Improves a list of routes by applying small changes (moves) which each reduce the total distance,
+ * until no more can be found. The moves used are:
+ * <ul>
+ * <li>2-opt: reverse part of a trip. Between two trips the tails of the trips are exchanged instead (2-opt*).</li>
+ * <li>Or-opt: move a segment of up to {@link #segmentMax} locations elsewhere, within a trip or into another trip.
+ * Moving a single location is a relocate.</li>
+ * <li>Swap: exchange two locations.</li>
+ * <li>Cross-exchange: exchange a segment of one trip with a segment of another trip.</li>
+ * </ul>
+ * Each route is split into trips, each starting and ending at the depot (location index 0), and no trip may hold
+ * more locations than the capacity of its vehicle. Each move only changes a few paths, so its effect on the distance
+ * is found in O(1) time from the distances of the paths it removes and adds.
+ * <p>
+ * Only moves which place a location next to one of its nearest neighbours are tested. Each location also has a
+ * don't-look bit: once no move around a location improves the routes it is skipped, until a move changes one of the
+ * paths next to it. The locations to test are held in a queue, so each search takes time in proportion to the
+ * number of moves made rather than the number of locations.
+ * <p>
+ * Reversing part of a trip held in an array takes time in proportion to the length of the trip, which is slow for
+ * long trips such as when a vehicle has no capacity limit. Trips of at least {@link #tourMin} locations are therefore
+ * first improved with 2-opt alone, holding the trip in a {@link TwoLevelTour} where each reversal takes
+ * O(sqrt(n)) time, before the other moves are tested.
+ * <p>
+ * A local search object holds buffers which are reused, so one object should not be used by several threads at once.
+ * The neighbour list is only read, so it can be shared.
+ */
+public class LocalSearch {
+
+	/**
+	 * Default number of nearest neighbours considered for each location.
+	 */
+	static final public int neighbourCountDefault = 8;
+
+	/**
+	 * The largest number of locations in a segment moved by Or-opt or cross-exchange.
+	 */
+	static final public int segmentMax = 3;
+
+	/**
+	 * The smallest number of locations within a trip for it to be improved as a two-level list.
+	 */
+	static final public int tourMin = 1000;
+
+	/**
+	 * Improve a list of routes in place.
+	 * Every route must start and end at the depot, otherwise the routes are left unchanged.
+	 * @param route The list of routes, with one route per vehicle.
+	 * @return Total cost of the routes.
+	 */
+	public long improve(Route[] route) {
+		moveCount = 0;
+		if (!load(route)) return Route.getCost(route);
+
+		// Improve long trips as two-level lists first
+		for (int t=0; t<tripCount; t++) {
+			if (trip[t].length - 1 >= tourMin) improveTour(t);
+		}
+
+		// Test every location, until none can be improved
+		for (int t=0; t<tripCount; t++) {
+			for (int i=1; i<trip[t].length-1; i++) touch(trip[t][i]);
+		}
+		while (queueCount > 0) {
+			final int a = poll();
+			if (improveLocation(a)) {
+				moveCount++;
+				touch(a);
+			}
+		}
+
+		// Write the trips back into the routes, if any have changed
+		if (moveCount > 0) store(route);
+		return Route.getCost(route);
+	}
+
+	/**
+	 * Get the number of moves made by the last search.
+	 * @return Number of moves.
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Get the number of locations the search was built for.
+	 * @return Number of locations, including the depot.
+	 */
+	public int size() {
+		return neighbourList.size();
+	}
+
+	/**
+	 * Split each route into trips, and record the trip and position of each location.
+	 * @return False if a route does not start and end at the depot.
+	 */
+	private boolean load(Route[] route) {
+		final int n = distanceMatrix.size();
+		Arrays.fill(tripOf, -1);
+		tripCount = 0;
+		capacity = new int[route.length];
+		for (int v=0; v<route.length; v++) {
+			final Route r = route[v];
+			capacity[v] = ((vehicleCapacity != null) && (v < vehicleCapacity.length)) ? vehicleCapacity[v] : Integer.MAX_VALUE;
+			if (r.isEmpty()) continue;
+			if ((r.getLocationIndex(0) != 0) || (r.getLocationIndex(r.size() - 1) != 0)) return false;
+
+			// Each trip runs between two visits to the depot
+			int start = 0;
+			for (int i=1; i<r.size(); i++) {
+				if (r.getLocationIndex(i) != 0) continue;
+				if (i - start > 1) {
+					if (tripCount == trip.length) {
+						trip = Arrays.copyOf(trip, tripCount * 2);
+						tripVehicle = Arrays.copyOf(tripVehicle, tripCount * 2);
+					}
+					final int[] t = new int[i - start + 1];
+					for (int j=0; j<t.length; j++) {
+						t[j] = r.getLocationIndex(start + j);
+						assert (t[j] == 0) || (t[j] < n);
+					}
+					tripVehicle[tripCount] = v;
+					trip[tripCount] = t;
+					updatePositions(tripCount++);
+				}
+				start = i;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write the trips back into the routes, in their original order.
+	 * Trips which have become empty are dropped.
+	 */
+	private void store(Route[] route) {
+		for (Route r : route) {
+			r.clear();
+			r.add(0);
+		}
+		for (int t=0; t<tripCount; t++) {
+			final int[] locations = trip[t];
+			if (locations.length <= 2) continue;
+			final Route r = route[tripVehicle[t]];
+			r.add(locations, 1, locations.length);
+		}
+	}
+
+	/**
+	 * Apply 2-opt moves to a trip held as a two-level list, until none reduce the distance.
+	 * The trip is only written back if it has changed.
+	 */
+	private void improveTour(int t) {
+		if (tour == null) tour = new TwoLevelTour(distanceMatrix.size());
+		final int[] locations = trip[t];
+		final int count = locations.length - 1;
+		tour.load(locations, count);
+		for (int i=1; i<count; i++) touch(locations[i]);
+		int tourMoveCount = 0;
+		while (queueCount > 0) {
+			final int a = poll();
+			if (tryTourTwoOpt(t, a)) {
+				tourMoveCount++;
+				touch(a);
+			}
+		}
+		if (tourMoveCount == 0) return;
+
+		// Copy the tour back, starting and ending at the depot
+		moveCount += tourMoveCount;
+		tour.toArray(0, bufferA);
+		bufferA[count] = 0;
+		setTrip(t, bufferA, count + 1);
+	}
+
+	/**
+	 * Try a 2-opt move within a trip held as a two-level list, which joins a location to one of its nearest neighbours.
+	 * The paths after and before the location are both tested. The neighbours are sorted, so once a neighbour is no
+	 * nearer than the location the path leads to, no later neighbour can reduce the distance from this location.
+	 */
+	private boolean tryTourTwoOpt(int t, int a) {
+		final int[] neighbour = neighbourList.getBlock();
+		for (int direction=0; direction<2; direction++) {
+			final boolean forward = (direction == 0);
+			final int an = forward ? tour.next(a) : tour.prev(a);
+			final long removedA = d(a, an);
+			for (int j=neighbourList.getOffset(a), jEnd=j+neighbourList.getCount(); j<jEnd; j++) {
+				final int b = neighbour[j];
+				final long added = d(a, b);
+				if (added >= removedA) break;
+				if ((b != 0) && (tripOf[b] != t)) continue;
+				final int bn = forward ? tour.next(b) : tour.prev(b);
+				final long delta = added + d(an, bn) - removedA - d(b, bn);
+				if (delta >= 0) continue;
+
+				// Make the move, which joins a to b and an to bn
+				touch(a);
+				touch(an);
+				touch(b);
+				touch(bn);
+				if (forward) {
+					tour.reverse(an, b);
+				} else {
+					tour.reverse(a, bn);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Search for a move which places a location next to one of its nearest neighbours and reduces the distance.
+	 * The first such move found is made.
+	 * @param a The location.
+	 * @return True if a move was made.
+	 */
+	private boolean improveLocation(int a) {
+		if (tripOf[a] < 0) return false;
+		final int[] neighbour = neighbourList.getBlock();
+		for (int j=neighbourList.getOffset(a), jEnd=j+neighbourList.getCount(); j<jEnd; j++) {
+			final int b = neighbour[j];
+			if ((b == 0) || (tripOf[b] < 0)) continue;
+			if (tryTwoOpt(a, b)) return true;
+			if (tryOrOpt(a, b)) return true;
+			if (trySwap(a, b)) return true;
+			if (tryCrossExchange(a, b)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Try a 2-opt move which joins two locations.
+	 * Within a trip the part between them is reversed. Between two trips the tails of the trips are exchanged.
+	 */
+	private boolean tryTwoOpt(int a, int b) {
+		final int ta = tripOf[a];
+		final int tb = tripOf[b];
+		if (ta != tb) return tryTailExchange(ta, posOf[a], tb, posOf[b]) || tryTailExchange(tb, posOf[b], ta, posOf[a]);
+
+		// Reversing positions i+1 to j replaces paths (t[i],t[i+1]) and (t[j],t[j+1])
+		// with paths (t[i],t[j]) and (t[i+1],t[j+1]), one of which joins the two locations
+		final int[] t = trip[ta];
+		final int pa = posOf[a];
+		final int pb = posOf[b];
+		final int i = (pa < pb) ? pa : (pb - 1);
+		final int j = (pa < pb) ? pb : (pa - 1);
+		if (j - i < 2) return false;
+		final long delta =
+			d(t[i], t[j]) + d(t[i + 1], t[j + 1]) -
+			d(t[i], t[i + 1]) - d(t[j], t[j + 1]);
+		if (delta >= 0) return false;
+
+		// Make the move
+		touch(t[i]);
+		touch(t[i + 1]);
+		touch(t[j]);
+		touch(t[j + 1]);
+		for (int x=i+1, y=j; x<y; x++, y--) {
+			final int temp = t[x];
+			t[x] = t[y];
+			t[y] = temp;
+		}
+		updatePositions(ta);
+		return true;
+	}
+
+	/**
+	 * Try joining the end of one trip at position pa to the start of another trip at position pb,
+	 * with the rest of each trip joining the other.
+	 */
+	private boolean tryTailExchange(int ta, int pa, int tb, int pb) {
+		final int[] a = trip[ta];
+		final int[] b = trip[tb];
+		final int loadA = pa + (b.length - 1 - pb);
+		final int loadB = (pb - 1) + (a.length - 2 - pa);
+		if ((loadA > getCapacity(ta)) || (loadB > getCapacity(tb))) return false;
+		final long delta =
+			d(a[pa], b[pb]) + d(b[pb - 1], a[pa + 1]) -
+			d(a[pa], a[pa + 1]) - d(b[pb - 1], b[pb]);
+		if (delta >= 0) return false;
+
+		// Make the move
+		touch(a[pa]);
+		touch(a[pa + 1]);
+		touch(b[pb - 1]);
+		touch(b[pb]);
+		int countA = 0;
+		int countB = 0;
+		for (int i=0; i<=pa; i++) bufferA[countA++] = a[i];
+		for (int i=pb; i<b.length; i++) bufferA[countA++] = b[i];
+		for (int i=0; i<pb; i++) bufferB[countB++] = b[i];
+		for (int i=pa+1; i<a.length; i++) bufferB[countB++] = a[i];
+		setTrip(ta, bufferA, countA);
+		setTrip(tb, bufferB, countB);
+		return true;
+	}
+
+	/**
+	 * Try moving a segment which starts at one location so that it is next to another location.
+	 * Segments of each length are tested, inserted either side of the other location, in either direction.
+	 * The best insertion for each length is used if it reduces the distance.
+	 */
+	private boolean tryOrOpt(int a, int b) {
+		final int ta = tripOf[a];
+		final int tb = tripOf[b];
+		final int pa = posOf[a];
+		final int pb = posOf[b];
+		final int[] s = trip[ta];
+		final int[] t = trip[tb];
+		for (int length=1; length<=segmentMax; length++) {
+			final int last = pa + length - 1;
+			if (last > s.length - 2) break;
+			if ((ta != tb) && (t.length - 2 + length > getCapacity(tb))) break;
+			if ((ta == tb) && (pa <= pb) && (pb <= last)) break;
+
+			// Removing the segment joins the locations either side of it
+			final int first = s[pa];
+			final int end = s[last];
+			final int prev = s[pa - 1];
+			final int next = s[last + 1];
+			final long removed = d(prev, first) + d(end, next) - d(prev, next);
+
+			// Test the paths either side of the other location
+			long bestDelta = 0;
+			int bestPosition = -1;
+			boolean bestReversed = false;
+			for (int q=pb-1; q<=pb; q++) {
+				if ((ta == tb) && (q + 1 >= pa) && (q <= last)) continue;
+				final int x = t[q];
+				final int y = t[q + 1];
+				final long forward = d(x, first) + d(end, y) - d(x, y) - removed;
+				final long reversed = d(x, end) + d(first, y) - d(x, y) - removed;
+				if (forward < bestDelta) {
+					bestDelta = forward;
+					bestPosition = q;
+					bestReversed = false;
+				}
+				if ((length > 1) && (reversed < bestDelta)) {
+					bestDelta = reversed;
+					bestPosition = q;
+					bestReversed = true;
+				}
+			}
+			if (bestPosition >= 0) {
+				moveSegment(ta, pa, length, tb, bestPosition, bestReversed);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move a segment of a trip so that it follows a position within a trip, which may be the same trip.
+	 * @param ta The trip holding the segment.
+	 * @param pa Position of the first location of the segment.
+	 * @param length Number of locations within the segment.
+	 * @param tb The trip receiving the segment.
+	 * @param q Position of the location the segment will follow, which must not be within the segment.
+	 * @param reversed True if the segment is reversed.
+	 */
+	private void moveSegment(int ta, int pa, int length, int tb, int q, boolean reversed) {
+		final int[] s = trip[ta];
+		final int[] t = trip[tb];
+		final int last = pa + length - 1;
+		touch(s[pa - 1]);
+		touch(s[pa]);
+		touch(s[last]);
+		touch(s[last + 1]);
+		touch(t[q]);
+		touch(t[q + 1]);
+
+		// Copy the receiving trip, leaving out the segment if it is the same trip, and insert the segment after q
+		int countB = 0;
+		for (int i=0; i<t.length; i++) {
+			if ((ta == tb) && (pa <= i) && (i <= last)) continue;
+			bufferB[countB++] = t[i];
+			if (i == q) {
+				if (reversed) {
+					for (int k=last; k>=pa; k--) bufferB[countB++] = s[k];
+				} else {
+					for (int k=pa; k<=last; k++) bufferB[countB++] = s[k];
+				}
+			}
+		}
+
+		// Remove the segment from the other trip
+		if (ta != tb) {
+			int countA = 0;
+			for (int i=0; i<s.length; i++) {
+				if ((i < pa) || (i > last)) bufferA[countA++] = s[i];
+			}
+			setTrip(ta, bufferA, countA);
+		}
+		setTrip(tb, bufferB, countB);
+	}
+
+	/**
+	 * Try swapping a location with one of the locations next to another location.
+	 * Locations which are next to each other are left to 2-opt.
+	 */
+	private boolean trySwap(int a, int b) {
+		final int ta = tripOf[a];
+		final int tb = tripOf[b];
+		final int pa = posOf[a];
+		final int[] s = trip[ta];
+		final int[] t = trip[tb];
+		for (int pc=posOf[b]-1; pc<=posOf[b]+1; pc+=2) {
+			final int c = t[pc];
+			if ((c == 0) || (c == a)) continue;
+			if ((ta == tb) && (Math.abs(pa - pc) <= 1)) continue;
+			final int prevA = s[pa - 1];
+			final int nextA = s[pa + 1];
+			final int prevC = t[pc - 1];
+			final int nextC = t[pc + 1];
+			final long delta =
+				d(prevA, c) + d(c, nextA) + d(prevC, a) + d(a, nextC) -
+				d(prevA, a) - d(a, nextA) - d(prevC, c) - d(c, nextC);
+			if (delta >= 0) continue;
+
+			// Make the move
+			touch(prevA);
+			touch(nextA);
+			touch(prevC);
+			touch(nextC);
+			touch(c);
+			s[pa] = c;
+			t[pc] = a;
+			tripOf[a] = tb;
+			posOf[a] = pc;
+			tripOf[c] = ta;
+			posOf[c] = pa;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Try exchanging the segment which follows one location with a segment starting at another location in another trip.
+	 * The first location is then joined to the second.
+	 */
+	private boolean tryCrossExchange(int a, int b) {
+		final int ta = tripOf[a];
+		final int tb = tripOf[b];
+		if (ta == tb) return false;
+		final int pa = posOf[a];
+		final int pb = posOf[b];
+		final int[] s = trip[ta];
+		final int[] t = trip[tb];
+		final int loadA = s.length - 2;
+		final int loadB = t.length - 2;
+		for (int lengthA=1; lengthA<=segmentMax; lengthA++) {
+			if (pa + lengthA > s.length - 2) break;
+			final int firstA = s[pa + 1];
+			final int endA = s[pa + lengthA];
+			final int nextA = s[pa + lengthA + 1];
+			for (int lengthB=1; lengthB<=segmentMax; lengthB++) {
+				if (pb + lengthB - 1 > t.length - 2) break;
+				if (loadA - lengthA + lengthB > getCapacity(ta)) break;
+				if (loadB - lengthB + lengthA > getCapacity(tb)) continue;
+				final int prevB = t[pb - 1];
+				final int endB = t[pb + lengthB - 1];
+				final int nextB = t[pb + lengthB];
+				final long delta =
+					d(a, b) + d(endB, nextA) + d(prevB, firstA) + d(endA, nextB) -
+					d(a, firstA) - d(endA, nextA) - d(prevB, b) - d(endB, nextB);
+				if (delta >= 0) continue;
+
+				// Make the move
+				touch(a);
+				touch(firstA);
+				touch(endA);
+				touch(nextA);
+				touch(prevB);
+				touch(b);
+				touch(endB);
+				touch(nextB);
+				int countA = 0;
+				int countB = 0;
+				for (int i=0; i<=pa; i++) bufferA[countA++] = s[i];
+				for (int i=pb; i<pb+lengthB; i++) bufferA[countA++] = t[i];
+				for (int i=pa+lengthA+1; i<s.length; i++) bufferA[countA++] = s[i];
+				for (int i=0; i<pb; i++) bufferB[countB++] = t[i];
+				for (int i=pa+1; i<=pa+lengthA; i++) bufferB[countB++] = s[i];
+				for (int i=pb+lengthB; i<t.length; i++) bufferB[countB++] = t[i];
+				setTrip(ta, bufferA, countA);
+				setTrip(tb, bufferB, countB);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replace the locations of a trip with the contents of a buffer.
+	 * The existing array is reused if it has the right length.
+	 */
+	private void setTrip(int t, int[] buffer, int count) {
+		if (trip[t].length == count) {
+			System.arraycopy(buffer, 0, trip[t], 0, count);
+		} else {
+			trip[t] = Arrays.copyOf(buffer, count);
+		}
+		updatePositions(t);
+	}
+
+	/**
+	 * Record the trip and position of each location within a trip.
+	 */
+	private void updatePositions(int t) {
+		final int[] locations = trip[t];
+		for (int i=1; i<locations.length-1; i++) {
+			tripOf[locations[i]] = t;
+			posOf[locations[i]] = i;
+		}
+	}
+
+	/**
+	 * Take the next location from the queue, setting its don't-look bit.
+	 */
+	private int poll() {
+		final int l = queue[queueFirst];
+		queueFirst = (queueFirst + 1) % queue.length;
+		queueCount--;
+		active[l] = false;
+		return l;
+	}
+
+	/**
+	 * Clear the don't-look bit of a location, adding it to the queue of locations to test.
+	 */
+	private void touch(int l) {
+		if ((l == 0) || active[l]) return;
+		active[l] = true;
+		queue[(queueFirst + queueCount) % queue.length] = l;
+		queueCount++;
+	}
+
+	/**
+	 * Get the capacity of the vehicle which makes a trip.
+	 */
+	private int getCapacity(int t) {
+		return capacity[tripVehicle[t]];
+	}
+
+	/**
+	 * Get the distance between two locations.
+	 */
+	private long d(int locationA, int locationB) {
+		return distanceMatrix.getDistance(locationA, locationB);
+	}
+
+	/**
+	 * Local search constructor.
+	 * A neighbour list is created using the default number of neighbours.
+	 * @param d Distance matrix the routes refer to.
+	 * @param vehicleCapacity Capacity of each delivery vehicle, or null if there is no limit.
+	 */
+	public LocalSearch(DistanceMatrix d, int[] vehicleCapacity) {
+		this(d, vehicleCapacity, new NeighbourList(d, neighbourCountDefault));
+	}
+
+	/**
+	 * Local search constructor.
+	 * @param d Distance matrix the routes refer to.
+	 * @param vehicleCapacity Capacity of each delivery vehicle, or null if there is no limit.
+	 * @param neighbourList The nearest neighbours of each location, which must match the distance matrix.
+	 */
+	public LocalSearch(DistanceMatrix d, int[] vehicleCapacity, NeighbourList neighbourList) {
+		assert d != null;
+		assert neighbourList.size() == d.size();
+		final int n = d.size();
+		distanceMatrix = d;
+		this.vehicleCapacity = vehicleCapacity;
+		this.neighbourList = neighbourList;
+		tripOf = new int[n];
+		posOf = new int[n];
+		active = new boolean[n];
+		queue = new int[n];
+		bufferA = new int[n + 2];
+		bufferB = new int[n + 2];
+		trip = new int[16][];
+		tripVehicle = new int[16];
+	}
+
+	final private DistanceMatrix distanceMatrix;
+	final private int[] vehicleCapacity;
+	final private NeighbourList neighbourList;
+	final private int[] tripOf;
+	final private int[] posOf;
+	final private boolean[] active;
+	final private int[] queue;
+	final private int[] bufferA;
+	final private int[] bufferB;
+	private int[][] trip;
+	private int[] tripVehicle;
+	private int[] capacity;
+	private TwoLevelTour tour;
+	private int tripCount;
+	private int queueFirst;
+	private int queueCount;
+	private int moveCount;
+}
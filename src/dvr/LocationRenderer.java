@@ -5,10 +5,15 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
- * Used to render location and route data
+ * Used to render location and route data.
+ * Clicking the panel adds a location at that point, and right-clicking removes the nearest location.
+ * The solver thread makes each change once its current run has finished.
  */
 @SuppressWarnings("serial")
 public class LocationRenderer extends JPanel {
@@ -17,8 +22,9 @@ public class LocationRenderer extends JPanel {
 
 	/**
 	 * If true then the solver working will be rendered.
+	 * This is read by the GUI refresh thread, so it is volatile.
 	 */
-	public boolean showWorking;
+	public volatile boolean showWorking;
 
 	/**
 	 * Location renderer constructor.
@@ -29,6 +35,52 @@ public class LocationRenderer extends JPanel {
 		solverThread = s;
 		distanceMatrix = s.getDistanceMatrix();
 		setMinimumSize(new Dimension(50, 50));
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (SwingUtilities.isRightMouseButton(e)) {
+					removeNearestLocation(e.getX(), e.getY());
+				} else if (SwingUtilities.isLeftMouseButton(e)) {
+					addLocation(e.getX(), e.getY());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add a location at a point on the panel.
+	 * The location is named after the original index it is expected to be given.
+	 * @param x X-component of the point within the panel.
+	 * @param y Y-component of the point within the panel.
+	 */
+	private void addLocation(int x, int y) {
+		DistanceMatrix d = solverThread.getDistanceMatrix();
+		Coordinate c = new ScaleOffset(getSize(), d).Revert(new Coordinate(x, y));
+		solverThread.addLocation(new Location(c.x, c.y, Integer.toString(d.getOriginalCount())));
+	}
+
+	/**
+	 * Remove the location drawn nearest to a point on the panel, if it is close enough to have been clicked.
+	 * The depot cannot be removed.
+	 * @param x X-component of the point within the panel.
+	 * @param y Y-component of the point within the panel.
+	 */
+	private void removeNearestLocation(int x, int y) {
+		final long reach = 10;
+		DistanceMatrix d = solverThread.getDistanceMatrix();
+		ScaleOffset scale = new ScaleOffset(getSize(), d);
+		int nearest = -1;
+		long nearestDistance = reach * reach;
+		for (int i=1; i<d.size(); i++) {
+			Coordinate c = scale.Update(d.getLocation(i).coord);
+			long dx = c.x - x;
+			long dy = c.y - y;
+			if ((dx * dx) + (dy * dy) <= nearestDistance) {
+				nearest = i;
+				nearestDistance = (dx * dx) + (dy * dy);
+			}
+		}
+		if (nearest > 0) solverThread.removeLocation(d.getOriginalIndex(nearest));
 	}
 	
 	/**
@@ -38,9 +90,12 @@ public class LocationRenderer extends JPanel {
 	protected void paintComponent(Graphics g) {
 		
 		// Get fresh data from solver thread
-		distanceMatrix = solverThread.getDistanceMatrix();
+		// The distance matrix and route are taken from the same state, and a published distance matrix
+		// is never changed, so they match
+		SolverThread.SolverState state = solverThread.getSolverState();
+		distanceMatrix = state.getDistanceMatrix();
 		Solver solver = showWorking ? solverThread.getSolver() : null;
-		Route[] routes = solverThread.getRoute();
+		RouteSnapshot routes = state.getRoute();
 		
 		// Get 2D version of graphics handle
 		Graphics2D g2D = (Graphics2D)g;
@@ -53,8 +108,8 @@ public class LocationRenderer extends JPanel {
 		
 		// Draw the route used
 		float c = 0.1f;
-		for (Route r : routes) {
-			drawRoute(g2D, scale, r, Color.getHSBColor(c, 0.5f, 0.9f));
+		for (int r=0; r<routes.getRouteCount(); r++) {
+			drawRoute(g2D, scale, routes, r, Color.getHSBColor(c, 0.5f, 0.9f));
 			c += 0.15f;
 		}
 		
@@ -72,7 +127,7 @@ public class LocationRenderer extends JPanel {
 		
 		// Draw the length of the route
 		g.setColor(Color.BLACK);
-		g.drawString("RouteTotalLength="+Route.getCost(routes), 5, 30);
+		g.drawString("RouteTotalLength="+routes.getCost(), 5, 30);
 	}
 
 	/**
@@ -124,6 +179,17 @@ public class LocationRenderer extends JPanel {
 				(long)(xOffset + (scale * c.x)),
 				(long)(yOffset + (scale * c.y)));
 		}
+		
+		/**
+		 * Find the coordinate which is scaled and offset to a point on the panel, the reverse of Update().
+		 * @param c A point within the panel.
+		 * @return The coordinate shown at that point.
+		 */
+		public Coordinate Revert(Coordinate c) {
+			return new Coordinate(
+				Math.round((c.x - xOffset) / scale),
+				Math.round((c.y - yOffset) / scale));
+		}
 	}
 	
 	/**
@@ -190,27 +256,31 @@ public class LocationRenderer extends JPanel {
 	 */
 	private void drawUsage(Graphics2D g, ScaleOffset scale, SolverACO solverACO) {
 		g.setStroke(new BasicStroke(1));
-		final int size = solverACO.size();
 		final float maxUsage = Math.max(solverACO.getMaxUsage(), 0.0001f);
-		for (int x=0; x<size; x++) {
-			for (int y=x+1; y<size; y++) {
-				float usage = solverACO.getMaxUsage(x, y);
-				float usageFrac = usage / maxUsage;
-				if (usageFrac > 0.001) {
-					g.setColor(Color.getHSBColor(0.8f, 0.1f + (0.5f * usageFrac), 1f - (0.2f * usageFrac)));
-					Coordinate a = scale.Update(distanceMatrix.getLocation(x).coord);
-					Coordinate b = scale.Update(distanceMatrix.getLocation(y).coord);
-					g.drawLine(
-						(int)a.x,
-						(int)a.y,
-						(int)b.x,
-						(int)b.y);
-					if (usageFrac > 0.3f) {
-						g.drawString(String.format("%.2f", usage), (a.x + b.x) / 2, (a.y + b.y) / 2);
-					}
+		
+		// Draw each path using the highest value held for it in any layer and direction
+		// Only the value holding the highest is drawn, so most paths are drawn once
+		// The solver copy may already include a location added after the state was taken, which is skipped
+		final int n = distanceMatrix.size();
+		solverACO.forEachUsage((layer, x, y, value) -> {
+			if ((x >= n) || (y >= n)) return;
+			float usage = solverACO.getMaxUsage(x, y);
+			if ((x == y) || (value < usage)) return;
+			float usageFrac = usage / maxUsage;
+			if (usageFrac > 0.001) {
+				g.setColor(Color.getHSBColor(0.8f, 0.1f + (0.5f * usageFrac), 1f - (0.2f * usageFrac)));
+				Coordinate a = scale.Update(distanceMatrix.getLocation(x).coord);
+				Coordinate b = scale.Update(distanceMatrix.getLocation(y).coord);
+				g.drawLine(
+					(int)a.x,
+					(int)a.y,
+					(int)b.x,
+					(int)b.y);
+				if (usageFrac > 0.3f) {
+					g.drawString(String.format("%.2f", usage), (a.x + b.x) / 2, (a.y + b.y) / 2);
 				}
 			}
-		}
+		});
 		g.setColor(Color.BLACK);
 		g.drawString("MaxUsage="+solverACO.getMaxUsage(), 5, scale.size.height - 5);
 		g.drawString("AverageDistance="+solverACO.getAverageDistance(), 5, scale.size.height - 20);
@@ -224,9 +294,13 @@ public class LocationRenderer extends JPanel {
 	 */
 	private void drawGenome(Graphics2D g, ScaleOffset scale, SolverGA solverGA) {
 		g.setColor(Color.BLACK);
-		for (int i=0; i<SolverGA.parentMax; i++) {
+		final int parentCount = solverGA.getParentCount();
+		for (int i=0; i<parentCount; i++) {
 			g.drawString("P"+i+": "+solverGA.getParentString(i), 5, scale.size.height - 5 - (20 * i));
 		}
+		g.drawString(String.format("CacheHitRate=%.1f%% EvaluationsPerSecond=%.0f",
+			100 * solverGA.getCacheHitRate(), solverGA.getEvaluationsPerSecond()),
+			5, scale.size.height - 5 - (20 * parentCount));
 	}
 	
 	/**
@@ -236,14 +310,14 @@ public class LocationRenderer extends JPanel {
 	 * @param r Route to be rendered.
 	 * @param c The colour to use when drawing the route.
 	 */
-	private void drawRoute(Graphics2D g, ScaleOffset scale, Route route, Color c) {
+	private void drawRoute(Graphics2D g, ScaleOffset scale, RouteSnapshot route, int r, Color c) {
 		final double arrowLength = 12;
 		final double arrowAngle = 0.35;
 		g.setColor(c);
 		g.setStroke(new BasicStroke(1.8f));
-		for (int i=1; i<route.size(); i++) {
-			Coordinate a = scale.Update(route.getLocation(i - 1).coord);
-			Coordinate b = scale.Update(route.getLocation(i).coord);
+		for (int i=1; i<route.size(r); i++) {
+			Coordinate a = scale.Update(route.getLocation(r, i - 1).coord);
+			Coordinate b = scale.Update(route.getLocation(r, i).coord);
 			g.drawLine(
 				(int)a.x,
 				(int)a.y,
@@ -0,0 +1,299 @@
+package dvr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A distance matrix which reads its distances from a memory-mapped file.
+ * The file is written once from another distance matrix and can then be reopened almost instantly,
+ * with lookups reading directly from the off-heap mapping.
+ * <p>
+ * File format (big-endian):
+ * <pre>
+ *  0  int   Magic number
+ *  4  int   Format version
+ *  8  int   Number of locations
+ * 12  int   Cell width in bytes (2 or 4)
+ * 16  long  Cell scale
+ * 24  long  Maximum distance
+ * 32  long  Hash of the location list
+ * 40  long  Hash of the cost provider, or 0 for straight-line distances
+ * 48  ...   Padding up to the header size
+ * 64  ...   Packed upper triangle cells, column by column
+ * </pre>
+ */
+public class MappedDistanceMatrix extends DistanceMatrix {
+
+	/**
+	 * The file extension normally used for distance matrix files.
+	 */
+	static final public String fileExtension = ".dm";
+
+	/**
+	 * Open a distance matrix file which was previously written for the given locations, using straight-line distances.
+	 * @param l List of locations which the file must match.
+	 * @param file The distance matrix file.
+	 * @throws IOException If the file could not be read, or was written for a different location list.
+	 */
+	public MappedDistanceMatrix(Location[] l, File file) throws IOException {
+		this(l, null, file);
+	}
+
+	/**
+	 * Open a distance matrix file which was previously written for the given locations and cost provider.
+	 * @param l List of locations which the file must match.
+	 * @param p The cost provider which the file must match, or null for straight-line distances.
+	 * @param file The distance matrix file.
+	 * @throws IOException If the file could not be read, or was written for a different location list or costs.
+	 */
+	public MappedDistanceMatrix(Location[] l, CostProvider p, File file) throws IOException {
+		super(l, p, false);
+		final long costHash = getCostHash(p);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			// Read and check the header
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) throw new IOException("Distance matrix file is truncated");
+			}
+			header.flip();
+			if (header.getInt() != magic) throw new IOException("Not a distance matrix file");
+			if (header.getInt() != version) throw new IOException("Unsupported distance matrix file version");
+			if (header.getInt() != l.length) throw new IOException("Distance matrix file has the wrong size");
+			cellWidth = header.getInt();
+			cellScale = header.getLong();
+			maxDistance = header.getLong();
+			if (header.getLong() != hashLocations(l)) throw new IOException("Distance matrix file is for a different location list");
+			if (header.getLong() != costHash) throw new IOException("Distance matrix file is for different travel costs");
+			if ((cellWidth != 2) && (cellWidth != 4)) throw new IOException("Invalid distance matrix cell width");
+
+			// Make sure the file is large enough to hold every cell
+			long length = headerSize + (cellCount(l.length) * cellWidth);
+			if (channel.size() < length) throw new IOException("Distance matrix file is truncated");
+
+			// Map the file in chunks, as a single mapping is limited to 2GB
+			// The chunk size is a multiple of the cell width so no cell is split between chunks
+			int chunkCount = (int)((length + chunkMask) >>> chunkShift);
+			chunk = new MappedByteBuffer[chunkCount];
+			for (int i=0; i<chunkCount; i++) {
+				long start = (long)i << chunkShift;
+				chunk[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, 1L << chunkShift));
+			}
+		}
+	}
+
+	/**
+	 * Open the distance matrix file for the given locations, or create it if it is missing or out of date.
+	 * If the file cannot be written then the newly calculated distance matrix is returned instead.
+	 * Large location lists are reordered along a Hilbert curve in the same way as DistanceMatrix.create(),
+	 * and the file holds the reordered matrix.
+	 * @param l List of locations used to initialise the distance matrix.
+	 * @param file The distance matrix file.
+	 * @return A distance matrix for the location list.
+	 */
+	static public DistanceMatrix openOrCreate(Location[] l, File file) {
+		return openOrCreate(l, null, file);
+	}
+
+	/**
+	 * Open the distance matrix file for the given locations and cost provider, or create it if it is missing or
+	 * out of date. The file records a hash of the cost provider, so a file written with other travel costs is
+	 * recreated. If the cost provider cannot identify its costs then no file is used, and a distance matrix is
+	 * created with DistanceMatrix.create() instead.
+	 * @param l List of locations used to initialise the distance matrix.
+	 * @param p The cost provider, or null to use straight-line distances.
+	 * @param file The distance matrix file.
+	 * @return A distance matrix for the location list.
+	 */
+	static public DistanceMatrix openOrCreate(Location[] l, CostProvider p, File file) {
+
+		// Costs which cannot be identified could not be checked against the file
+		if ((p != null) && (p.getCostHash() == 0)) {
+			System.out.println("Not using distance matrix file, as the travel costs cannot be identified");
+			return DistanceMatrix.create(l, p);
+		}
+
+		// Reorder the locations, the order is the same each time so it matches the file
+		int[] order = (l.length >= reorderSizeMin) ? getHilbertOrder(l) : null;
+		Location[] list = (order != null) ? getReorderedList(l, order) : l;
+
+		// Try to open an existing file
+		DistanceMatrix dm = null;
+		if (file.isFile()) {
+			try {
+				dm = new MappedDistanceMatrix(list, p, file);
+			} catch (IOException e) {
+				System.out.println("Recreating distance matrix file: " + e.getMessage());
+			}
+		}
+
+		// Calculate the distances and save them for next time
+		if (dm == null) {
+			dm = DistanceMatrix.create(list, p, false);
+			try {
+				write(dm, file);
+				dm = new MappedDistanceMatrix(list, p, file);
+			} catch (IOException e) {
+				System.out.println("Failed to write distance matrix file: " + e.getMessage());
+			}
+		}
+		if (order != null) dm.setOriginalIndex(order);
+		return dm;
+	}
+
+	/**
+	 * Write a distance matrix to file so that it can later be opened as a mapped distance matrix.
+	 * @param dm The distance matrix to write.
+	 * @param file The destination file.
+	 * @throws IOException If the file could not be written, or the travel costs of the matrix cannot be identified.
+	 */
+	static public void write(DistanceMatrix dm, File file) throws IOException {
+		final int n = dm.size();
+		final long costHash = getCostHash(dm.getCostProvider());
+
+		// Get the cell format, using the packed format of the source if it has one
+		int width = dm.getCellWidth();
+		long scale = dm.getCellScale();
+		if ((width != 2) && (width != 4)) {
+			long bound = dm.getMaxDistance();
+			width = getCellWidth(bound);
+			scale = getCellScale(bound);
+		}
+
+		// Get the location list to hash
+		Location[] l = new Location[n];
+		for (int i=0; i<n; i++) l[i] = dm.getLocation(i);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			// Write the header
+			ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferSize);
+			buffer.putInt(magic);
+			buffer.putInt(version);
+			buffer.putInt(n);
+			buffer.putInt(width);
+			buffer.putLong(scale);
+			buffer.putLong(dm.getMaxDistance());
+			buffer.putLong(hashLocations(l));
+			buffer.putLong(costHash);
+			while (buffer.position() < headerSize) buffer.put((byte)0);
+
+			// Write the cells in the same order as the packed distance matrix
+			for (int b=1; b<n; b++) {
+				for (int a=0; a<b; a++) {
+					if (buffer.remaining() < width) {
+						buffer.flip();
+						while (buffer.hasRemaining()) channel.write(buffer);
+						buffer.clear();
+					}
+					long cell = (dm.getDistance(a, b) + (scale / 2)) / scale;
+					if (width == 2) buffer.putShort((short)cell); else buffer.putInt((int)cell);
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Calculate a hash of the coordinates within a location list.
+	 * Location names do not affect distances, so they are not included.
+	 * @param l The location list.
+	 * @return A 64-bit FNV-1a hash of the location list.
+	 */
+	static public long hashLocations(Location[] l) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ l.length) * 0x100000001b3L;
+		for (Location i : l) {
+			hash = (hash ^ i.coord.x) * 0x100000001b3L;
+			hash = (hash ^ i.coord.y) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Get the hash recorded within a file for a cost provider.
+	 * @param p The cost provider, or null for straight-line distances.
+	 * @return The hash of the cost provider, or 0 for straight-line distances.
+	 * @throws IOException If the cost provider cannot identify its costs.
+	 */
+	static private long getCostHash(CostProvider p) throws IOException {
+		if (p == null) return 0;
+		long hash = p.getCostHash();
+		if (hash == 0) throw new IOException("Travel costs cannot be identified within a distance matrix file");
+		return hash;
+	}
+
+	/**
+	 * Get the distance between two locations.
+	 * @param locationA The index of location-A within the location list.
+	 * @param locationB The index of location-B within the location list.
+	 * @return Cost of travelling from location-A to location-B.
+	 */
+	@Override
+	public long getDistance(int locationA, int locationB) {
+		if (locationA == locationB) return 0;
+		int a = Math.min(locationA, locationB);
+		int b = Math.max(locationA, locationB);
+		long offset = headerSize + (((((long)b * (b - 1)) >>> 1) + a) * cellWidth);
+		MappedByteBuffer c = chunk[(int)(offset >>> chunkShift)];
+		int i = (int)(offset & chunkMask);
+		if (cellWidth == 2) return c.getShort(i) & 0xFFFF;
+		return (c.getInt(i) & 0xFFFFFFFFL) * cellScale;
+	}
+
+	/**
+	 * Check if locations can be added to or removed from this distance matrix.
+	 * The mapped file is read-only, so this is never possible.
+	 * @return False.
+	 */
+	@Override
+	public boolean isResizable() {
+		return false;
+	}
+
+	/**
+	 * Get the maximum distance between any two locations within the distance matrix.
+	 * @return Max distance between locations.
+	 */
+	@Override
+	public long getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Get the number of bytes used to store each cell of the matrix.
+	 * @return Cell width in bytes.
+	 */
+	@Override
+	public int getCellWidth() {
+		return cellWidth;
+	}
+
+	/**
+	 * Get the scale applied to stored cell values.
+	 * @return Multiplier used to convert a cell value into a distance.
+	 */
+	@Override
+	public long getCellScale() {
+		return cellScale;
+	}
+
+	static final private int magic = 0x4456524D; // "DVRM"
+	static final private int version = 2;
+	static final private int headerSize = 64;
+	static final private int chunkShift = 30;
+	static final private long chunkMask = (1L << chunkShift) - 1;
+	static final private int writeBufferSize = 1 << 20;
+
+	final private MappedByteBuffer[] chunk;
+	final private int cellWidth;
+	final private long cellScale;
+	final private long maxDistance;
+}
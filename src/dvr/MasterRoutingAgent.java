@@ -78,26 +78,45 @@ public class MasterRoutingAgent implements IRoutingService {
 		// This will allow the scheduling of some callback code
 		IExecutionFeature exeFeat = ia.getComponentFeature(IExecutionFeature.class);
 		
-		// Schedule a recurring agent step to provide subscribers with routing information
-		// The step will occur every 5000ms, starting in 5000ms
-		exeFeat.repeatStep(5000, 5000, ia1 -> {
-			
-			// Get the route list
-			Route[] route = solver.getRoute();
-			
-			// Notify all subscribers
-			for(Vehicle v : vehicles) {
-				
-				// Add the current route to the intermediate result
-				// The if-undone is to ignore errors relating to subscribers leaving
-				if ((route != null) && (v.index < route.length) && (route[v.index].getCost() > 0)) {
-					v.subscriber.addIntermediateResultIfUndone(route[v.index].toString());
-				} else {
-					v.subscriber.addIntermediateResultIfUndone("No route");
+		// Start a thread which waits for the solver to publish a new state, rather than polling it
+		// Each new route is handed to an agent step, so the subscribers are only used from the agent thread
+		// Routes can improve many times a second, so they are sent at most once per interval
+		Thread notifier = new Thread(() -> {
+			long generation = -1;
+			try {
+				while (true) {
+					SolverThread.SolverState state = solver.awaitNewerThan(generation);
+					generation = state.getGeneration();
+					final RouteSnapshot route = state.getRoute();
+					exeFeat.scheduleStep(ia1 -> {
+						notifySubscribers(route);
+						return IFuture.DONE;
+					});
+					Thread.sleep(routeIntervalMin);
 				}
+			} catch (InterruptedException e) {
+			}
+		}, "route-notifier");
+		notifier.setDaemon(true);
+		notifier.start();
+	}
+
+	/**
+	 * Send each subscriber the route of its vehicle.
+	 * Must be called from the agent thread, as the list of vehicles is changed there.
+	 * @param route The route list to send.
+	 */
+	private void notifySubscribers(RouteSnapshot route) {
+		for(Vehicle v : vehicles) {
+			
+			// Add the current route to the intermediate result
+			// The if-undone is to ignore errors relating to subscribers leaving
+			if ((route != null) && (v.index < route.getRouteCount()) && (route.getCost(v.index) > 0)) {
+				v.subscriber.addIntermediateResultIfUndone(route.toString(v.index));
+			} else {
+				v.subscriber.addIntermediateResultIfUndone("No route");
 			}
-			return IFuture.DONE;
-		});
+		}
 	}
 
     /**
@@ -135,6 +154,11 @@ public class MasterRoutingAgent implements IRoutingService {
 		}
 	}
 	
+	/**
+	 * Shortest time between routes sent to the subscribers, in milliseconds.
+	 */
+	static final private long routeIntervalMin = 1000;
+	
     protected ArrayList<Vehicle> vehicles;
     SolverThread solver;
 }
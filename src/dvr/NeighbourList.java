@@ -0,0 +1,98 @@
+package dvr;
+
+/**
+ * Holds the nearest neighbours of every location within a distance matrix.
+ * The neighbours of each location are sorted from nearest to furthest, and all lists are
+ * stored within a single integer block so that they can be read without any searching.
+ * This class is to be treated as read-only once constructed.
+ */
+public class NeighbourList {
+
+	/**
+	 * Neighbour list constructor.
+	 * @param d The distance matrix containing the locations.
+	 * @param k The number of neighbours to record for each location. Limited to the number of other locations.
+	 */
+	public NeighbourList(DistanceMatrix d, int k) {
+		assert d != null;
+		assert k >= 0;
+
+		// Record general values
+		size = d.size();
+		count = Math.max(0, Math.min(k, size - 1));
+		neighbour = new int[size * count];
+
+		// Place every location within a spatial grid
+		Coordinate[] coord = new Coordinate[size];
+		for (int i=0; i<size; i++) coord[i] = d.getLocation(i).coord;
+		grid = new SpatialGrid(coord);
+
+		// Find the nearest neighbours of each location
+		int[] found = new int[Math.max(count, 1)];
+		for (int i=0; i<size; i++) {
+			int n = grid.nearest(coord[i].x, coord[i].y, i, count, found);
+			assert n == count;
+			System.arraycopy(found, 0, neighbour, i * count, n);
+		}
+	}
+
+	/**
+	 * Get the number of locations the neighbour list was built for.
+	 * @return Number of locations.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the spatial grid holding every location, which was used to find the neighbours.
+	 * The grid should be read only, so copy it before removing any locations.
+	 * @return The spatial grid.
+	 */
+	public SpatialGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Get the number of neighbours recorded for each location.
+	 * @return Number of neighbours per location.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get one of the nearest neighbours of a location.
+	 * @param location Index of the location within the distance matrix.
+	 * @param rank Zero for the nearest neighbour, one for the second nearest, and so on.
+	 * @return Index of the neighbouring location within the distance matrix.
+	 */
+	public int get(int location, int rank) {
+		assert (0 <= rank) && (rank < count);
+		return neighbour[(location * count) + rank];
+	}
+
+	/**
+	 * Get the offset of the neighbours of a location within the neighbour block.
+	 * The neighbours are located at offset to offset + getCount() - 1.
+	 * @param location Index of the location within the distance matrix.
+	 * @return Offset of the first (nearest) neighbour.
+	 */
+	public int getOffset(int location) {
+		return location * count;
+	}
+
+	/**
+	 * Get a reference to the block which holds every neighbour list.
+	 * The block should be read only.
+	 * @return The neighbour block.
+	 */
+	public int[] getBlock() {
+		return neighbour;
+	}
+
+	final private int size;
+	final private int count;
+	final private SpatialGrid grid;
+	final private int[] neighbour;
+}
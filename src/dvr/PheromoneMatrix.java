@@ -0,0 +1,318 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * Used to hold the pheromone (path usage) values of an ant colony solver, with one value for every path.
+ * The matrix has one or more layers (normally one per vehicle, or a single layer shared by every vehicle),
+ * and every layer is stored within one flat array. An optional bias vector per vehicle holds a value
+ * for each location, which lets vehicles sharing one layer still favour their own locations.
+ * <p>
+ * Evaporation multiplies every value by the same amount, so instead of altering each value
+ * a single decay factor is applied when values are read. Deposits are divided by the decay factor
+ * so they read back at the requested amount. Once the decay factor becomes very small the stored
+ * values are renormalised, which keeps them within float range.
+ */
+public class PheromoneMatrix implements PheromoneStore {
+
+	/**
+	 * The decay factor below which the stored values are renormalised.
+	 */
+	static final public float renormaliseLimit = 1e-6f;
+
+	/**
+	 * Pheromone matrix constructor. Every value starts at zero.
+	 * @param layers Number of layers, normally one per vehicle.
+	 * @param capacity Number of locations each layer has room for.
+	 */
+	public PheromoneMatrix(int layers, int capacity) {
+		this(layers, capacity, 0);
+	}
+
+	/**
+	 * Pheromone matrix constructor with bias vectors. Every value starts at zero.
+	 * @param layers Number of layers.
+	 * @param capacity Number of locations each layer has room for.
+	 * @param biasLayers Number of bias vectors, normally zero or one per vehicle.
+	 */
+	public PheromoneMatrix(int layers, int capacity, int biasLayers) {
+		assert layers > 0;
+		assert capacity > 0;
+		assert biasLayers >= 0;
+		this.layers = layers;
+		this.capacity = capacity;
+		this.biasLayers = biasLayers;
+		value = new float[getCellCount(layers, capacity)];
+		bias = new float[biasLayers * capacity];
+		decay = 1;
+		rawMax = 0;
+		rawDefault = 0;
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param src The pheromone matrix to copy.
+	 */
+	public PheromoneMatrix(PheromoneMatrix src) {
+		layers = src.layers;
+		capacity = src.capacity;
+		biasLayers = src.biasLayers;
+		value = src.value.clone();
+		bias = src.bias.clone();
+		decay = src.decay;
+		rawMax = src.rawMax;
+		rawDefault = src.rawDefault;
+	}
+
+	/**
+	 * Create a copy of the matrix.
+	 * @return The copy.
+	 */
+	@Override
+	public PheromoneStore copy() {
+		return new PheromoneMatrix(this);
+	}
+
+	/**
+	 * Get the number of layers.
+	 * @return Number of layers.
+	 */
+	@Override
+	public int getLayers() {
+		return layers;
+	}
+
+	/**
+	 * Get the number of bias vectors.
+	 * @return Number of bias vectors.
+	 */
+	@Override
+	public int getBiasLayers() {
+		return biasLayers;
+	}
+
+	/**
+	 * Get the number of locations each layer has room for.
+	 * @return Layer capacity.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the pheromone value of a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @return The pheromone value.
+	 */
+	@Override
+	public float get(int layer, int locationA, int locationB) {
+		return value[getIndex(layer, locationA, locationB)] * decay;
+	}
+
+	/**
+	 * Add pheromone to a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @param amount The amount to add.
+	 */
+	@Override
+	public void add(int layer, int locationA, int locationB, float amount) {
+		int i = getIndex(layer, locationA, locationB);
+		float raw = value[i] + (amount / decay);
+		value[i] = raw;
+		if (rawMax < raw) rawMax = raw;
+	}
+
+	/**
+	 * Get the bias value of a location.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @return The bias value.
+	 */
+	@Override
+	public float getBias(int layer, int location) {
+		return bias[(layer * capacity) + location] * decay;
+	}
+
+	/**
+	 * Add to the bias value of a location.
+	 * Bias values evaporate along with the rest of the matrix, but do not affect the highest value.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @param amount The amount to add.
+	 */
+	@Override
+	public void addBias(int layer, int location, float amount) {
+		bias[(layer * capacity) + location] += amount / decay;
+	}
+
+	/**
+	 * Multiply every pheromone value by the same amount.
+	 * This takes O(1) time, except when the values need to be renormalised.
+	 * @param multiplier The amount to multiply each value by, between 0 and 1.
+	 */
+	@Override
+	public void evaporate(float multiplier) {
+		assert (0 < multiplier) && (multiplier <= 1);
+		decay *= multiplier;
+		if (decay < renormaliseLimit) renormalise();
+	}
+
+	/**
+	 * Set every pheromone value to the same amount, and clear every bias value.
+	 * The amount also becomes the default value, used when a location is cleared.
+	 * This takes O(n^2) time per layer.
+	 * @param amount The value to set.
+	 */
+	@Override
+	public void fill(float amount) {
+		Arrays.fill(value, amount);
+		Arrays.fill(bias, 0);
+		decay = 1;
+		rawMax = amount;
+		rawDefault = amount;
+	}
+
+	/**
+	 * Get the highest pheromone value within the matrix.
+	 * After a location is moved or cleared this may be higher than any remaining value.
+	 * @return The highest single value.
+	 */
+	@Override
+	public float getMax() {
+		return rawMax * decay;
+	}
+
+	/**
+	 * Change the number of locations each layer has room for.
+	 * If the new matrix would hold more than {@link PheromoneStore#getDenseCellLimit()} values then the values
+	 * are moved into a sparse matrix instead.
+	 * @param newCapacity The new capacity.
+	 * @param size The number of locations in use, which are kept.
+	 * @return This matrix, or the sparse matrix which replaces it.
+	 */
+	@Override
+	public PheromoneStore resize(int newCapacity, int size) {
+		assert size <= Math.min(capacity, newCapacity);
+		
+		// Move to a sparse matrix if required
+		// Only the values which differ from the default value are copied
+		if ((long)layers * newCapacity * newCapacity > PheromoneStore.getDenseCellLimit()) {
+			final float d = rawDefault * decay;
+			SparsePheromoneMatrix sparse = new SparsePheromoneMatrix(layers, newCapacity, biasLayers);
+			sparse.fill(d);
+			forEach(size, (layer, a, b, v) -> sparse.add(layer, a, b, v - d));
+			for (int layer=0; layer<biasLayers; layer++) {
+				for (int a=0; a<size; a++) sparse.addBias(layer, a, getBias(layer, a));
+			}
+			return sparse;
+		}
+		
+		// Copy the values into a larger array
+		float[] temp = new float[getCellCount(layers, newCapacity)];
+		if (rawDefault != 0) Arrays.fill(temp, rawDefault);
+		for (int layer=0; layer<layers; layer++) {
+			for (int a=0; a<size; a++) {
+				System.arraycopy(value, getIndex(layer, a, 0), temp, ((layer * newCapacity) + a) * newCapacity, size);
+			}
+		}
+		float[] tempBias = new float[biasLayers * newCapacity];
+		for (int layer=0; layer<biasLayers; layer++) {
+			System.arraycopy(bias, layer * capacity, tempBias, layer * newCapacity, size);
+		}
+		value = temp;
+		bias = tempBias;
+		capacity = newCapacity;
+		return this;
+	}
+
+	/**
+	 * Move the values of one location into another, then clear the first location.
+	 * Used when a location is removed and the last location takes its index.
+	 * @param from Index of the location to move.
+	 * @param to Index which the location is moved to.
+	 * @param size The number of locations in use.
+	 */
+	@Override
+	public void moveLocation(int from, int to, int size) {
+		for (int layer=0; layer<layers; layer++) {
+
+			// Copy the row and column
+			if (from != to) {
+				System.arraycopy(value, getIndex(layer, from, 0), value, getIndex(layer, to, 0), size);
+				for (int a=0; a<size; a++) value[getIndex(layer, a, to)] = value[getIndex(layer, a, from)];
+				value[getIndex(layer, to, to)] = rawDefault;
+			}
+
+			// Clear the old row and column
+			int row = getIndex(layer, from, 0);
+			Arrays.fill(value, row, row + size, rawDefault);
+			for (int a=0; a<size; a++) value[getIndex(layer, a, from)] = rawDefault;
+		}
+		for (int layer=0; layer<biasLayers; layer++) {
+			bias[(layer * capacity) + to] = bias[(layer * capacity) + from];
+			bias[(layer * capacity) + from] = 0;
+		}
+	}
+
+	/**
+	 * Visit every path between locations in use whose value differs from the default value.
+	 * This takes O(n^2) time per layer.
+	 * @param size The number of locations in use.
+	 * @param visitor Called once for each path.
+	 */
+	@Override
+	public void forEach(int size, PathVisitor visitor) {
+		for (int layer=0; layer<layers; layer++) {
+			for (int a=0; a<size; a++) {
+				int row = getIndex(layer, a, 0);
+				for (int b=0; b<size; b++) {
+					if (value[row + b] != rawDefault) visitor.visit(layer, a, b, value[row + b] * decay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply the decay factor to every stored value, then reset it.
+	 */
+	private void renormalise() {
+		for (int i=0; i<value.length; i++) value[i] *= decay;
+		for (int i=0; i<bias.length; i++) bias[i] *= decay;
+		rawMax *= decay;
+		rawDefault *= decay;
+		decay = 1;
+	}
+
+	/**
+	 * Get the index of a value within the flat array.
+	 */
+	private int getIndex(int layer, int locationA, int locationB) {
+		return (((layer * capacity) + locationA) * capacity) + locationB;
+	}
+
+	/**
+	 * Get the number of values needed for the given matrix size.
+	 * @throws IllegalArgumentException If the values will not fit within a single array.
+	 */
+	static private int getCellCount(int layers, int capacity) {
+		long cells = (long)layers * capacity * capacity;
+		if (cells > denseCellMax) {
+			throw new IllegalArgumentException("Too many cells for a pheromone matrix: " + cells);
+		}
+		return (int)cells;
+	}
+
+	final private int layers;
+	final private int biasLayers;
+	private int capacity;
+	private float[] value;
+	private float[] bias;
+	private float decay;
+	private float rawMax;
+	private float rawDefault;
+}
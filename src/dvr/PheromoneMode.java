@@ -0,0 +1,24 @@
+package dvr;
+
+/**
+ * The ways an ant colony solver can store its pheromone (path usage) values.
+ */
+public enum PheromoneMode {
+	
+	/**
+	 * Each vehicle has its own pheromone matrix. This is the default.
+	 * Memory use and deposit cost grow with the number of vehicles.
+	 */
+	PER_VEHICLE,
+	
+	/**
+	 * Every vehicle shares a single pheromone matrix.
+	 */
+	SHARED,
+	
+	/**
+	 * Every vehicle shares a single pheromone matrix, and each vehicle also has
+	 * a small bias vector holding one value per location.
+	 */
+	SHARED_WITH_BIAS;
+}
@@ -0,0 +1,163 @@
+package dvr;
+
+/**
+ * Interface for classes which hold the pheromone (path usage) values of an ant colony solver.
+ * Values are held in one or more layers (normally one per vehicle, or a single layer shared by every vehicle),
+ * along with an optional bias vector per vehicle holding one value per location.
+ * Paths which have never been given a value read a default value, which is zero until {@link #fill(float)} is used.
+ */
+public interface PheromoneStore {
+
+	/**
+	 * Interface used to visit each stored path.
+	 */
+	public interface PathVisitor {
+
+		/**
+		 * Called once for each stored path.
+		 * @param layer The layer index.
+		 * @param locationA The index of the location the path starts at.
+		 * @param locationB The index of the location the path ends at.
+		 * @param value The pheromone value.
+		 */
+		public void visit(int layer, int locationA, int locationB, float value);
+	}
+
+	/**
+	 * The largest number of values held by a dense store, being the most a single array can hold.
+	 * Larger stores only hold the values of paths which have been given one.
+	 */
+	static final public long denseCellMax = Integer.MAX_VALUE - 8;
+
+	/**
+	 * The share of the maximum heap size which the values of a dense store may use, as a divisor.
+	 * Copying the solver copies its store, so a quarter leaves room for two stores alongside the distance matrix.
+	 */
+	static final public int denseHeapShare = 4;
+
+	/**
+	 * Get the largest number of values which a dense store may hold, given the maximum heap size.
+	 * For example 2000 locations with 20 vehicles need 80 million values (320MB), which stay dense on a heap of 1.28GB.
+	 * @return Largest number of values.
+	 */
+	static public long getDenseCellLimit() {
+		final long heapCells = Runtime.getRuntime().maxMemory() / denseHeapShare / Float.BYTES;
+		return Math.min(denseCellMax, heapCells);
+	}
+
+	/**
+	 * Create a pheromone store, using a dense matrix unless it would be too large for the heap.
+	 * @param layers Number of layers, normally one per vehicle.
+	 * @param capacity Number of locations each layer has room for.
+	 * @param biasLayers Number of bias vectors, normally zero or one per vehicle.
+	 * @return A new pheromone store with every value at zero.
+	 */
+	static public PheromoneStore create(int layers, int capacity, int biasLayers) {
+		if ((long)layers * capacity * capacity > getDenseCellLimit()) {
+			return new SparsePheromoneMatrix(layers, capacity, biasLayers);
+		}
+		return new PheromoneMatrix(layers, capacity, biasLayers);
+	}
+
+	/**
+	 * Create a copy of the store.
+	 * @return The copy.
+	 */
+	public PheromoneStore copy();
+
+	/**
+	 * Get the number of layers.
+	 * @return Number of layers.
+	 */
+	public int getLayers();
+
+	/**
+	 * Get the number of bias vectors.
+	 * @return Number of bias vectors.
+	 */
+	public int getBiasLayers();
+
+	/**
+	 * Get the number of locations each layer has room for.
+	 * @return Layer capacity.
+	 */
+	public int getCapacity();
+
+	/**
+	 * Get the pheromone value of a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @return The pheromone value.
+	 */
+	public float get(int layer, int locationA, int locationB);
+
+	/**
+	 * Add pheromone to a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @param amount The amount to add.
+	 */
+	public void add(int layer, int locationA, int locationB, float amount);
+
+	/**
+	 * Get the bias value of a location.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @return The bias value.
+	 */
+	public float getBias(int layer, int location);
+
+	/**
+	 * Add to the bias value of a location.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @param amount The amount to add.
+	 */
+	public void addBias(int layer, int location, float amount);
+
+	/**
+	 * Multiply every pheromone value, including the default value, by the same amount.
+	 * @param multiplier The amount to multiply each value by, between 0 and 1.
+	 */
+	public void evaporate(float multiplier);
+
+	/**
+	 * Get the highest pheromone value within the store.
+	 * After a location is moved or cleared this may be higher than any remaining value.
+	 * @return The highest single value.
+	 */
+	public float getMax();
+
+	/**
+	 * Set every pheromone value to the same amount, and clear every bias value.
+	 * @param amount The value to set.
+	 */
+	public void fill(float amount);
+
+	/**
+	 * Change the number of locations each layer has room for.
+	 * @param newCapacity The new capacity.
+	 * @param size The number of locations in use, which are kept.
+	 * @return The resized store, which may be a new store if this one cannot hold the new capacity.
+	 */
+	public PheromoneStore resize(int newCapacity, int size);
+
+	/**
+	 * Move the values of one location into another, then clear the first location.
+	 * Used when a location is removed and the last location takes its index.
+	 * @param from Index of the location to move.
+	 * @param to Index which the location is moved to.
+	 * @param size The number of locations in use.
+	 */
+	public void moveLocation(int from, int to, int size);
+
+	/**
+	 * Visit every stored path between locations in use, in no particular order.
+	 * Paths which still read the default value may be skipped.
+	 * @param size The number of locations in use.
+	 * @param visitor Called once for each path.
+	 */
+	public void forEach(int size, PathVisitor visitor);
+}
@@ -0,0 +1,759 @@
+package dvr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A road network used to calculate travel costs along roads instead of in a straight line.
+ * Each location is snapped to its nearest road node, and costs are the shortest path between the nodes
+ * plus the straight-line distance from each location to its node.
+ * <p>
+ * The network is preprocessed into a contraction hierarchy. Single queries search upwards from both ends,
+ * and the costs for a whole location list are found with a bucket-based many-to-many search,
+ * where one upward search is run per location rather than one full Dijkstra search per pair.
+ * <p>
+ * Road network file format, one entry per line:
+ * <pre>
+ * node &lt;id&gt; &lt;x&gt; &lt;y&gt;
+ * edge &lt;id-a&gt; &lt;id-b&gt; [weight]
+ * </pre>
+ * Blank lines and lines starting with # are ignored. Values may be separated by spaces or commas.
+ * Edges are two-way, and if no weight is given then the straight-line length of the edge is used.
+ */
+public class RoadNetwork implements CostProvider {
+
+	/**
+	 * The maximum number of nodes settled by each witness search during preprocessing.
+	 * Larger values give fewer shortcuts but slower preprocessing.
+	 */
+	static final public int witnessSettleMax = 64;
+
+	/**
+	 * Road network constructor.
+	 * @param coord The coordinate of each node.
+	 * @param edgeA The first node of each edge.
+	 * @param edgeB The second node of each edge.
+	 * @param edgeWeight The cost of travelling along each edge.
+	 */
+	public RoadNetwork(Coordinate[] coord, int[] edgeA, int[] edgeB, long[] edgeWeight) {
+		assert coord.length > 0;
+		assert (edgeA.length == edgeB.length) && (edgeA.length == edgeWeight.length);
+
+		// Record general values
+		nodeCount = coord.length;
+		nodeCoord = coord;
+		grid = new SpatialGrid(coord);
+		forwardSearch = ThreadLocal.withInitial(() -> new Search(nodeCount));
+		backwardSearch = ThreadLocal.withInitial(() -> new Search(nodeCount));
+
+		// Record the longest simple path possible, used to bound the costs
+		long total = 0;
+		for (long w : edgeWeight) total += w;
+		edgeTotal = total;
+		costHash = hashNetwork(coord, edgeA, edgeB, edgeWeight);
+
+		// Create the adjacency lists used while building the hierarchy
+		adjTo = new int[nodeCount][];
+		adjWeight = new long[nodeCount][];
+		adjCount = new int[nodeCount];
+		for (int i=0; i<edgeA.length; i++) {
+			if (edgeA[i] != edgeB[i]) {
+				addEdge(edgeA[i], edgeB[i], edgeWeight[i]);
+				addEdge(edgeB[i], edgeA[i], edgeWeight[i]);
+			}
+		}
+
+		// Contract every node and build the upward graph
+		rank = new int[nodeCount];
+		// Each edge is listed twice before contraction, and only by its lower node afterwards
+		int edgeCount = 0;
+		for (int c : adjCount) edgeCount += c;
+		contract();
+		int upwardCount = 0;
+		for (int c : adjCount) upwardCount += c;
+		shortcutCount = upwardCount - (edgeCount / 2);
+		buildUpwardGraph();
+
+		// The adjacency lists are no longer needed
+		adjTo = null;
+		adjWeight = null;
+		adjCount = null;
+	}
+
+	/**
+	 * Load a road network from file.
+	 * @param file The road network file.
+	 * @return The loaded road network.
+	 * @throws IOException If the file could not be read or is not in the expected format.
+	 */
+	static public RoadNetwork load(File file) throws IOException {
+		HashMap<Long, Integer> nodeIndex = new HashMap<Long, Integer>();
+		long[] nodeX = new long[16];
+		long[] nodeY = new long[16];
+		IntegerList edgeA = new IntegerList();
+		IntegerList edgeB = new IntegerList();
+		long[] edgeWeight = new long[16];
+		int nodes = 0;
+		int edges = 0;
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			int lineNumber = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] values = line.split("[\\s,]+");
+				try {
+					if (values[0].equals("node") && (values.length >= 4)) {
+
+						// Add a new node
+						if (nodeIndex.put(Long.parseLong(values[1]), nodes) != null) {
+							throw new IOException("Duplicate node on line " + lineNumber);
+						}
+						if (nodes >= nodeX.length) {
+							nodeX = Arrays.copyOf(nodeX, nodes * 2);
+							nodeY = Arrays.copyOf(nodeY, nodes * 2);
+						}
+						nodeX[nodes] = Long.parseLong(values[2]);
+						nodeY[nodes] = Long.parseLong(values[3]);
+						nodes++;
+
+					} else if (values[0].equals("edge") && (values.length >= 3)) {
+
+						// Add a new edge, using the straight-line length if no weight is given
+						Integer a = nodeIndex.get(Long.parseLong(values[1]));
+						Integer b = nodeIndex.get(Long.parseLong(values[2]));
+						if ((a == null) || (b == null)) {
+							throw new IOException("Unknown node on line " + lineNumber);
+						}
+						long w;
+						if (values.length >= 4) {
+							w = Long.parseLong(values[3]);
+						} else {
+							double dx = nodeX[a] - nodeX[b];
+							double dy = nodeY[a] - nodeY[b];
+							w = (long)Math.sqrt((dx * dx) + (dy * dy));
+						}
+						if (w < 0) throw new IOException("Negative edge weight on line " + lineNumber);
+						if (edges >= edgeWeight.length) edgeWeight = Arrays.copyOf(edgeWeight, edges * 2);
+						edgeA.add(a);
+						edgeB.add(b);
+						edgeWeight[edges++] = w;
+
+					} else {
+						throw new IOException("Unknown entry on line " + lineNumber);
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid number on line " + lineNumber);
+				}
+			}
+		}
+		if (nodes == 0) throw new IOException("Road network contains no nodes");
+
+		// Create the network
+		Coordinate[] coord = new Coordinate[nodes];
+		for (int i=0; i<nodes; i++) coord[i] = new Coordinate(nodeX[i], nodeY[i]);
+		int[] a = new int[edges];
+		int[] b = new int[edges];
+		for (int i=0; i<edges; i++) {
+			a[i] = edgeA.get(i);
+			b[i] = edgeB.get(i);
+		}
+		return new RoadNetwork(coord, a, b, Arrays.copyOf(edgeWeight, edges));
+	}
+
+	/**
+	 * Get the number of nodes within the road network.
+	 * @return Number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Get the number of shortcut edges added while building the contraction hierarchy.
+	 * @return Number of shortcuts.
+	 */
+	public int getShortcutCount() {
+		return shortcutCount;
+	}
+
+	/**
+	 * Calculate the cost of travelling between two locations along the road network.
+	 * If there is no path between the two locations then the straight-line distance is used.
+	 * @param a The first location.
+	 * @param b The second location.
+	 * @return Cost of travelling from location-A to location-B.
+	 */
+	public long getCost(Location a, Location b) {
+		if (a == b) return 0;
+		int nodeA = grid.nearest(a.coord.x, a.coord.y);
+		int nodeB = grid.nearest(b.coord.x, b.coord.y);
+
+		// Search upwards from both nodes and find the best meeting node
+		long best = Long.MAX_VALUE;
+		if (nodeA == nodeB) {
+			best = 0;
+		} else {
+			Search f = forwardSearch.get();
+			Search r = backwardSearch.get();
+			f.run(nodeA);
+			r.run(nodeB);
+			for (int i=0; i<r.settledCount; i++) {
+				long d = f.getDistance(r.settled[i]);
+				if (d != Long.MAX_VALUE) best = Math.min(best, d + r.settledDistance[i]);
+			}
+		}
+		return (best != Long.MAX_VALUE) ?
+			best + getSnapCost(a, nodeA) + getSnapCost(b, nodeB) :
+			getStraightCost(a.coord, b.coord);
+	}
+
+	/**
+	 * Calculate the cost of travelling from one location to every location before it within a list.
+	 * The first call for a list runs one upward search from every location and records the results within
+	 * buckets at each node reached. Later calls run a single upward search and scan the buckets it reaches.
+	 * This is only worthwhile when most of the list is requested, so a single new location should use getCost() instead.
+	 * @param l The location list.
+	 * @param b Index of the location to travel from.
+	 * @param cost Receives the cost of travelling to locations 0 to b-1.
+	 */
+	@Override
+	public void getCosts(Location[] l, int b, long[] cost) {
+		Buckets buckets = getBuckets(l);
+		Arrays.fill(cost, 0, b, Long.MAX_VALUE);
+
+		// Search upwards from location-B and scan the buckets of every node reached
+		Search f = forwardSearch.get();
+		f.run(buckets.node[b]);
+		for (int i=0; i<f.settledCount; i++) {
+			int u = f.settled[i];
+			long du = f.settledDistance[i];
+			// Each bucket is sorted by location index, so stop at the first location after location-B
+			for (int j=buckets.start[u]; j<buckets.start[u + 1]; j++) {
+				int t = buckets.target[j];
+				if (t >= b) break;
+				cost[t] = Math.min(cost[t], du + buckets.distance[j]);
+			}
+		}
+
+		// Add the cost of reaching the road network from each location
+		for (int a=0; a<b; a++) {
+			if (cost[a] != Long.MAX_VALUE) {
+				cost[a] += buckets.snapCost[a] + buckets.snapCost[b];
+			} else {
+				cost[a] = getStraightCost(l[a].coord, l[b].coord);
+			}
+		}
+	}
+
+	/**
+	 * Get an upper bound for the cost of travelling between any two locations within a list.
+	 * No simple path can be longer than every road combined, and the straight-line distance across
+	 * the location and node AABBs bounds both the snapping cost and the unreachable case.
+	 * @param l The location list.
+	 * @return Largest possible cost.
+	 */
+	public long getCostBound(Location[] l) {
+		AABB aabb = grid.getAABB();
+		for (Location i : l) aabb.add(i.coord);
+		long straight = DistanceMatrix.getDistanceBound(aabb) + 1;
+		return Math.max(straight, edgeTotal + (2 * straight));
+	}
+
+	/**
+	 * Get a hash which identifies the costs given by this road network.
+	 * @return A non-zero hash of the nodes and edges.
+	 */
+	@Override
+	public long getCostHash() {
+		return costHash;
+	}
+
+	/**
+	 * Calculate a hash of the nodes and edges of a road network.
+	 * @return A 64-bit FNV-1a hash of the road network, which is never 0.
+	 */
+	static private long hashNetwork(Coordinate[] coord, int[] edgeA, int[] edgeB, long[] edgeWeight) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ coord.length) * 0x100000001b3L;
+		for (Coordinate c : coord) {
+			hash = (hash ^ c.x) * 0x100000001b3L;
+			hash = (hash ^ c.y) * 0x100000001b3L;
+		}
+		hash = (hash ^ edgeA.length) * 0x100000001b3L;
+		for (int i=0; i<edgeA.length; i++) {
+			hash = (hash ^ edgeA[i]) * 0x100000001b3L;
+			hash = (hash ^ edgeB[i]) * 0x100000001b3L;
+			hash = (hash ^ edgeWeight[i]) * 0x100000001b3L;
+		}
+		return (hash != 0) ? hash : 1;
+	}
+
+	/**
+	 * Get the cost of travelling from a location to a road node.
+	 */
+	private long getSnapCost(Location l, int node) {
+		return getStraightCost(l.coord, nodeCoord[node]);
+	}
+
+	/**
+	 * Get the straight-line cost between two coordinates, matching the default distance matrix.
+	 */
+	static private long getStraightCost(Coordinate a, Coordinate b) {
+		double dx = a.x - b.x;
+		double dy = a.y - b.y;
+		return (long)Math.sqrt((dx * dx) + (dy * dy));
+	}
+
+	/**
+	 * Get the search buckets for a location list, creating them if needed.
+	 * The buckets of the most recently used list are kept along with a copy of the list, so they are
+	 * recreated if the list has been altered since, or if a different list is used.
+	 */
+	private Buckets getBuckets(Location[] l) {
+		Buckets b = buckets;
+		if ((b != null) && b.matches(l)) return b;
+		synchronized(this) {
+			if ((buckets == null) || !buckets.matches(l)) {
+				buckets = new Buckets(l);
+			}
+			return buckets;
+		}
+	}
+
+	/**
+	 * Discard the search buckets of the most recently used location list, to free their memory.
+	 * They are recreated by the next call to getCosts().
+	 */
+	public void clearBuckets() {
+		synchronized(this) {
+			buckets = null;
+		}
+	}
+
+	/**
+	 * Used to hold the results of an upward search from every location within a list.
+	 * The results are grouped by node so that a search from another location can find them quickly.
+	 */
+	private class Buckets {
+		final Location[] list;
+		final int[] node;
+		final long[] snapCost;
+		final int[] start;
+		final int[] target;
+		final long[] distance;
+
+		Buckets(Location[] l) {
+			list = l.clone();
+			final int n = l.length;
+			node = new int[n];
+			snapCost = new long[n];
+
+			// Run an upward search from every location, recording every node reached
+			IntegerList entryNode = new IntegerList();
+			IntegerList entryTarget = new IntegerList();
+			long[] entryDistance = new long[Math.max(16, n)];
+			Search s = backwardSearch.get();
+			for (int t=0; t<n; t++) {
+				node[t] = grid.nearest(l[t].coord.x, l[t].coord.y);
+				snapCost[t] = getSnapCost(l[t], node[t]);
+				s.run(node[t]);
+				for (int i=0; i<s.settledCount; i++) {
+					if (entryNode.size() >= entryDistance.length) {
+						entryDistance = Arrays.copyOf(entryDistance, entryDistance.length * 2);
+					}
+					entryDistance[entryNode.size()] = s.settledDistance[i];
+					entryNode.add(s.settled[i]);
+					entryTarget.add(t);
+				}
+			}
+
+			// Group the entries by node, keeping each group in location order
+			start = new int[nodeCount + 1];
+			for (int i=0; i<entryNode.size(); i++) start[entryNode.get(i) + 1]++;
+			for (int i=0; i<nodeCount; i++) start[i + 1] += start[i];
+			target = new int[entryNode.size()];
+			distance = new long[entryNode.size()];
+			int[] fill = new int[nodeCount];
+			for (int i=0; i<entryNode.size(); i++) {
+				int u = entryNode.get(i);
+				int j = start[u] + fill[u]++;
+				target[j] = entryTarget.get(i);
+				distance[j] = entryDistance[i];
+			}
+		}
+
+		/**
+		 * Check if the buckets were created for the same locations, in the same order, as a list.
+		 * @param l The location list.
+		 * @return True if the buckets can be used for the list.
+		 */
+		boolean matches(Location[] l) {
+			if (l.length != list.length) return false;
+			for (int i=0; i<l.length; i++) {
+				if (l[i] != list[i]) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Used to hold the working data for a single upward search.
+	 * Each thread has its own, so that searches can be run in parallel.
+	 */
+	private class Search {
+		final long[] distance;
+		final int[] stamp;
+		final Heap heap;
+		int currentStamp;
+		int[] settled;
+		long[] settledDistance;
+		int settledCount;
+
+		Search(int n) {
+			distance = new long[n];
+			stamp = new int[n];
+			heap = new Heap();
+			settled = new int[16];
+			settledDistance = new long[16];
+		}
+
+		/**
+		 * Get the distance found to a node by the last search.
+		 */
+		long getDistance(int u) {
+			return (stamp[u] == currentStamp) ? distance[u] : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Run a Dijkstra search from a node which only follows edges to nodes of higher rank.
+		 * The settled nodes and their distances are recorded, except for stalled nodes.
+		 */
+		void run(int source) {
+			currentStamp++;
+			settledCount = 0;
+			heap.clear();
+			distance[source] = 0;
+			stamp[source] = currentStamp;
+			heap.push(0, source);
+			while (!heap.isEmpty()) {
+				long d = heap.peekKey();
+				int u = heap.pop();
+				if (d > distance[u]) continue;
+
+				// Stall the node if a higher node already offers a shorter path to it
+				// Such a node cannot be the meeting point of a shortest path, so its edges are not followed
+				boolean stalled = false;
+				for (int j=upStart[u]; j<upStart[u + 1]; j++) {
+					int w = upTo[j];
+					if ((stamp[w] == currentStamp) && (distance[w] + upWeight[j] < d)) {
+						stalled = true;
+						break;
+					}
+				}
+				if (stalled) continue;
+
+				// Record the settled node
+				if (settledCount >= settled.length) {
+					settled = Arrays.copyOf(settled, settledCount * 2);
+					settledDistance = Arrays.copyOf(settledDistance, settledCount * 2);
+				}
+				settled[settledCount] = u;
+				settledDistance[settledCount++] = d;
+
+				// Relax the upward edges
+				for (int j=upStart[u]; j<upStart[u + 1]; j++) {
+					int w = upTo[j];
+					long dw = d + upWeight[j];
+					if ((stamp[w] != currentStamp) || (dw < distance[w])) {
+						stamp[w] = currentStamp;
+						distance[w] = dw;
+						heap.push(dw, w);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A binary min-heap of nodes keyed by a long value.
+	 * Duplicate nodes are allowed, so out of date entries should be skipped when popped.
+	 */
+	static private class Heap {
+		long[] key = new long[16];
+		int[] value = new int[16];
+		int used = 0;
+
+		void clear() {
+			used = 0;
+		}
+
+		boolean isEmpty() {
+			return used == 0;
+		}
+
+		long peekKey() {
+			return key[0];
+		}
+
+		void push(long k, int v) {
+			if (used >= key.length) {
+				key = Arrays.copyOf(key, used * 2);
+				value = Arrays.copyOf(value, used * 2);
+			}
+			int i = used++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (key[parent] <= k) break;
+				key[i] = key[parent];
+				value[i] = value[parent];
+				i = parent;
+			}
+			key[i] = k;
+			value[i] = v;
+		}
+
+		int pop() {
+			int result = value[0];
+			long k = key[--used];
+			int v = value[used];
+			int i = 0;
+			while (true) {
+				int child = (2 * i) + 1;
+				if (child >= used) break;
+				if ((child + 1 < used) && (key[child + 1] < key[child])) child++;
+				if (key[child] >= k) break;
+				key[i] = key[child];
+				value[i] = value[child];
+				i = child;
+			}
+			key[i] = k;
+			value[i] = v;
+			return result;
+		}
+	}
+
+	/**
+	 * Add an edge to the adjacency list of a node, or shorten it if it already exists.
+	 */
+	private void addEdge(int from, int to, long weight) {
+		int[] t = adjTo[from];
+		for (int i=0; i<adjCount[from]; i++) {
+			if (t[i] == to) {
+				if (adjWeight[from][i] > weight) adjWeight[from][i] = weight;
+				return;
+			}
+		}
+		if ((t == null) || (adjCount[from] >= t.length)) {
+			int newLength = (t == null) ? 4 : t.length * 2;
+			adjTo[from] = (t == null) ? new int[newLength] : Arrays.copyOf(t, newLength);
+			adjWeight[from] = (t == null) ? new long[newLength] : Arrays.copyOf(adjWeight[from], newLength);
+		}
+		adjTo[from][adjCount[from]] = to;
+		adjWeight[from][adjCount[from]++] = weight;
+	}
+
+	/**
+	 * Remove an edge from the adjacency list of a node, if it exists.
+	 */
+	private void removeEdge(int from, int to) {
+		for (int i=0; i<adjCount[from]; i++) {
+			if (adjTo[from][i] == to) {
+				int last = --adjCount[from];
+				adjTo[from][i] = adjTo[from][last];
+				adjWeight[from][i] = adjWeight[from][last];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Contract every node in order of importance, adding shortcuts where needed.
+	 * When a node is contracted it is removed from the lists of its neighbours, and their priorities
+	 * are recalculated. Queue entries holding an older priority are skipped.
+	 */
+	private void contract() {
+		boolean[] contracted = new boolean[nodeCount];
+		int[] deletedNeighbours = new int[nodeCount];
+		int[] level = new int[nodeCount];
+		long[] priority = new long[nodeCount];
+		Witness witness = new Witness(nodeCount);
+
+		// Calculate the initial priority of every node
+		Heap queue = new Heap();
+		for (int v=0; v<nodeCount; v++) {
+			priority[v] = getPriority(v, deletedNeighbours, level, witness);
+			queue.push(priority[v], v);
+		}
+
+		// Contract nodes in priority order, skipping queue entries which are out of date
+		int nextRank = 0;
+		while (!queue.isEmpty()) {
+			long key = queue.peekKey();
+			int v = queue.pop();
+			if (contracted[v] || (key != priority[v])) continue;
+
+			// Add the shortcuts and remove the node from the remaining graph
+			// The node keeps its own edges, which all lead to nodes of higher rank
+			addShortcuts(v, witness, true);
+			contracted[v] = true;
+			rank[v] = nextRank++;
+			for (int i=0; i<adjCount[v]; i++) {
+				removeEdge(adjTo[v][i], v);
+			}
+
+			// Update the neighbours, which may now need more shortcuts
+			for (int i=0; i<adjCount[v]; i++) {
+				int u = adjTo[v][i];
+				deletedNeighbours[u]++;
+				level[u] = Math.max(level[u], level[v] + 1);
+				priority[u] = getPriority(u, deletedNeighbours, level, witness);
+				queue.push(priority[u], u);
+			}
+		}
+	}
+
+	/**
+	 * Get the contraction priority of a node. Nodes with a lower priority are contracted first.
+	 * Nodes which add few shortcuts are preferred, while the deleted neighbour count and level
+	 * spread the contractions evenly over the network.
+	 */
+	private long getPriority(int v, int[] deletedNeighbours, int[] level, Witness witness) {
+		int shortcuts = addShortcuts(v, witness, false);
+		return (2 * (shortcuts - adjCount[v])) + deletedNeighbours[v] + level[v];
+	}
+
+	/**
+	 * Find the shortcuts needed to contract a node.
+	 * A shortcut between two neighbours is needed if no other path, found by a limited witness search,
+	 * is as short as the path through the node.
+	 * @param v The node being contracted.
+	 * @param witness The witness search data.
+	 * @param apply If true then the shortcuts are added to the graph.
+	 * @return The number of shortcuts needed.
+	 */
+	private int addShortcuts(int v, Witness witness, boolean apply) {
+		int shortcuts = 0;
+
+		// Copy the neighbour list, as adding shortcuts may alter it
+		final int n = adjCount[v];
+		if (n < 2) return 0;
+		int[] neighbour = Arrays.copyOf(adjTo[v], n);
+		long[] neighbourWeight = Arrays.copyOf(adjWeight[v], n);
+
+		// Search from each neighbour for paths to the later neighbours which avoid this node
+		for (int i=0; i<n-1; i++) {
+			long limit = 0;
+			for (int j=i+1; j<n; j++) limit = Math.max(limit, neighbourWeight[i] + neighbourWeight[j]);
+			witness.run(neighbour[i], v, limit);
+			for (int j=i+1; j<n; j++) {
+				long via = neighbourWeight[i] + neighbourWeight[j];
+				if (witness.getDistance(neighbour[j]) > via) {
+					shortcuts++;
+					if (apply) {
+						addEdge(neighbour[i], neighbour[j], via);
+						addEdge(neighbour[j], neighbour[i], via);
+					}
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * Used to hold the working data for the limited witness searches run during preprocessing.
+	 */
+	private class Witness {
+		final long[] distance;
+		final int[] stamp;
+		final Heap heap;
+		int currentStamp;
+
+		Witness(int n) {
+			distance = new long[n];
+			stamp = new int[n];
+			heap = new Heap();
+		}
+
+		long getDistance(int u) {
+			return (stamp[u] == currentStamp) ? distance[u] : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Run a Dijkstra search over the remaining uncontracted graph, ignoring one node.
+		 * Nodes beyond the distance limit are not queued, and the search stops once the settle limit is reached.
+		 */
+		void run(int source, int ignore, long limit) {
+			currentStamp++;
+			heap.clear();
+			distance[source] = 0;
+			stamp[source] = currentStamp;
+			heap.push(0, source);
+			int settledCount = 0;
+			while (!heap.isEmpty() && (settledCount < witnessSettleMax)) {
+				long d = heap.peekKey();
+				int u = heap.pop();
+				if (d > distance[u]) continue;
+				settledCount++;
+				for (int i=0; i<adjCount[u]; i++) {
+					int w = adjTo[u][i];
+					long dw = d + adjWeight[u][i];
+					if ((w == ignore) || (dw > limit)) continue;
+					if ((stamp[w] != currentStamp) || (dw < distance[w])) {
+						stamp[w] = currentStamp;
+						distance[w] = dw;
+						heap.push(dw, w);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the upward graph from the contracted adjacency lists.
+	 * Each node keeps only the edges which lead to a node of higher rank.
+	 */
+	private void buildUpwardGraph() {
+		upStart = new int[nodeCount + 1];
+		for (int u=0; u<nodeCount; u++) {
+			for (int i=0; i<adjCount[u]; i++) {
+				if (rank[adjTo[u][i]] > rank[u]) upStart[u + 1]++;
+			}
+		}
+		for (int u=0; u<nodeCount; u++) upStart[u + 1] += upStart[u];
+		upTo = new int[upStart[nodeCount]];
+		upWeight = new long[upStart[nodeCount]];
+		for (int u=0; u<nodeCount; u++) {
+			int j = upStart[u];
+			for (int i=0; i<adjCount[u]; i++) {
+				if (rank[adjTo[u][i]] > rank[u]) {
+					upTo[j] = adjTo[u][i];
+					upWeight[j++] = adjWeight[u][i];
+				}
+			}
+		}
+	}
+
+	final private int nodeCount;
+	final private Coordinate[] nodeCoord;
+	final private SpatialGrid grid;
+	final private long edgeTotal;
+	final private long costHash;
+	final private int[] rank;
+	final private int shortcutCount;
+	final private ThreadLocal<Search> forwardSearch;
+	final private ThreadLocal<Search> backwardSearch;
+	private int[][] adjTo;
+	private long[][] adjWeight;
+	private int[] adjCount;
+	private int[] upStart;
+	private int[] upTo;
+	private long[] upWeight;
+	private volatile Buckets buckets;
+}
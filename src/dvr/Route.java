@@ -1,7 +1,18 @@
 package dvr;
 
+import java.util.Arrays;
+
 /**
  * Contains a list of locations to be visited.
+ * <p>
+ * The locations are held within a primitive array, along with a prefix cost array holding the distance travelled
+ * from the first location to each location, and a prefix load array holding the number of locations visited
+ * (not counting the depot) up to and including each location. This lets the cost and load of any segment of the
+ * route be found in O(1) time.
+ * <p>
+ * The total cost is kept up to date separately, so adding, inserting, or changing a location updates it in O(1) time
+ * from the distances of the paths removed and added. Changing a location within the route only marks the prefix
+ * arrays as out of date from that location onwards, and they are rebuilt when next queried.
  */
 public class Route {
 
@@ -11,19 +22,43 @@ public class Route {
 	 */
 	public Route(DistanceMatrix d) {
 		distanceMatrix = d;
-		location = new IntegerList();
+		location = new int[capacityMin];
+		prefixCost = new long[capacityMin];
+		prefixLoad = new int[capacityMin];
+		size = 0;
+		prefixSize = 0;
 		cost = 0;
-		location.reserve(d.size() + 1);
 	}
 
 	/**
 	 * Route copy constructor.
+	 * The arrays of the source route are copied in bulk, with no spare room.
+	 * Only the part of the prefix arrays which is up to date is copied.
 	 * @param src The route to copy.
 	 */
 	public Route(Route src) {
-		distanceMatrix = src.distanceMatrix;
-		location = new IntegerList(src.location);
+		this(src, src.distanceMatrix);
+	}
+
+	/**
+	 * Route copy constructor, moving the copy onto another distance matrix.
+	 * The cost is copied rather than calculated again, so the distance matrix must hold the same distances
+	 * between the locations of the route, such as a distance matrix with a location added.
+	 * @param src The route to copy.
+	 * @param d The distance matrix to use as a reference.
+	 */
+	public Route(Route src, DistanceMatrix d) {
+		final int n = Math.max(src.size, capacityMin);
+		distanceMatrix = d;
+		location = new int[n];
+		prefixCost = new long[n];
+		prefixLoad = new int[n];
+		size = src.size;
+		prefixSize = src.prefixSize;
 		cost = src.cost;
+		System.arraycopy(src.location, 0, location, 0, size);
+		System.arraycopy(src.prefixCost, 0, prefixCost, 0, prefixSize);
+		System.arraycopy(src.prefixLoad, 0, prefixLoad, 0, prefixSize);
 	}
 
 	/**
@@ -47,6 +82,21 @@ public class Route {
 		}
 		return routes;
 	}
+
+	/**
+	 * Make a copy of list of routes, moving the copies onto another distance matrix.
+	 * See Route(Route, DistanceMatrix).
+	 * @param src The routes to be copied (will not be altered)
+	 * @param d The distance matrix to use as a reference.
+	 * @return A copy of the routes.
+	 */
+	static public Route[] makeCopy(Route[] src, DistanceMatrix d) {
+		Route[] routes = new Route[src.length];
+		for (int i=0; i<src.length; i++) {
+			routes[i] = new Route(src[i], d);
+		}
+		return routes;
+	}
 	
 	/**
 	 * Get the reference distance matrix
@@ -70,16 +120,53 @@ public class Route {
 	 */
 	static public long getCost(Route[] route) {
 		long totalCost = 0;
-		for (Route r : route) totalCost += r.cost;
+		for (Route r : route) totalCost += r.getCost();
 		return totalCost;
 	}
+
+	/**
+	 * Get the distance travelled between two locations within the route.
+	 * This takes O(1) time, unless the prefix arrays must first be brought up to date.
+	 * @param from Index within the route of the first location.
+	 * @param to Index within the route of the last location, which must not be before the first.
+	 * @return The cost of the segment.
+	 */
+	public long getSegmentCost(int from, int to) {
+		assert (0 <= from) && (from <= to) && (to < size);
+		updatePrefix(to);
+		return prefixCost[to] - prefixCost[from];
+	}
+
+	/**
+	 * Get the number of locations visited, not counting the depot, up to and including a location within the route.
+	 * @param index Index of the location within the route.
+	 * @return The load after the location.
+	 */
+	public int getLoad(int index) {
+		assert (0 <= index) && (index < size);
+		updatePrefix(index);
+		return prefixLoad[index];
+	}
+
+	/**
+	 * Get the number of locations visited, not counting the depot, within a segment of the route.
+	 * This takes O(1) time, unless the prefix arrays must first be brought up to date.
+	 * @param from Index within the route of the first location.
+	 * @param to Index within the route of the last location, which must not be before the first.
+	 * @return The load of the segment.
+	 */
+	public int getSegmentLoad(int from, int to) {
+		assert (0 <= from) && (from <= to) && (to < size);
+		updatePrefix(to);
+		return prefixLoad[to] - ((from > 0) ? prefixLoad[from - 1] : 0);
+	}
 	
 	/**
 	 * Get the current number of locations within the route.
 	 * @return Number of locations within the route.
 	 */
 	public int size() {
-		return location.size();
+		return size;
 	}
 	
 	/**
@@ -88,11 +175,153 @@ public class Route {
 	 */
 	public void add(int locationIndex) {
 		assert (0 <= locationIndex) && (locationIndex < distanceMatrix.size());
-		if (!location.isEmpty()) {
-			int last = location.get(location.size() - 1);
-			cost += distanceMatrix.getDistance(last, locationIndex);
+		if (size == location.length) grow(size + 1);
+		if (size > 0) cost += distanceMatrix.getDistance(location[size - 1], locationIndex);
+		location[size] = locationIndex;
+		
+		// Extend the prefix arrays only if they are already up to date, which keeps this O(1)
+		if (prefixSize == size) setPrefix(prefixSize++);
+		size++;
+	}
+
+	/**
+	 * Add a range of locations to the end of the route.
+	 * @param locations The list holding the locations.
+	 * @param from Index within the list of the first location to add.
+	 * @param to Index within the list after the last location to add.
+	 */
+	public void add(int[] locations, int from, int to) {
+		assert (0 <= from) && (from <= to) && (to <= locations.length);
+		final int count = to - from;
+		if (size + count > location.length) grow(size + count);
+		System.arraycopy(locations, from, location, size, count);
+		final boolean extendPrefix = (prefixSize == size);
+		for (int i=size; i<size+count; i++) {
+			assert (0 <= location[i]) && (location[i] < distanceMatrix.size());
+			if (i > 0) cost += distanceMatrix.getDistance(location[i - 1], location[i]);
+			if (extendPrefix) setPrefix(prefixSize++);
+		}
+		size += count;
+	}
+
+	/**
+	 * Insert a new location into the route.
+	 * @param index Index within the route which the new location will have.
+	 * @param locationIndex Index of the location within the reference distance matrix.
+	 */
+	public void insert(int index, int locationIndex) {
+		assert (0 <= index) && (index <= size);
+		assert (0 <= locationIndex) && (locationIndex < distanceMatrix.size());
+		
+		// Get previous and next location, if any
+		final int invalid = -1;
+		int prevLocation = (index > 0) ? location[index - 1] : invalid;
+		int nextLocation = (index < size) ? location[index] : invalid;
+		
+		// Update cost
+		if (prevLocation != invalid) cost += distanceMatrix.getDistance(prevLocation, locationIndex);
+		if (nextLocation != invalid) cost += distanceMatrix.getDistance(locationIndex, nextLocation);
+		if ((prevLocation != invalid) && (nextLocation != invalid)) {
+			cost -= distanceMatrix.getDistance(prevLocation, nextLocation);
+		}
+		
+		// Move the later locations back to make room, leaving the prefix arrays out of date from the new location
+		if (size == location.length) grow(size + 1);
+		System.arraycopy(location, index, location, index + 1, size - index);
+		location[index] = locationIndex;
+		size++;
+		prefixSize = Math.min(prefixSize, index);
+	}
+
+	/**
+	 * Insert a new location into a list of routes where it adds the least distance.
+	 * The location is only added to trips which have not reached their vehicle capacity,
+	 * otherwise a new trip is added to the end of a route.
+	 * @param route The list of routes to alter. Empty routes are ignored.
+	 * @param locationIndex Index of the location within the reference distance matrix.
+	 * @param vehicleCapacity Capacity of each vehicle, or null if there is no limit.
+	 */
+	static public void insertLocation(Route[] route, int locationIndex, int[] vehicleCapacity) {
+		Route bestRoute = null;
+		int bestIndex = 0;
+		long bestCost = Long.MAX_VALUE;
+		for (int v=0; v<route.length; v++) {
+			Route r = route[v];
+			if (r.isEmpty()) continue;
+			DistanceMatrix d = r.distanceMatrix;
+			int capacity = ((vehicleCapacity != null) && (v < vehicleCapacity.length)) ? vehicleCapacity[v] : Integer.MAX_VALUE;
+			
+			// Test each gap within a trip which is not yet full, using the prefix load to find the load of each trip
+			// Gap-i lies between the location at i-1 and the location at i
+			int tripStart = 0;
+			while (tripStart < r.size - 1) {
+				int tripEnd = tripStart + 1;
+				while ((tripEnd < r.size - 1) && (r.location[tripEnd] != 0)) tripEnd++;
+				if (r.getSegmentLoad(tripStart, tripEnd) < capacity) {
+					for (int i=tripStart+1; i<=tripEnd; i++) {
+						int prev = r.location[i - 1];
+						int next = r.location[i];
+						long cost =
+							d.getDistance(prev, locationIndex) +
+							d.getDistance(locationIndex, next) -
+							d.getDistance(prev, next);
+						if (bestCost > cost) {
+							bestCost = cost;
+							bestRoute = r;
+							bestIndex = i;
+						}
+					}
+				}
+				tripStart = tripEnd;
+			}
+			
+			// Test adding a new trip to the end of the route
+			long cost = 2 * d.getDistance(0, locationIndex);
+			if (bestCost > cost) {
+				bestCost = cost;
+				bestRoute = r;
+				bestIndex = -1;
+			}
+		}
+		
+		// Add the location to the best place found
+		if (bestRoute != null) {
+			if (bestIndex >= 0) {
+				bestRoute.insert(bestIndex, locationIndex);
+			} else {
+				if (bestRoute.getLocationIndex(bestRoute.size() - 1) != 0) bestRoute.add(0);
+				bestRoute.add(locationIndex);
+				bestRoute.add(0);
+			}
+		}
+	}
+
+	/**
+	 * Remove a location from a list of routes, after it has been removed from the distance matrix.
+	 * The location which was previously last within the distance matrix is renamed to the removed index.
+	 * The routes must already use the new distance matrix, as the cost of each route is calculated again.
+	 * @param route The list of routes to alter. Empty routes are ignored.
+	 * @param index Index of the removed location.
+	 * @param moved Previous index of the location which was moved into the removed index.
+	 */
+	static public void removeLocation(Route[] route, int index, int moved) {
+		for (Route r : route) {
+			if (r.isEmpty()) continue;
+			
+			// Filter the locations in place, adding each back to the emptied route
+			// Each location is written at or before the place it was read from
+			final int oldSize = r.size;
+			r.clear();
+			for (int i=0; i<oldSize; i++) {
+				int l = r.location[i];
+				if (l == index) continue;
+				if (l == moved) l = index;
+				
+				// Skip a depot visit which would immediately follow another
+				if ((l == 0) && (r.size > 0) && (r.location[r.size - 1] == 0)) continue;
+				r.add(l);
+			}
 		}
-		location.add(locationIndex);
 	}
 
 	/**
@@ -101,18 +330,21 @@ public class Route {
 	 * @param locationIndex Location index within the distance matrix.
 	 */
 	public void setLocationIndex(int index, int locationIndex) {
+		assert (0 <= index) && (index < size);
+		assert (0 <= locationIndex) && (locationIndex < distanceMatrix.size());
 		
 		// Get old index
-		int oldLocation = location.get(index);
+		int oldLocation = location[index];
 		if (oldLocation != locationIndex) {
 			
 			// Get previous and next location, if any
 			final int invalid = -1;
-			int prevLocation = (index > 0) ? location.get(index - 1) : invalid;
-			int nextLocation = (index < (location.size() - 1)) ? location.get(index + 1) : invalid;
+			int prevLocation = (index > 0) ? location[index - 1] : invalid;
+			int nextLocation = (index < (size - 1)) ? location[index + 1] : invalid;
 
-			// Update location list
-			location.set(index, locationIndex);
+			// Update location list, leaving the prefix arrays out of date from the location
+			location[index] = locationIndex;
+			prefixSize = Math.min(prefixSize, index);
 			
 			// Update cost from previous location
 			if (prevLocation != invalid) {
@@ -134,7 +366,19 @@ public class Route {
 	 * @return Index of the location within the distance matrix.
 	 */
 	public int getLocationIndex(int index) {
-		return location.get(index);
+		assert (0 <= index) && (index < size);
+		return location[index];
+	}
+	
+	/**
+	 * Get the original index of a location for a given index within the route.
+	 * This is the index within the location list the distance matrix was created from,
+	 * before any reordering, and should be used when showing the route to the user.
+	 * @param index Index of the location within the route.
+	 * @return Original index of the location.
+	 */
+	public int getOriginalIndex(int index) {
+		return distanceMatrix.getOriginalIndex(getLocationIndex(index));
 	}
 	
 	/**
@@ -143,7 +387,7 @@ public class Route {
 	 * @return Location data at the given index.
 	 */
 	public Location getLocation(int index) {
-		return distanceMatrix.getLocation(location.get(index));
+		return distanceMatrix.getLocation(getLocationIndex(index));
 	}
 	
 	/**
@@ -151,31 +395,78 @@ public class Route {
 	 * @return True if the route has no locations.
 	 */
 	public boolean isEmpty() {
-		return location.isEmpty();
+		return size == 0;
 	}
 	
 	/**
 	 * Reset this route to contains no locations.
+	 * The arrays are kept, so the route can be refilled without allocating memory.
 	 */
 	public void clear() {
-		location.clear();
+		size = 0;
+		prefixSize = 0;
 		cost = 0;
 	}
 
 	/**
-	 * A method to convert this coordinate to a string.
-	 * @return The coordinate in string format.
+	 * A method to convert this route to a string.
+	 * Locations are shown by their original index.
+	 * @return The route in string format.
 	 */
 	@Override
 	public String toString() {
-		String result = Integer.toString(location.get(0));
-		for (int i=1; i<location.size(); i++) {
-			result += " -> " + location.get(i);
+		String result = Integer.toString(getOriginalIndex(0));
+		for (int i=1; i<size; i++) {
+			result += " -> " + getOriginalIndex(i);
+		}
+		return result + " : Distance " + getCost();
+	}
+
+	/**
+	 * Bring the prefix arrays up to date, up to and including a location.
+	 * @param index Index within the route of the location.
+	 */
+	private void updatePrefix(int index) {
+		while (prefixSize <= index) setPrefix(prefixSize++);
+	}
+
+	/**
+	 * Calculate the prefix cost and load of a location from those of the location before it.
+	 * @param index Index within the route of the location.
+	 */
+	private void setPrefix(int index) {
+		final int l = location[index];
+		final int load = (l != 0) ? 1 : 0;
+		if (index == 0) {
+			prefixCost[0] = 0;
+			prefixLoad[0] = load;
+		} else {
+			prefixCost[index] = prefixCost[index - 1] + distanceMatrix.getDistance(location[index - 1], l);
+			prefixLoad[index] = prefixLoad[index - 1] + load;
 		}
-		return result + " : Distance " + cost;
 	}
+
+	/**
+	 * Enlarge the arrays to hold at least the requested number of locations, at least doubling their size.
+	 * @param required The number of locations which must fit.
+	 */
+	private void grow(int required) {
+		final int n = Math.max(required, location.length * 2);
+		location = Arrays.copyOf(location, n);
+		prefixCost = Arrays.copyOf(prefixCost, n);
+		prefixLoad = Arrays.copyOf(prefixLoad, n);
+	}
+	
+	/**
+	 * The number of locations a new route has room for before its arrays are enlarged.
+	 */
+	static final private int capacityMin = 8;
 	
-	private DistanceMatrix distanceMatrix;
-	private IntegerList location;
+	final private DistanceMatrix distanceMatrix;
+	private int[] location;
+	private long[] prefixCost;
+	private int[] prefixLoad;
+	private int size;
+	private int prefixSize;
 	private long cost;
 }
@@ -0,0 +1,124 @@
+package dvr;
+
+/**
+ * An unchangeable copy of a route list, taken when a better route list is found.
+ * <p>
+ * The locations of every route are frozen into one array along with the cost of each route, so a snapshot
+ * can be handed to any number of readers at once without copying or locking. Each location is recorded by its
+ * original index and its location data, so a snapshot stays correct after the distance matrix it was taken from
+ * has locations added or removed.
+ */
+public class RouteSnapshot {
+
+	/**
+	 * Route snapshot constructor, copying a route list.
+	 * @param route The route list to copy (will not be altered).
+	 */
+	public RouteSnapshot(Route[] route) {
+		int count = 0;
+		for (Route r : route) count += r.size();
+		routeStart = new int[route.length + 1];
+		routeCost = new long[route.length];
+		originalIndex = new int[count];
+		location = new Location[count];
+		long total = 0;
+		int i = 0;
+		for (int v=0; v<route.length; v++) {
+			final Route r = route[v];
+			routeStart[v] = i;
+			routeCost[v] = r.getCost();
+			total += routeCost[v];
+			for (int j=0; j<r.size(); j++, i++) {
+				originalIndex[i] = r.getOriginalIndex(j);
+				location[i] = r.getLocation(j);
+			}
+		}
+		routeStart[route.length] = i;
+		totalCost = total;
+	}
+
+	/**
+	 * Get the number of routes, being one per vehicle.
+	 * @return Number of routes.
+	 */
+	public int getRouteCount() {
+		return routeCost.length;
+	}
+
+	/**
+	 * Check if the snapshot holds no locations at all, such as before any route has been found.
+	 * @return True if every route is empty.
+	 */
+	public boolean isEmpty() {
+		return originalIndex.length == 0;
+	}
+
+	/**
+	 * Get the number of locations within a route.
+	 * @param r The route index.
+	 * @return Number of locations within the route.
+	 */
+	public int size(int r) {
+		return routeStart[r + 1] - routeStart[r];
+	}
+
+	/**
+	 * Get the cost of a route.
+	 * @param r The route index.
+	 * @return Route cost/distance.
+	 */
+	public long getCost(int r) {
+		return routeCost[r];
+	}
+
+	/**
+	 * Get the cost of every route combined.
+	 * @return Total cost/distance.
+	 */
+	public long getCost() {
+		return totalCost;
+	}
+
+	/**
+	 * Get the original index of a location within a route.
+	 * @param r The route index.
+	 * @param index Index of the location within the route.
+	 * @return Original index of the location.
+	 */
+	public int getOriginalIndex(int r, int index) {
+		assert (0 <= index) && (index < size(r));
+		return originalIndex[routeStart[r] + index];
+	}
+
+	/**
+	 * Get a location within a route.
+	 * @param r The route index.
+	 * @param index Index of the location within the route.
+	 * @return The location data.
+	 */
+	public Location getLocation(int r, int index) {
+		assert (0 <= index) && (index < size(r));
+		return location[routeStart[r] + index];
+	}
+
+	/**
+	 * Convert a route to a string, in the same form as {@link Route#toString()}.
+	 * Locations are shown by their original index.
+	 * @param r The route index.
+	 * @return The route in string format.
+	 */
+	public String toString(int r) {
+		final StringBuilder result = new StringBuilder();
+		for (int i=routeStart[r]; i<routeStart[r + 1]; i++) {
+			if (i > routeStart[r]) result.append(" -> ");
+			result.append(originalIndex[i]);
+		}
+		return result.append(" : Distance ").append(routeCost[r]).toString();
+	}
+
+	final private int[] routeStart;
+	final private long[] routeCost;
+	final private int[] originalIndex;
+	final private Location[] location;
+	final private long totalCost;
+}
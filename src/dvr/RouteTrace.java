@@ -0,0 +1,160 @@
+package dvr;
+
+/**
+ * Records a route list as it is built, using only primitive arrays.
+ * Each step gives one location to one vehicle, and the cost of each vehicle is kept up to date,
+ * so the total cost is known without building any routes. Every vehicle starts at the depot (location index 0).
+ * Once a trace is worth keeping it can be copied into a route list with {@link #fill(Route[])}.
+ */
+public class RouteTrace {
+
+	/**
+	 * Route trace constructor.
+	 * @param d The distance matrix to use as a reference.
+	 * @param vehicleCount Number of vehicles.
+	 */
+	public RouteTrace(DistanceMatrix d, int vehicleCount) {
+		assert d != null;
+		assert vehicleCount > 0;
+		distanceMatrix = d;
+		last = new int[vehicleCount];
+		cost = new long[vehicleCount];
+		stepVehicle = new int[0];
+		stepFrom = new int[0];
+		stepLocation = new int[0];
+		clear();
+	}
+
+	/**
+	 * Remove every step, returning each vehicle to the depot with no cost.
+	 * Room is made for the largest trace possible with the current size of the distance matrix,
+	 * being one step per location plus a return to the depot after each.
+	 */
+	public void clear() {
+		final int stepMax = (2 * distanceMatrix.size()) + last.length;
+		if (stepVehicle.length < stepMax) {
+			stepVehicle = new int[stepMax];
+			stepFrom = new int[stepMax];
+			stepLocation = new int[stepMax];
+		}
+		for (int v=0; v<last.length; v++) {
+			last[v] = 0;
+			cost[v] = 0;
+		}
+		stepCount = 0;
+		totalCost = 0;
+	}
+
+	/**
+	 * Move a vehicle to a location.
+	 * @param v The vehicle index.
+	 * @param locationIndex Index of the location within the reference distance matrix.
+	 */
+	public void add(int v, int locationIndex) {
+		assert (0 <= locationIndex) && (locationIndex < distanceMatrix.size());
+		assert stepCount < stepVehicle.length;
+		final long distance = distanceMatrix.getDistance(last[v], locationIndex);
+		cost[v] += distance;
+		totalCost += distance;
+		stepVehicle[stepCount] = v;
+		stepFrom[stepCount] = last[v];
+		last[v] = locationIndex;
+		stepLocation[stepCount++] = locationIndex;
+	}
+
+	/**
+	 * Get the location a vehicle was last moved to.
+	 * @param v The vehicle index.
+	 * @return Index of the location within the reference distance matrix.
+	 */
+	public int getLast(int v) {
+		return last[v];
+	}
+
+	/**
+	 * Get the distance travelled by a vehicle.
+	 * @param v The vehicle index.
+	 * @return Route cost of the vehicle.
+	 */
+	public long getCost(int v) {
+		return cost[v];
+	}
+
+	/**
+	 * Get the distance travelled by every vehicle.
+	 * @return Total cost of the route list.
+	 */
+	public long getCost() {
+		return totalCost;
+	}
+
+	/**
+	 * Get the number of vehicles.
+	 * @return Number of vehicles.
+	 */
+	public int getVehicleCount() {
+		return last.length;
+	}
+
+	/**
+	 * Get the number of steps taken.
+	 * @return Number of steps.
+	 */
+	public int size() {
+		return stepCount;
+	}
+
+	/**
+	 * Get the vehicle which moved at a step.
+	 * @param index Index of the step.
+	 * @return The vehicle index.
+	 */
+	public int getStepVehicle(int index) {
+		assert (0 <= index) && (index < stepCount);
+		return stepVehicle[index];
+	}
+
+	/**
+	 * Get the location a vehicle moved from at a step.
+	 * @param index Index of the step.
+	 * @return Index of the location within the reference distance matrix.
+	 */
+	public int getStepFrom(int index) {
+		assert (0 <= index) && (index < stepCount);
+		return stepFrom[index];
+	}
+
+	/**
+	 * Get the location a vehicle moved to at a step.
+	 * @param index Index of the step.
+	 * @return Index of the location within the reference distance matrix.
+	 */
+	public int getStepLocation(int index) {
+		assert (0 <= index) && (index < stepCount);
+		return stepLocation[index];
+	}
+
+	/**
+	 * Copy the trace into a route list, which is cleared first.
+	 * Each route starts at the depot, followed by the locations given to its vehicle in step order.
+	 * @param route The route list, with one route per vehicle.
+	 */
+	public void fill(Route[] route) {
+		assert route.length == last.length;
+		for (Route r : route) {
+			r.clear();
+			r.add(0);
+		}
+		for (int i=0; i<stepCount; i++) route[stepVehicle[i]].add(stepLocation[i]);
+		assert Route.getCost(route) == totalCost;
+	}
+
+	final private DistanceMatrix distanceMatrix;
+	final private int[] last;
+	final private long[] cost;
+	private int[] stepVehicle;
+	private int[] stepFrom;
+	private int[] stepLocation;
+	private int stepCount;
+	private long totalCost;
+}
@@ -22,4 +22,19 @@ public interface Solver {
 	 * @return One or more routes.
 	 */
 	public Route[] run(int iterations);
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location added to the end of the previous one.
+	 * Any existing solver state should be kept, rather than restarting the search.
+	 * @param d The new distance matrix.
+	 */
+	public void locationAdded(DistanceMatrix d);
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location removed from the previous one.
+	 * The location which was previously last within the distance matrix has been moved into the removed index.
+	 * @param d The new distance matrix.
+	 * @param index Index of the removed location.
+	 */
+	public void locationRemoved(DistanceMatrix d, int index);
 }
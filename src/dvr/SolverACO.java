@@ -1,9 +1,21 @@
 package dvr;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A solver which uses Ant Colony Optimisation (ACO) to find routes.
+ * <p>
+ * Each step of an ant is a candidate-list roulette. Only the unvisited locations among the {@link #neighbourMax}
+ * nearest neighbours of the current location are weighted, and one is picked with a binary search over the running
+ * total of their weights. When every neighbour has been visited, the nearest remaining locations are found with a
+ * spatial grid and weighted the same way. So each step takes O(k) time for k candidates, whatever the number of
+ * locations.
+ * <p>
+ * A Fenwick tree over every remaining location is not used. The weights depend on the location the ant is at, so
+ * the tree would need rebuilding at every step in O(n) time. No single distribution lasts long enough to be updated.
  */
 public class SolverACO implements Solver {
 
@@ -27,184 +39,418 @@ public class SolverACO implements Solver {
 	/**
 	 * Calculate and return a route.
 	 * The returned route may not initially be optimal but should get better each run.
+	 * Ants are built in generations, with every ant of a generation built in parallel from the same
+	 * pheromone values. The deposits of each generation are then applied in ant order, so the result
+	 * does not depend on which thread built which ant.
 	 * @param iterations Number of attempts to find a better route.
 	 * @return One or more routes.
 	 */
 	public Route[] run(int iterations) {
-		final int lCount = distanceMatrix.size();
-		final int vCount = vehicleCapacity.length;
 
-		// Create a route list
-		Route[] routes = new Route[vCount];
-		for (int i=0; i<vCount; i++) {
-			routes[i] = new Route(distanceMatrix);
-		}
-		
-		// Create a list used to store the number of locations each
-		// vehicle has been to since its last stop at the depot
-		int[] locationsVisited = new int[vCount];
-		
-		// Create a list of parked vehicles
-		// When a vehicle returns to the depot it will remain parked until told otherwise
-		boolean[] parked = new boolean[vCount];
-		for (int v=0; v<vCount; v++) parked[v] = false;
+		// Get the ants, each with its own random number generator and buffers
+		final int antCount = Math.max(1, Math.min(antsPerGeneration, iterations));
+		final Ant[] ants = getAnts(antCount);
 		
 		// Define values to hold the best route found thus far
+		// Only the best trace is copied into a route list
 		Route[] bestRoute = null;
 		long bestCost = Long.MAX_VALUE;
 		
-		// Create list to contain the probability of visiting a specific location
-		float[] toVisitProbability = new float[lCount];
-
-		// Create a list to hold the locations yet to be visited
-		// The list is of the location indices
-		IntegerList toVisit = new IntegerList();
-		toVisit.reserve(lCount);
+		// Loop until the requested number of ants have been built
+		for (int it=0; it<iterations; it+=antCount) {
+			final int generation = Math.min(antCount, iterations - it);
+			
+			// Build the ants of this generation, in parallel if there is more than one
+			if (generation > 1) {
+				ForkJoinPool.commonPool().invoke(new AntTask(ants, 0, generation));
+			} else {
+				ants[0].build();
+			}
+			
+			// Apply the results of each ant in order
+			for (int i=0; i<generation; i++) {
+				RouteTrace trace = ants[i].trace;
+				
+				// Get the total travel distance of all vehicles
+				long totalCost = trace.getCost();
+				
+				// Update average route distance
+				if (costAverage == 0) {
+					costAverage = totalCost;
+				} else {
+					costAverage = ((costAverage * 99) + totalCost) / 100;
+				}
+				
+				// Update usage matrix
+				usage.evaporate(0.999f);
+				increase(trace, getDeposit(totalCost));
+	
+				// Check if route is acceptable
+				if (totalCost < bestCost) {
+					bestCost = totalCost;
+					if (bestRoute == null) bestRoute = createRouteList();
+					trace.fill(bestRoute);
+				}
+			}
+		}
+		
+		// Improve the best route list with a local search
+		// The improved route list then deposits as if it had been built by an ant
+		final LocalSearch ls = getLocalSearch();
+		if ((ls != null) && (bestRoute != null)) {
+			increase(bestRoute, getDeposit(ls.improve(bestRoute)));
+		}
 		
-		// Loop for the requested number of iterations
-		// A new route will be calculated on each iteration
-		for (int it=0; it<iterations; it++) {
-
-			// Fill the location list with all the location indices
-			toVisit.clear();
-			toVisit.reserve(lCount);
-			for (int i=1; i<lCount; i++) {
-				toVisit.push(i);
+		// Record route
+		return bestRoute;
+	}
+
+	/**
+	 * Get the amount a route list deposits along its path, using a score based on the average route distance.
+	 * @param totalCost Total cost of the route list.
+	 * @return The amount to deposit, which may be zero.
+	 */
+	private float getDeposit(long totalCost) {
+		final float score = (float)costAverage / (float)totalCost;
+		if (score >= 1.5f) return 50.0f;
+		if (score >= 1.2f) return 5.0f;
+		if (score >= 1.1f) return 1.0f;
+		if (score >= 1.0f) return 0.01f;
+		if (score >= 0.9f) return 0.001f;
+		return 0;
+	}
+
+	/**
+	 * Check if the solver improves its routes with a local search.
+	 * @return True if local search is used.
+	 */
+	public boolean isLocalSearch() {
+		return localSearchEnabled;
+	}
+
+	/**
+	 * Set if the solver improves its routes with a local search.
+	 * Must not be called while the solver is running.
+	 * @param enabled True to use local search.
+	 */
+	public void setLocalSearch(boolean enabled) {
+		localSearchEnabled = enabled;
+		localSearch = null;
+	}
+
+	/**
+	 * Get the local search used to improve routes.
+	 * The local search is only created when first needed, so copies of the solver which are never run
+	 * do not allocate its working arrays.
+	 * @return The local search, or null if local search is not used.
+	 */
+	protected LocalSearch getLocalSearch() {
+		if (localSearchEnabled && (localSearch == null)) {
+			localSearch = new LocalSearch(distanceMatrix, vehicleCapacity, neighbourList);
+		}
+		return localSearch;
+	}
+
+	/**
+	 * Get the number of ants built at once in each generation.
+	 * @return Number of ants per generation.
+	 */
+	public int getAntsPerGeneration() {
+		return antsPerGeneration;
+	}
+
+	/**
+	 * Set the number of ants built at once in each generation.
+	 * Values above one build the ants of each generation in parallel.
+	 * @param n Number of ants per generation.
+	 */
+	public void setAntsPerGeneration(int n) {
+		antsPerGeneration = Math.max(1, n);
+	}
+
+	/**
+	 * Get the ants used to build route lists, creating them if required.
+	 * The ants are kept between runs, and only created again when the number of ants or locations changes.
+	 * @param antCount Number of ants.
+	 * @return The ants.
+	 */
+	protected Ant[] getAnts(int antCount) {
+		if ((ants == null) || (ants.length != antCount)) {
+			ants = new Ant[antCount];
+			for (int i=0; i<antCount; i++) {
+				ants[i] = new Ant(new Random(rnd.nextLong()));
 			}
+		}
+		return ants;
+	}
+
+	/**
+	 * Create an empty route list, with one route per vehicle.
+	 * @return The route list.
+	 */
+	protected Route[] createRouteList() {
+		Route[] result = new Route[vehicleCapacity.length];
+		for (int v=0; v<result.length; v++) result[v] = new Route(distanceMatrix);
+		return result;
+	}
+
+	/**
+	 * Used to build complete route lists (ants). Each ant has its own random number generator
+	 * and buffers, and only reads the shared solver data, so many ants can be built at once.
+	 * Each route list is recorded as a trace, so building an ant allocates no memory.
+	 */
+	protected class Ant {
+		final Random rnd;
+		final int[] locationsVisited;
+		final VehicleDispatch dispatch;
+		final boolean[] visited;
+		final SpatialGrid remaining;
+		final int[] candidate;
+		final double[] candidateDistance;
+		final float[] cumulative;
+		final RouteTrace trace;
+
+		Ant(Random r) {
+			final int lCount = distanceMatrix.size();
+			final int vCount = vehicleCapacity.length;
+			rnd = r;
+
+			// Create a trace to record the route list
+			trace = new RouteTrace(distanceMatrix, vCount);
+			
+			// Create a list used to store the number of locations each
+			// vehicle has been to since its last stop at the depot
+			locationsVisited = new int[vCount];
+			
+			// Create the queue of vehicles waiting to be given a location
+			// When a vehicle returns to the depot it will remain parked until told otherwise
+			dispatch = new VehicleDispatch(vCount);
+			
+			// Create a list of the locations which have been visited,
+			// and a spatial grid holding the locations which have not
+			visited = new boolean[lCount];
+			remaining = new SpatialGrid(neighbourList.getGrid());
+			
+			// Create lists to hold the locations which may be picked next,
+			// their squared distances, and the running total of their probabilities
+			candidate = new int[neighbourMax];
+			candidateDistance = new double[neighbourMax];
+			cumulative = new float[neighbourMax];
+		}
+
+		/**
+		 * Build a new route list, replacing the previous one.
+		 */
+		void build() {
+			final int lCount = distanceMatrix.size();
+			final int vCount = vehicleCapacity.length;
+			final int[] neighbour = neighbourList.getBlock();
+			final int neighbourCount = neighbourList.getCount();
+
+			// Mark every location as yet to be visited, except the depot
+			Arrays.fill(visited, false);
+			visited[0] = true;
+			remaining.reset(neighbourList.getGrid());
+			remaining.remove(0);
+			int toVisit = lCount - 1;
 			
 			// Reset the route data
-			// Add the starting location (location index 0)
+			// Every vehicle starts at the starting location (location index 0)
+			trace.clear();
 			for (int v=0; v<vCount; v++) {
-				routes[v].clear();
-				routes[v].add(0);
 				locationsVisited[v] = 0;
 			}
 			
-			// Loop until location list is empty
-			int v = -1;
-			while (!toVisit.isEmpty()) {
-				
-				// Increment the vehicle index
-				// Check if the vehicle is parked
-				v = (v + 1) % vCount;
-				if (parked[v]) {
-
-					// Try to find an non-parked vehicle instead
-					int u = v;
-					do {
-						u = (u + 1) % vCount;
-						if (!parked[u]) {
-							v = u++; // Save v and set u to something else
-							break;
-						}
-					} while (u != v);
+			// Loop until every location has been visited
+			// Vehicles parked by the previous route list stay parked, and are resumed in index order
+			dispatch.restart();
+			while (toVisit > 0) {
 				
-					// Check if all vehicles are parked
-					if (u == v) {
-
-						// Find vehicle with shortest travel distance and resume that one
-						long t = Long.MAX_VALUE;
-						for (u=0; u<vCount; u++) {
-							if (t > routes[u].getCost()) {
-								t = routes[u].getCost();
-								v = u;
-							}
-						}
-						parked[v] = false;
-					}
-				}
+				// Take the next vehicle which is not parked
+				// If every vehicle is parked then the one with the shortest travel distance is resumed
+				final int v = dispatch.next();
 
-				// Get a shorthand reference to the route which will receive the next location
-				Route r = routes[v];
-				
-				// Get the last location visited by this route
-				int lastVisited = r.getLocationIndex(r.size() - 1);
+				// Get the last location visited by this vehicle
+				int lastVisited = trace.getLast(v);
 				
-				// Find the longest available distance
-				float maxDistance = 0;
-				for (int i=0; i<toVisit.size(); i++) {
-					maxDistance = Math.max(maxDistance, distanceMatrix.getDistance(lastVisited, toVisit.get(i)));
-				}
-
-				// Calculate the probability of visiting each remaining location
-				// Fill the probability list accordingly
+				// Calculate the probability of visiting each nearest neighbour which is yet to be visited
+				// The distance part comes from the precomputed heuristic table
+				// The running total of the probabilities is kept so one can be picked with a binary search
+				final int layer = getLayer(v);
 				float pTotal = 0;
-				for (int i=0; i<toVisit.size(); i++) {
-					float pDistance = 1.001f - (distanceMatrix.getDistance(lastVisited, toVisit.get(i)) / maxDistance);
-					float pUsage = Math.max(usage[v][lastVisited][toVisit.get(i)], 0.001f);
-					toVisitProbability[i] = pDistance + pUsage;
-					pTotal += toVisitProbability[i];
+				int candidates = 0;
+				for (int j=neighbourList.getOffset(lastVisited), jEnd=j+neighbourCount; j<jEnd; j++) {
+					int l = neighbour[j];
+					if (!visited[l]) {
+						pTotal += heuristic[j] + getUsage(layer, v, lastVisited, l);
+						candidate[candidates] = l;
+						cumulative[candidates++] = pTotal;
+					}
 				}
 				
-				// Pick a location
-				// Generate a random number and see where in the probability list it points too
-				pTotal *= rnd.nextFloat();
-				for (int i=toVisit.size()-1; i>=0; i--) {
-					if ((pTotal > toVisitProbability[i]) && (i > 0)) {
-						pTotal -= toVisitProbability[i];
-					} else {
-						
-						// Add location to route
-						r.add(toVisit.get(i));
-						toVisit.removeUnordered(i);
-						
-						// Check if the vehicle has visited the maximum number of locations
-						// If so then add a trip back to the depot
-						if (++locationsVisited[v] >= vehicleCapacity[v]) {
-							locationsVisited[v] = 0;
-							r.add(0);
-							parked[v] = true; // Park the vehicle for the moment
-						}
-						
-						// Break out of loop
-						break;
+				// If every neighbour has been visited then consider the nearest remaining locations
+				if (candidates == 0) {
+					Coordinate c = distanceMatrix.getLocation(lastVisited).coord;
+					candidates = remaining.nearest(c.x, c.y, -1, candidate.length, candidate, candidateDistance);
+					float maxDistance = 0;
+					for (int i=0; i<candidates; i++) {
+						maxDistance = Math.max(maxDistance, distanceMatrix.getDistance(lastVisited, candidate[i]));
 					}
+					for (int i=0; i<candidates; i++) {
+						float pDistance = 1.001f - (distanceMatrix.getDistance(lastVisited, candidate[i]) / maxDistance);
+						pTotal += pDistance + getUsage(layer, v, lastVisited, candidate[i]);
+						cumulative[i] = pTotal;
+					}
+				}
+				
+				// Pick a location from the candidate list
+				// Generate a random number and search for where in the running total it points to
+				int i = pick(cumulative, candidates, pTotal * rnd.nextFloat());
+				
+				// Add location to route
+				// Remove it from the locations yet to be visited
+				int l = candidate[i];
+				trace.add(v, l);
+				visited[l] = true;
+				remaining.remove(l);
+				toVisit--;
+				
+				// Check if the vehicle has visited the maximum number of locations
+				// If so then add a trip back to the depot
+				if (++locationsVisited[v] >= vehicleCapacity[v]) {
+					locationsVisited[v] = 0;
+					trace.add(v, 0);
+					dispatch.park(v, trace.getCost(v)); // Park the vehicle for the moment
+				} else {
+					dispatch.requeue(v);
 				}
 			}
 			
 			// Add a return trip to the depot for each vehicle not already there
-			for (v=0; v<vCount; v++) {
-				Route r = routes[v];
-				if (r.getLocationIndex(r.size() - 1) != 0) r.add(0);
+			for (int v=0; v<vCount; v++) {
+				if (trace.getLast(v) != 0) trace.add(v, 0);
 			}
-			
-			// Calculate the total travel distance of all vehicles
-			long totalCost = Route.getCost(routes);
-			
-			// Update average route distance
-			if (costAverage == 0) {
-				costAverage = totalCost;
-			} else {
-				costAverage = ((costAverage * 99) + totalCost) / 100;
+		}
+	}
+
+	/**
+	 * Get the usage part of the probability of travelling between two locations.
+	 * @param layer The usage matrix layer used by the vehicle.
+	 * @param v The vehicle index.
+	 * @param locationA The location the vehicle is at.
+	 * @param locationB The location the vehicle may travel to.
+	 * @return The usage value, never less than a small minimum.
+	 */
+	protected float getUsage(int layer, int v, int locationA, int locationB) {
+		float pUsage = usage.get(layer, locationA, locationB);
+		if (mode == PheromoneMode.SHARED_WITH_BIAS) pUsage += usage.getBias(v, locationB);
+		return Math.max(pUsage, 0.001f);
+	}
+
+	/**
+	 * Find the first entry of a running total which is greater than a value.
+	 * @param cumulative The running total.
+	 * @param count The number of entries in use.
+	 * @param value The value to search for.
+	 * @return Index of the entry, limited to the last entry.
+	 */
+	static private int pick(float[] cumulative, int count, float value) {
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] > value) high = mid; else low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Create the nearest neighbour list, along with the heuristic table which holds the distance part
+	 * of the probability of travelling from each location to each of its neighbours.
+	 * Distances are scaled by the furthest neighbour, so nearer neighbours are more likely to be picked.
+	 * The local search, if used, is recreated to use the new neighbour list when next needed.
+	 */
+	private void setupNeighbours() {
+		neighbourList = new NeighbourList(distanceMatrix, neighbourMax);
+		localSearch = null;
+		final int[] neighbour = neighbourList.getBlock();
+		final int count = neighbourList.getCount();
+		heuristic = new float[neighbour.length];
+		for (int a=0; a<neighbourList.size(); a++) {
+			final int offset = neighbourList.getOffset(a);
+			float maxDistance = 0;
+			for (int j=offset; j<offset+count; j++) {
+				maxDistance = Math.max(maxDistance, distanceMatrix.getDistance(a, neighbour[j]));
 			}
-			
-			
-			// Calculate score for this route
-			float score = (float)costAverage / (float)totalCost;
-
-			// Update usage matrix
-			reduce(0.999f);
-			if (score >= 1.5f) increase(routes, 50.0f); else
-			if (score >= 1.2f) increase(routes, 5.0f); else
-			if (score >= 1.1f) increase(routes, 1.0f); else
-			if (score >= 1.0f) increase(routes, 0.01f); else
-			if (score >= 0.9f) increase(routes, 0.001f);
-
-			// Check if route is acceptable
-			if (totalCost < bestCost) {
-				bestCost = totalCost;
-				if (bestRoute == null) {
-					bestRoute = Route.makeCopy(routes);
-				} else {
-					Route[] temp = bestRoute;
-					bestRoute = routes;
-					routes = temp;
-				}
+			for (int j=offset; j<offset+count; j++) {
+				heuristic[j] = 1.001f - ((maxDistance > 0) ? distanceMatrix.getDistance(a, neighbour[j]) / maxDistance : 0);
 			}
 		}
+	}
+
+	/**
+	 * Used to build a range of ants in parallel.
+	 */
+	@SuppressWarnings("serial")
+	protected class AntTask extends RecursiveAction {
+		private final Ant[] ants;
+		private final int first;
+		private final int end;
+
+		AntTask(Ant[] ants, int first, int end) {
+			this.ants = ants;
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if ((end - first) == 1) {
+				ants[first].build();
+			} else {
+				int mid = (first + end) >>> 1;
+				invokeAll(new AntTask(ants, first, mid), new AntTask(ants, mid, end));
+			}
+		}
+	}
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location added to the end of the previous one.
+	 * The usage matrix keeps spare capacity, so it only needs to be reallocated when the capacity doubles.
+	 * @param d The new distance matrix.
+	 */
+	public void locationAdded(DistanceMatrix d) {
+		final int n = d.size();
+		assert n == size + 1;
+		distanceMatrix = d;
 		
-		// Record route
-		return bestRoute;
+		// Grow the usage matrix if required
+		// Cells beyond the current size are always zero, so the new location starts with no usage
+		if (n > usage.getCapacity()) {
+			usage = usage.resize(Math.max(n, usage.getCapacity() * 2), size);
+		}
+		size = n;
+		setupNeighbours();
+		ants = null;
+	}
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location removed from the previous one.
+	 * The usage of the moved location is copied into the removed index, taking O(n) time per layer for a dense matrix.
+	 * @param d The new distance matrix.
+	 * @param index Index of the removed location.
+	 */
+	public void locationRemoved(DistanceMatrix d, int index) {
+		final int last = d.size();
+		assert last == size - 1;
+		assert (0 < index) && (index <= last);
+		distanceMatrix = d;
+		
+		// Move the usage of the last location, clearing its old row and column so that a new location starts with no usage
+		usage.moveLocation(last, index, size);
+		size = last;
+		setupNeighbours();
+		ants = null;
 	}
 
 	/**
@@ -222,31 +468,31 @@ public class SolverACO implements Solver {
 	 */
 	public void increase(Route[] route, float amount) {
 		assert route.length == vehicleCapacity.length;
+		if (amount == 0) return;
 		for (int v=0; v<route.length; v++) {
 			Route r = route[v];
 			for (int i=1; i<r.size(); i++) {
 				int a = r.getLocationIndex(i - 1);
 				int b = r.getLocationIndex(i);
-				usage[v][a][b] += amount;
-				if (usageMax < usage[v][a][b]) usageMax = usage[v][a][b];
+				usage.add(getLayer(v), a, b, amount);
+				if (mode == PheromoneMode.SHARED_WITH_BIAS) usage.addBias(v, b, amount * biasWeight);
 			}
 		}
 	}
-	
+
 	/**
-	 * Reduce values within the path-usage matrix.
-	 * @param multiplier Each value is multiplied by this amount.
-	 */
-	private void reduce(float multiplier) {
-		usageMax = usageMaxSmallest;
-		for (int v=0; v<vehicleCapacity.length; v++) {
-			for (int a=0; a<size; a++) {
-				for (int b=0; b<size; b++) {
-					float u = usage[v][a][b] * multiplier;
-					usage[v][a][b] = u;
-					if (usageMax < u) usageMax = u;
-				}
-			}
+	 * Use a trace to increase usage values on a certain path by a certain amount.
+	 * @param trace The trace which defines the path.
+	 * @param amount The amount to increase each value along the length of the path.
+	 */
+	public void increase(RouteTrace trace, float amount) {
+		assert trace.getVehicleCount() == vehicleCapacity.length;
+		if (amount == 0) return;
+		for (int i=0; i<trace.size(); i++) {
+			int v = trace.getStepVehicle(i);
+			int b = trace.getStepLocation(i);
+			usage.add(getLayer(v), trace.getStepFrom(i), b, amount);
+			if (mode == PheromoneMode.SHARED_WITH_BIAS) usage.addBias(v, b, amount * biasWeight);
 		}
 	}
 
@@ -266,93 +512,143 @@ public class SolverACO implements Solver {
 	 */
 	public float getMaxUsage(int locationA, int locationB) {
 		float result = 0;
-		for (int v=0; v<vehicleCapacity.length; v++) {
-			if (result < usage[v][locationA][locationB]) result = usage[v][locationA][locationB];
-			if (result < usage[v][locationB][locationA]) result = usage[v][locationB][locationA];
+		for (int layer=0; layer<usage.getLayers(); layer++) {
+			result = Math.max(result, usage.get(layer, locationA, locationB));
+			result = Math.max(result, usage.get(layer, locationB, locationA));
 		}
 		return result;
 	}
 	
+	/**
+	 * Visit every stored usage value between locations in use.
+	 * Paths which still have the default value may be skipped, which is the case for most paths in a large problem.
+	 * @param visitor Called once for each path.
+	 */
+	public void forEachUsage(PheromoneStore.PathVisitor visitor) {
+		usage.forEach(size, visitor);
+	}
+
 	/**
 	 * Get the highest usage value contained within the matrix.
 	 * @return The highest single usage value.
 	 */
 	public float getMaxUsage() {
-		return usageMax;
+		return Math.max(usage.getMax(), usageMaxSmallest);
+	}
+
+	/**
+	 * Get the way pheromone values are stored.
+	 * @return The pheromone mode.
+	 */
+	public PheromoneMode getPheromoneMode() {
+		return mode;
+	}
+
+	/**
+	 * Get the pheromone matrix layer used by a vehicle.
+	 * @param v The vehicle index.
+	 * @return The layer index.
+	 */
+	private int getLayer(int v) {
+		return (mode == PheromoneMode.PER_VEHICLE) ? v : 0;
 	}
 
 	/**
 	 * Solver constructor.
+	 * Each vehicle has its own pheromone matrix. The shared modes, which use less memory with large fleets,
+	 * must be asked for with the constructor which takes a pheromone mode.
 	 * @param d Distance matrix used to initialise the solver.
 	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
 	 */
 	public SolverACO(DistanceMatrix d, int[] vehicleCapacity) {
+		this(d, vehicleCapacity, PheromoneMode.PER_VEHICLE);
+	}
+
+	/**
+	 * Solver constructor.
+	 * @param d Distance matrix used to initialise the solver.
+	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
+	 * @param mode The way pheromone values are stored.
+	 */
+	public SolverACO(DistanceMatrix d, int[] vehicleCapacity, PheromoneMode mode) {
 		assert d != null;
 		assert d.size() > 0;
 		
 		// Record the size of the matrix
 		distanceMatrix = d;
+		setupNeighbours();
 		
 		// Setup general values
 		size = d.size();
-		usageMax = usageMaxSmallest;
 		costAverage = 0;
 		this.vehicleCapacity = (vehicleCapacity != null) ? vehicleCapacity : new int[]{Integer.MAX_VALUE};
+		setLocalSearch(true);
 
-		// Create a new random number generator
+		// Create a new random number generator, used to seed the generator of each ant
 		rnd = new Random();
 		rnd.nextFloat(); // Run once
+		antsPerGeneration = Runtime.getRuntime().availableProcessors();
 		
-		// Create a new array for the path-usage matrix
-		// Only the top half of the matrix is used
-		usage = new float[this.vehicleCapacity.length][size][size];
-		for (int v=0; v<this.vehicleCapacity.length; v++) {
-			for (int x=0; x<size; x++) {
-				for (int y=0; y<size; y++) {
-					usage[v][x][y] = 0;
-				}
-			}
-		}
+		// Create the path-usage matrix, with one layer per vehicle unless the layer is shared
+		final int vCount = this.vehicleCapacity.length;
+		this.mode = mode;
+		usage = PheromoneStore.create(
+			(mode == PheromoneMode.PER_VEHICLE) ? vCount : 1,
+			size,
+			(mode == PheromoneMode.SHARED_WITH_BIAS) ? vCount : 0);
 	}
 
 	/**
 	 * Copy constructor.
+	 * The neighbour list and heuristic table are never changed once built, so they are shared with the source.
 	 */
 	public SolverACO(SolverACO src) {
 		assert src != null;
 		
 		// Record the size of the matrix
 		distanceMatrix = src.distanceMatrix;
+		neighbourList = src.neighbourList;
+		heuristic = src.heuristic;
 		
 		// Setup general values
 		size = src.size;
-		usageMax = src.usageMax;
 		costAverage = src.costAverage;
 		vehicleCapacity = src.vehicleCapacity;
+		mode = src.mode;
+		setLocalSearch(src.isLocalSearch());
 
-		// Create a new random number generator
+		// Create a new random number generator, used to seed the generator of each ant
 		rnd = new Random();
 		rnd.nextFloat(); // Run once
+		antsPerGeneration = src.antsPerGeneration;
 		
-		// Create a new array for the path-usage matrix
-		// Only the top half of the matrix is used
-		usage = new float[vehicleCapacity.length][size][size];
-		for (int v=0; v<this.vehicleCapacity.length; v++) {
-			for (int x=0; x<size; x++) {
-				for (int y=0; y<size; y++) {
-					usage[v][x][y] = src.usage[v][x][y];
-				}
-			}
-		}
+		// Copy the path-usage matrix
+		usage = src.usage.copy();
 	}
 	
 	static final private float usageMaxSmallest = 0.001f;
 	
-	final private DistanceMatrix distanceMatrix;
-	final private int size;
+	/**
+	 * The fraction of each deposit which is added to the bias vector of the vehicle.
+	 */
+	static final public float biasWeight = 0.1f;
+	
+	/**
+	 * The number of nearest neighbours considered when picking the next location.
+	 */
+	static final public int neighbourMax = 16;
+	
+	private DistanceMatrix distanceMatrix;
+	private NeighbourList neighbourList;
+	private float[] heuristic;
+	private int size;
 	final private int[] vehicleCapacity;
-	private float[][][] usage;
-	private float usageMax;
-	private Random rnd;
-	private long costAverage;
+	final private PheromoneMode mode;
+	protected PheromoneStore usage;
+	protected Random rnd;
+	private int antsPerGeneration;
+	private Ant[] ants;
+	private boolean localSearchEnabled;
+	private LocalSearch localSearch;
+	protected long costAverage;
 }
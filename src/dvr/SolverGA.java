@@ -1,21 +1,43 @@
 package dvr;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A solver which uses Genetic Algorithm (GA) to find routes.
+ * The population is split into islands which evolve in parallel. Every few generations each island passes a copy
+ * of its best genome to the next island around a ring, which spreads good genomes while keeping the islands diverse.
  */
 public class SolverGA implements Solver {
 
 	/**
-	 * The number of parent genomes which are stored between runs.
+	 * Default number of parent genomes which each island stores between runs.
 	 */
-	static final public int parentMax = 2;
+	static final public int parentCountDefault = 2;
 	
 	/**
-	 * Number of candidate genomes to generate when performing a run.
+	 * Default number of candidate genomes each island generates per generation.
 	 */
-	static final public int newCandidateCount = 20;
+	static final public int candidateCountDefault = 20;
+	
+	/**
+	 * Default number of generations between each exchange of genomes between islands.
+	 */
+	static final public int migrationIntervalDefault = 2;
+	
+	/**
+	 * Default number of decoders given to each island, which cost its children in parallel.
+	 * The default island count shares the available processors between this many decoders per island.
+	 */
+	static final public int decoderCountDefault = 2;
+	
+	/**
+	 * Number of genome costs each island remembers, so that repeated genomes are not decoded again.
+	 */
+	static final public int cacheSize = 1 << 12;
 
 	/**
 	 * Get the type of solver.
@@ -37,327 +59,924 @@ public class SolverGA implements Solver {
 	/**
 	 * Calculate and return a route.
 	 * The returned route may not initially be optimal but should get better each run.
-	 * @param iterations Number of attempts to find a better route.
-	 * @return A calculated route.
+	 * Every island runs in parallel, exchanging its best genome with its neighbours every migration interval.
+	 * @param iterations Number of generations each island runs.
+	 * @return The best route found by any island.
 	 */
 	public Route[] run(int iterations) {
-		final int vMax = vehicleCapacity.length;
-
-		// Get total number of candidates
-		final int candidates = newCandidateCount + parentMax;
+		final long startTime = System.nanoTime();
 		
-		// Create list to hold candidate genomes and routes
-		IntegerList[] candidateGenome = new IntegerList[candidates];
-		Route[][] candidateRoute = new Route[candidates][vMax];
+		// Clear any migrants left from a previous run
+		for (int i=0; i<island.length; i++) migration.set(i, null);
 
-		// Check if the first two parents are identical
-		// If so replace one parent with a random genome
-		// If there are more than two parents then ignore the rest
-		if (parentGenome[0].isEqual(parentGenome[1])) {
-			parentGenome[0] = generateRandom();
-			parentRoute[0] = decode(parentGenome[0]);
+		// Run the islands, in parallel if there is more than one
+		if (island.length > 1) {
+			ForkJoinPool.commonPool().invoke(new IslandTask(0, island.length, iterations));
+		} else {
+			island[0].run(iterations);
 		}
+		runTime += System.nanoTime() - startTime;
 		
-		// Loop for the requested number of iterations
-		// A new route will be calculated on each iteration
-		for (int it=0; it<iterations; it++) {
-
-			// Generate and store new candidate genomes and routes
-			for (int c=0; c<newCandidateCount; c++) {
-				candidateGenome[c] = generateChild(parentGenome[c % parentMax], parentGenome[(c + 1) % parentMax]);
-				candidateRoute[c] = decode(candidateGenome[c]);
+		// Search the islands and return a copy of the best parent route
+		// The routes of each island are reused by the next run, so they cannot be returned directly
+		Island best = island[0];
+		for (int i=1; i<island.length; i++) {
+			if (best.getBestCost() > island[i].getBestCost()) best = island[i];
+		}
+		return Route.makeCopy(best.getBestRoute());
+	}
+
+	/**
+	 * Get the number of islands, each of which holds its own population.
+	 * @return Number of islands.
+	 */
+	public int getIslandCount() {
+		return island.length;
+	}
+
+	/**
+	 * Get the number of decoders each island uses to cost its children.
+	 * @return Number of decoders.
+	 */
+	public int getDecoderCount() {
+		return decoderCount;
+	}
+
+	/**
+	 * Get the number of parent genomes which each island stores between runs.
+	 * @return Number of parents.
+	 */
+	public int getParentCount() {
+		return parentCount;
+	}
+
+	/**
+	 * Get the number of candidate genomes each island generates per generation.
+	 * @return Number of candidates.
+	 */
+	public int getCandidateCount() {
+		return candidateCount;
+	}
+
+	/**
+	 * Get the fraction of candidate genomes whose cost was found within the cost cache, rather than being decoded.
+	 * @return Cache hit rate, between 0 and 1.
+	 */
+	public double getCacheHitRate() {
+		long lookups = 0;
+		long hits = 0;
+		for (Island is : island) {
+			lookups += is.cache.getLookups();
+			hits += is.cache.getHits();
+		}
+		return (lookups > 0) ? ((double)hits / lookups) : 0;
+	}
+
+	/**
+	 * Get the number of candidate genomes evaluated per second of run time, over every island.
+	 * Candidates whose cost was found within the cost cache are included.
+	 * @return Evaluations per second.
+	 */
+	public double getEvaluationsPerSecond() {
+		long evaluations = 0;
+		for (Island is : island) evaluations += is.evaluations;
+		return (runTime > 0) ? (evaluations * 1e9 / runTime) : 0;
+	}
+
+	/**
+	 * Get the number of generations between each exchange of genomes.
+	 * @return Migration interval.
+	 */
+	public int getMigrationInterval() {
+		return migrationInterval;
+	}
+
+	/**
+	 * Set the number of generations between each exchange of genomes.
+	 * @param n Migration interval.
+	 */
+	public void setMigrationInterval(int n) {
+		migrationInterval = Math.max(1, n);
+	}
+	
+	/**
+	 * Move the solver onto a new distance matrix, which has a location added to the end of the previous one.
+	 * The new location is inserted into each parent genome where it adds the least distance.
+	 * @param d The new distance matrix.
+	 */
+	public void locationAdded(DistanceMatrix d) {
+		assert d.size() == distanceMatrix.size() + 1;
+		distanceMatrix = d;
+		for (Island is : island) is.locationAdded();
+		if (neighbourList != null) setLocalSearch(true);
+	}
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location removed from the previous one.
+	 * The location is removed from each parent genome, and the moved location is renamed.
+	 * @param d The new distance matrix.
+	 * @param index Index of the removed location.
+	 */
+	public void locationRemoved(DistanceMatrix d, int index) {
+		assert d.size() == distanceMatrix.size() - 1;
+		distanceMatrix = d;
+		for (Island is : island) is.locationRemoved(index);
+		if (neighbourList != null) setLocalSearch(true);
+	}
+
+	/**
+	 * Check if the solver improves its genomes with a local search.
+	 * @return True if local search is used.
+	 */
+	public boolean isLocalSearch() {
+		return neighbourList != null;
+	}
+
+	/**
+	 * Set if the solver improves its genomes with a local search.
+	 * At the end of each run every island improves the route list of its best genome, then joins the trips of
+	 * the improved route list back into a genome. Must not be called while the solver is running.
+	 * @param enabled True to use local search.
+	 */
+	public void setLocalSearch(boolean enabled) {
+		neighbourList = enabled ? new NeighbourList(distanceMatrix, LocalSearch.neighbourCountDefault) : null;
+		for (Island is : island) is.localSearch = null;
+	}
+
+	/**
+	 * A single population, which evolves separately from the other islands apart from migration.
+	 * Each island has its own random number generator, so many islands can run at once.
+	 * <p>
+	 * Genomes are held within a fixed pool of integer arrays.
+	 * The pool order lists the slots with the parents first, so selecting new parents only moves slot indices,
+	 * and new children are written over the slots which were not selected. A generation allocates no memory.
+	 * <p>
+	 * Each genome has a Zobrist hash, being the XOR of a random value for each location at each position.
+	 * The hash is built while a child is written, and each mutation swap updates it in O(1) time.
+	 * Children whose hash is within the cost cache take the cached cost, and the remaining children are costed
+	 * in parallel when the island has more than one decoder.
+	 * <p>
+	 * Only the cost of each genome is calculated. A single route list is kept per island, and it is only filled
+	 * when the best genome is requested and has changed since the route list was last filled.
+	 */
+	private class Island {
+		final int index;
+		final Random rnd;
+		final int[] order;
+		final long[] cost;
+		final long[] hash;
+		Route[] bestRoute;
+		final Decoder[] decoder;
+		final int[] pending;
+		final CostCache cache;
+		LocalSearch localSearch;
+		int[][] genome;
+		int[] prefixMark;
+		int[] missed;
+		int mark;
+		int generation;
+		int routeSlot;
+		long evaluations;
+
+		Island(int index, Random r) {
+			this.index = index;
+			rnd = r;
+			order = new int[poolSize];
+			cost = new long[poolSize];
+			hash = new long[poolSize];
+			decoder = createDecoders();
+			pending = new int[candidateCount];
+			cache = new CostCache(cacheSize);
+			genome = new int[poolSize][];
+			for (int i=0; i<poolSize; i++) order[i] = i;
+			allocate();
+			for (int p=0; p<parentCount; p++) {
+				generateRandom(rnd, genome[p]);
+				hash[p] = getHash(genome[p]);
+				evaluate(p);
 			}
-		
-			// Add parent genomes to candidate list
-			for (int p=0; p<parentMax; p++) {
-				candidateGenome[newCandidateCount + p] = parentGenome[p];
-				candidateRoute[newCandidateCount + p] = parentRoute[p];
+			select(parentCount);
+		}
+
+		Island(Island src, Random r) {
+			index = src.index;
+			rnd = r;
+			order = src.order.clone();
+			cost = src.cost.clone();
+			hash = src.hash.clone();
+			bestRoute = Route.makeCopy(src.bestRoute);
+			routeSlot = src.routeSlot;
+			decoder = createDecoders();
+			pending = new int[candidateCount];
+			cache = new CostCache(src.cache);
+			genome = new int[poolSize][];
+			for (int i=0; i<poolSize; i++) genome[i] = src.genome[i].clone();
+			prefixMark = new int[src.prefixMark.length];
+			missed = new int[src.missed.length];
+			for (Decoder d : decoder) d.allocate(missed.length);
+			mark = 0;
+			generation = src.generation;
+			evaluations = src.evaluations;
+		}
+
+		/**
+		 * Run the requested number of generations.
+		 */
+		void run(int iterations) {
+
+			// Check if the first two parents are identical
+			// If so replace one parent with a random genome
+			// If there are more than two parents then ignore the rest
+			if (isEqual(order[0], order[1])) {
+				final int p = order[0];
+				routeSlot = -1;
+				generateRandom(rnd, genome[p]);
+				hash[p] = getHash(genome[p]);
+				evaluate(p);
+				select(parentCount);
 			}
 
-			//for (int c=0; c<candidate.length; c++) System.out.println("  Candidate["+c+"]: "+candidate[c]);
+			// Loop for the requested number of iterations
+			// A new route will be calculated on each iteration
+			for (int it=0; it<iterations; it++) {
+
+				// Generate new candidate genomes, writing over the slots which are not parents
+				// Children are generated in turn, as they share the random number generator of the island
+				// Any child whose cost is within the cache takes the cached cost
+				int pendingCount = 0;
+				for (int c=0; c<candidateCount; c++) {
+					final int slot = order[parentCount + c];
+					generateChild(order[c % parentCount], order[(c + 1) % parentCount], slot);
+					final long known = cache.get(hash[slot]);
+					if (known >= 0) {
+						cost[slot] = known;
+					} else {
+						pending[pendingCount++] = slot;
+					}
+				}
+				evaluations += candidateCount;
+
+				// Cost the remaining children, in parallel if there is more than one decoder
+				if ((decoder.length > 1) && (pendingCount > 1)) {
+					ForkJoinPool.commonPool().invoke(new EvaluateTask(this, pendingCount, 0, decoder.length));
+				} else {
+					evaluate(decoder[0], 0, pendingCount);
+				}
+				for (int i=0; i<pendingCount; i++) cache.put(hash[pending[i]], cost[pending[i]]);
+
+				// Record the candidates with the best cost as the new parents
+				// The old parents are also candidates, so the best genome is never lost
+				select(poolSize);
+
+				// Exchange genomes with the neighbouring islands
+				// The generation count is kept between runs, as each run may be shorter than the migration interval
+				if ((island.length > 1) && ((++generation % migrationInterval) == 0)) migrate();
+			}
 			
-			// Loop through candidate list and find those with the best cost
-			// Record the best candidates within parent list (they become the new parents)
-			for (int p=0; p<parentMax; p++) {
-				
-				// Loop through all candidates
-				// Record one with the best score
-				// Skip any candidates which are null (have already been selected)
-				int bestCandidate = p;
+			// Improve the best genome, if local search is used
+			if (neighbourList != null) improveBest();
+		}
+
+		/**
+		 * Improve the route list of the best genome with a local search, then join the trips of the improved
+		 * route list into a giant tour which replaces the best genome.
+		 * The best split of the giant tour is never worse than the improved route list, so the best cost never rises.
+		 */
+		void improveBest() {
+			final Route[] r = getBestRoute();
+			if (localSearch == null) localSearch = createLocalSearch();
+			localSearch.improve(r);
+			final int slot = order[0];
+			final int[] g = genome[slot];
+			int count = 0;
+			for (Route x : r) {
+				for (int i=0; i<x.size(); i++) {
+					final int l = x.getLocationIndex(i);
+					if (l != 0) g[count++] = l;
+				}
+			}
+			assert count == g.length;
+			routeSlot = -1;
+			hash[slot] = getHash(g);
+			evaluate(slot);
+			select(parentCount);
+		}
+
+		/**
+		 * Move the cheapest slots to the front of the pool order, in order of cost.
+		 * @param end Number of slots at the front of the pool order to choose from.
+		 */
+		void select(int end) {
+			for (int p=0; p<parentCount; p++) {
+				int best = p;
+				for (int c=p+1; c<end; c++) {
+					if (cost[order[best]] > cost[order[c]]) best = c;
+				}
+				int temp = order[p];
+				order[p] = order[best];
+				order[best] = temp;
+			}
+		}
+
+		/**
+		 * Cost the genome within a slot using the first decoder, and record its cost within the cache.
+		 */
+		void evaluate(int slot) {
+			cost[slot] = decoder[0].getCost(genome[slot]);
+			cache.put(hash[slot], cost[slot]);
+		}
+
+		/**
+		 * Cost a range of the pending slots.
+		 * @param d The decoder to use.
+		 * @param first Index of the first pending slot.
+		 * @param end Index after the last pending slot.
+		 */
+		void evaluate(Decoder d, int first, int end) {
+			for (int i=first; i<end; i++) {
+				final int slot = pending[i];
+				cost[slot] = d.getCost(genome[slot]);
+			}
+		}
+
+		/**
+		 * Check if the genomes within two slots are identical, comparing the hashes first.
+		 */
+		boolean isEqual(int slotA, int slotB) {
+			return (hash[slotA] == hash[slotB]) && Arrays.equals(genome[slotA], genome[slotB]);
+		}
+
+		/**
+		 * Generate a child genome using two parent genomes, taking O(n) time.
+		 * The child consists of parent-A up to a random crossover point, then parent-B from the crossover onwards.
+		 * Locations from parent-B which are already within the child are replaced with locations which have been
+		 * missed (not in the first part of parent-A, or the second part of parent-B).
+		 * The hash of the child is built as it is written.
+		 * @param slotA Slot holding a parent genome.
+		 * @param slotB Slot holding a parent genome.
+		 * @param slot Slot which receives the child genome.
+		 */
+		void generateChild(int slotA, int slotB, int slot) {
+			final int[] parentA = genome[slotA];
+			final int[] parentB = genome[slotB];
+			final int[] child = genome[slot];
+			final int n = child.length;
+			if (slot == routeSlot) routeSlot = -1;
+
+			// Stupidity check
+			assert (parentA.length == n) && (parentB.length == n);
+
+			// Genomes with less than two locations cannot be crossed or mutated
+			if (n < 2) {
+				System.arraycopy(parentA, 0, child, 0, n);
+				hash[slot] = hash[slotA];
+				return;
+			}
+
+			// Calculate crossover point for genome
+			// Copy values from parent-A, up to crossover point, marking each location as used
+			final int c = 1 + rnd.nextInt(n - 1);
+			final int used = nextMarks();
+			final int inSuffix = used + 1;
+			long h = 0;
+			for (int g=0; g<c; g++) {
+				final int l = parentA[g];
+				child[g] = l;
+				prefixMark[l] = used;
+				h ^= getHash(g, l);
+			}
+
+			// Find the missed locations
+			// These are the locations from parent-A after the crossover point which are not in parent-B after it
+			for (int g=c; g<n; g++) {
+				if (prefixMark[parentB[g]] != used) prefixMark[parentB[g]] = inSuffix;
+			}
+			int missedCount = 0;
+			for (int g=c; g<n; g++) {
+				int l = parentA[g];
+				if (prefixMark[l] != inSuffix) missed[missedCount++] = l;
+			}
+
+			// Copy values from parent-B, from crossover point onwards
+			// Replace any which were already used with missed locations
+			for (int g=c; g<n; g++) {
+				int l = parentB[g];
+				if (prefixMark[l] != inSuffix) l = missed[--missedCount];
+				child[g] = l;
+				h ^= getHash(g, l);
+			}
+			assert missedCount == 0;
+
+			// Mutate the list, if required
+			float mutateThreshold = (isEqual(slotA, slotB) ? 1.0f : 0.01f);
+			while (rnd.nextFloat() < mutateThreshold) {
+				mutateThreshold *= 0.8f;
+
+				// Swap two random locations within the list
+				// Swapping back the two old hash values and swapping in the new ones updates the hash
+				int indexA = rnd.nextInt(n);
+				int indexB = rnd.nextInt(n);
+				int locationA = child[indexA];
+				int locationB = child[indexB];
+				if (indexA == indexB) continue;
+				h ^= getHash(indexA, locationA) ^ getHash(indexB, locationB) ^ getHash(indexA, locationB) ^ getHash(indexB, locationA);
+				child[indexA] = locationB;
+				child[indexB] = locationA;
+			}
+			hash[slot] = h;
+			assert h == getHash(child);
+		}
+
+		/**
+		 * Get two new mark values, used to flag locations without clearing the mark array.
+		 * @return The first mark value. The second is one higher.
+		 */
+		int nextMarks() {
+			if (mark >= Integer.MAX_VALUE - 2) {
+				Arrays.fill(prefixMark, 0);
+				mark = 0;
+			}
+			mark += 2;
+			return mark - 1;
+		}
+
+		/**
+		 * Publish a copy of the best parent genome for the next island, and take the genome published by the previous island.
+		 * The taken genome replaces the worst parent if it has a lower cost and is not already a parent.
+		 * Slots are exchanged atomically, so islands never wait for each other.
+		 */
+		void migrate() {
+			migration.set(index, genome[order[0]].clone());
+			int[] migrant = migration.getAndSet((index + island.length - 1) % island.length, null);
+			if (migrant == null) return;
+			assert migrant.length == genome[order[0]].length;
+
+			// Copy the migrant into the first slot which is not a parent
+			final int slot = order[parentCount];
+			if (slot == routeSlot) routeSlot = -1;
+			System.arraycopy(migrant, 0, genome[slot], 0, migrant.length);
+			hash[slot] = getHash(genome[slot]);
+			for (int p=0; p<parentCount; p++) {
+				if (isEqual(order[p], slot)) return;
+			}
+
+			// Cost the migrant, unless its cost is already known
+			// If it is better than the worst parent then swap the two slots
+			final long known = cache.get(hash[slot]);
+			if (known >= 0) {
+				cost[slot] = known;
+			} else {
+				evaluate(slot);
+			}
+			if (cost[slot] < cost[order[parentCount - 1]]) {
+				order[parentCount] = order[parentCount - 1];
+				order[parentCount - 1] = slot;
+				select(parentCount);
+			}
+		}
+
+		/**
+		 * Get the cost of the best parent.
+		 */
+		long getBestCost() {
+			return cost[order[0]];
+		}
+
+		/**
+		 * Get the route list of the parent with the lowest cost, filling it if the best parent has changed.
+		 * The decoded cost only differs from the recorded cost after a hash collision within the cost cache,
+		 * in which case the parents are sorted again.
+		 */
+		Route[] getBestRoute() {
+			while (routeSlot != order[0]) {
+				routeSlot = order[0];
+				final long decoded = decoder[0].decode(genome[routeSlot], bestRoute);
+				if (decoded != cost[routeSlot]) {
+					cost[routeSlot] = decoded;
+					select(parentCount);
+				}
+			}
+			return bestRoute;
+		}
+
+		/**
+		 * Insert the new location into each parent genome where it adds the least distance.
+		 */
+		void locationAdded() {
+			final int l = distanceMatrix.size() - 1;
+			for (int p=0; p<parentCount; p++) {
+				final int[] g = genome[order[p]];
+
+				// Find the cheapest place to insert the location
+				// The genome is treated as a single tour which starts and ends at the depot
+				int bestIndex = 0;
 				long bestCost = Long.MAX_VALUE;
-				for (int c=p+1; c<candidates; c++) {
-					if (candidateRoute[c] != null) {
-						long cost = Route.getCost(candidateRoute[c]);
-						if (bestCost > cost) {
-							bestCost = cost;
-							bestCandidate = c;
-						}
+				for (int i=0; i<=g.length; i++) {
+					int prev = (i > 0) ? g[i - 1] : 0;
+					int next = (i < g.length) ? g[i] : 0;
+					long cost =
+						distanceMatrix.getDistance(prev, l) +
+						distanceMatrix.getDistance(l, next) -
+						distanceMatrix.getDistance(prev, next);
+					if (bestCost > cost) {
+						bestCost = cost;
+						bestIndex = i;
 					}
 				}
-				
-				// Record best candidate within parent list
-				// Null the candidate so that it is not selected again
-				parentGenome[p] = candidateGenome[bestCandidate];
-				parentRoute[p] = candidateRoute[bestCandidate];
-				candidateGenome[bestCandidate] = null;
-				candidateRoute[bestCandidate] = null;
-				//System.out.println("  Parent["+p+"]: "+parent[p]);
+
+				// Insert the location into a larger genome
+				final int[] temp = new int[g.length + 1];
+				System.arraycopy(g, 0, temp, 0, bestIndex);
+				temp[bestIndex] = l;
+				System.arraycopy(g, bestIndex, temp, bestIndex + 1, g.length - bestIndex);
+				genome[order[p]] = temp;
 			}
+			allocate();
+			updateParents();
 		}
-		
-		// Search the parent list and return the best one
-		// Return best parent route
-		int bestParent = 0;
-		long bestCost = Long.MAX_VALUE;
-		for (int p=1; p<parentMax; p++) {
-			long cost = Route.getCost(parentRoute[p]);
-			if (bestCost > cost) {
-				bestCost = cost;
-				bestParent = p;
+
+		/**
+		 * Remove the location from each parent genome, and rename the moved location.
+		 */
+		void locationRemoved(int index) {
+			final int moved = distanceMatrix.size();
+			for (int p=0; p<parentCount; p++) {
+				final int[] g = genome[order[p]];
+				final int[] temp = new int[g.length - 1];
+				int j = 0;
+				for (int l : g) {
+					if (l != index) temp[j++] = (l == moved) ? index : l;
+				}
+				genome[order[p]] = temp;
+			}
+			allocate();
+			updateParents();
+		}
+
+		/**
+		 * Decode the parent genomes after the locations have changed.
+		 */
+		void updateParents() {
+			for (int p=0; p<parentCount; p++) {
+				final int slot = order[p];
+				hash[slot] = getHash(genome[slot]);
+				evaluate(slot);
+			}
+			select(parentCount);
+		}
+
+		/**
+		 * Create genome arrays, buffers, and the best route list to suit the distance matrix.
+		 * Parent genomes which already have the correct size are kept.
+		 * The cost cache is cleared, as the cost of every genome may have changed.
+		 */
+		void allocate() {
+			final int n = distanceMatrix.size() - 1;
+			for (int i=0; i<poolSize; i++) {
+				if ((genome[order[i]] == null) || (i >= parentCount)) genome[order[i]] = new int[n];
 			}
+			prefixMark = new int[n + 1];
+			missed = new int[n];
+			for (Decoder d : decoder) d.allocate(n);
+			bestRoute = createRouteList();
+			cache.clear();
+			routeSlot = -1;
+			mark = 0;
 		}
-		return parentRoute[bestParent];
 	}
-	
+
 	/**
-	 * Generate a child genome using two parent genomes.
-	 * @param parentA A parent genome.
-	 * @param parentB A parent genome.
-	 * @return A newly generated genome.
+	 * Holds the buffers used to decode genomes, so that several genomes from one island can be decoded at once.
+	 * This is package-private so that the split can be checked by the tests.
 	 */
-	private IntegerList generateChild(IntegerList parentA, IntegerList parentB) {
+	class Decoder {
+		final VehicleDispatch dispatch;
+		final int[] held;
+		long[] splitCost;
+		long[] splitPotential;
+		int[] splitQueue;
+		int[] splitPred;
+		int[] tripEnd;
 
-		// Get number of locations
-		final int n = distanceMatrix.size();
-		
-		// Stupidity check
-		assert (parentA != null) && (parentA.size() == n);
-		assert (parentB != null) && (parentB.size() == n);
-
-		// Create child genome
-		IntegerList child = new IntegerList();
-		child.reserve(n);
-
-		// Calculate crossover point for genome
-		// The child will consist of data from parent-A before the crossover, and parent-B after the crossover
-		final int c = 1 + rnd.nextInt(n - 2);
-
-		// Create a list of all available locations
-		IntegerList allLocations = new IntegerList();
-		allLocations.reserve(n);
-		for (int i=1; i<n; i++) allLocations.add(i);
-
-		// Copy values from parent-A, up to crossover point
-		// Also remove the visited locations from the location list
-		for (int g=0; g<c; g++) {
-			int l = parentA.get(g);
-
-			// Add location to child
-			child.add(l);
-			
-			// Remove location from list of all locations
-			int toRemove = allLocations.find(l);
-			if (toRemove != -1) allLocations.removeUnordered(toRemove);
+		Decoder() {
+			dispatch = new VehicleDispatch(vehicleCapacity.length);
+			held = new int[vehicleCapacity.length];
 		}
-		
-		// Make a copy of the location list
-		// Remove the locations from parent-B which are after the crossover point
-		// Whatever locations are left have been missed (not in first part of parent-A, or second part of parent-B)
-		IntegerList missedLocations = new IntegerList(allLocations);
-		for (int i=c; i<parentB.size(); i++) {
-			int toRemove = missedLocations.find(parentB.get(i));
-			if (toRemove != -1) missedLocations.removeUnordered(toRemove);
-		}
-
-		// Copy values from parent-B, from crossover point onwards
-		// Check for duplicate values and replace them with missed locations
-		for (int g=c; g<parentB.size(); g++) {
-			int i = parentB.get(g);
-
-			// Search for location within list of all locations
-			// If not found then it has already been added as part of parent-A
-			int f = allLocations.find(i);
-			if (f >= 0) {
-
-				// The location is available for use
-				// Add it to the child genome
-				child.add(i);
-				
-				// Remove the location from list of all locations
-				allLocations.removeUnordered(allLocations.find(i));
-				
-			} else {
-				
-				// The location has already be used
-				// Add a missed location to the genome instead
-				if (!missedLocations.isEmpty()) child.add(missedLocations.pop()); else {assert false; assert true;}
+
+		/**
+		 * Create buffers to suit genomes of the given length.
+		 */
+		void allocate(int n) {
+			splitCost = new long[n + 1];
+			splitPotential = new long[n];
+			splitQueue = new int[n];
+			splitPred = new int[n + 1];
+			tripEnd = new int[n];
+		}
+
+		/**
+		 * Calculate the cost of the route list a genome decodes to, without filling a route list.
+		 * The genome is treated as a single tour (a giant tour) which is split into trips, each starting and ending
+		 * at the depot. The split is the cheapest possible for the order of the genome, found as a shortest path
+		 * where each step is a trip of no more locations than the largest vehicle capacity.
+		 * <p>
+		 * The cost of a trip is the cost of leaving the depot, plus the distance along the giant tour, plus the cost of
+		 * returning to the depot. Using the running total of the giant tour distance, the best trip to end at each
+		 * location comes from the cheapest start within a sliding window, which is kept in a monotonic queue.
+		 * This takes O(n) time, rather than O(n*Q) for a plain shortest path search.
+		 * @param genome Genome which is to be costed.
+		 * @return Total cost of the route list.
+		 */
+		long getCost(int[] genome) {
+			final int n = genome.length;
+			final int q = Math.min(tripMax, n);
+			assert n == (distanceMatrix.size() - 1);
+
+			// Find the cheapest cost of serving the first j locations of the genome
+			// Record the start of the last trip in each case
+			// The potential of a trip start i is the cost so far, plus the cost of leaving the depot,
+			// minus the giant tour distance up to the first location of the trip
+			splitCost[0] = 0;
+			long tourDistance = 0;
+			int queueFirst = 0;
+			int queueEnd = 0;
+			for (int j=1; j<=n; j++) {
+
+				// Add the previous location as a possible trip start
+				// Remove any starts from the back of the queue which can never be better
+				// Costs are symmetric, so the same depot cost is used for leaving and returning
+				final int i = j - 1;
+				final long depotCost = distanceMatrix.getDistance(0, genome[i]);
+				if (i > 0) tourDistance += distanceMatrix.getDistance(genome[i - 1], genome[i]);
+				splitPotential[i] = splitCost[i] + depotCost - tourDistance;
+				while ((queueEnd > queueFirst) && (splitPotential[splitQueue[queueEnd - 1]] >= splitPotential[i])) queueEnd--;
+				splitQueue[queueEnd++] = i;
+
+				// Remove any starts from the front of the queue which would make the trip too long
+				while (splitQueue[queueFirst] < j - q) queueFirst++;
+
+				// The front of the queue is the best start for a trip ending at location j
+				final int best = splitQueue[queueFirst];
+				splitCost[j] = splitPotential[best] + tourDistance + depotCost;
+				splitPred[j] = best;
 			}
+			return splitCost[n];
 		}
-		
-		// Add any locations which are missing
-		while (!missedLocations.isEmpty()) {
-			child.add(missedLocations.pop());
+
+		/**
+		 * Use a genome to fill a route list.
+		 * The genome is split into trips as for {@link #getCost(int[])}, then each trip is given to the vehicle
+		 * with the lowest cost which has the capacity for it.
+		 * @param genome Genome which is to be decoded.
+		 * @param route Route list which is cleared then filled.
+		 * @return Total cost of the route list.
+		 */
+		long decode(int[] genome, Route[] route) {
+			final int n = genome.length;
+			final long totalCost = getCost(genome);
+
+			// Clear the route list, and add the starting location to each route
+			// Every vehicle starts out parked with no cost
+			for (Route r : route) {
+				r.clear();
+				r.add(0);
+			}
+			dispatch.parkAll();
+
+			// List the end of each trip in genome order
+			int tripCount = 0;
+			for (int j=n; j>0; j=splitPred[j]) tripCount++;
+			for (int j=n, t=tripCount; j>0; j=splitPred[j]) {
+				tripEnd[--t] = j;
+			}
+
+			// Give each trip to the cheapest vehicle which has the capacity for it
+			// Vehicles which are too small are held aside, then parked again
+			int start = 0;
+			for (int t=0; t<tripCount; t++) {
+				final int end = tripEnd[t];
+				int heldCount = 0;
+				int v = dispatch.next();
+				while (vehicleCapacity[v] < (end - start)) {
+					held[heldCount++] = v;
+					v = dispatch.next();
+				}
+				for (int h=0; h<heldCount; h++) dispatch.park(held[h], route[held[h]].getCost());
+				Route r = route[v];
+				r.add(genome, start, end);
+				r.add(0);
+				dispatch.park(v, r.getCost());
+				start = end;
+			}
+			return totalCost;
 		}
+	}
 
-		// Mutate the list, if required
-		float mutateThreshold = (parentA.isEqual(parentB) ? 1.0f : 0.01f);
-		while (rnd.nextFloat() < mutateThreshold) {
-			mutateThreshold *= 0.8f;
-			
-			// Swap two random locations within the list
-			int indexA = rnd.nextInt(n - 1);
-			int indexB = rnd.nextInt(n - 1);
-			int locationA = child.get(indexA);
-			int locationB = child.get(indexB);
-			child.set(indexA, locationB);
-			child.set(indexB, locationA);
+	/**
+	 * Used to cost the pending slots of an island in parallel, splitting them evenly between a range of decoders.
+	 */
+	@SuppressWarnings("serial")
+	private class EvaluateTask extends RecursiveAction {
+		private final Island target;
+		private final int pendingCount;
+		private final int first;
+		private final int end;
+
+		EvaluateTask(Island target, int pendingCount, int first, int end) {
+			this.target = target;
+			this.pendingCount = pendingCount;
+			this.first = first;
+			this.end = end;
 		}
 
-		// Return result
-		return child;
+		@Override
+		protected void compute() {
+			if ((end - first) == 1) {
+				final int count = target.decoder.length;
+				target.evaluate(target.decoder[first], (pendingCount * first) / count, (pendingCount * end) / count);
+			} else {
+				int mid = (first + end) >>> 1;
+				invokeAll(
+					new EvaluateTask(target, pendingCount, first, mid),
+					new EvaluateTask(target, pendingCount, mid, end));
+			}
+		}
 	}
 
 	/**
-	 * Generate a new random genome in the form of an integer list.
-	 * Each integer represents one location index.
-	 * @return A new random genome.
+	 * Used to run a range of islands in parallel.
 	 */
-	private IntegerList generateRandom() {
-		
-		// Get number of locations
-		final int n = distanceMatrix.size();
-		
-		// Fill the integer list with all the location indices
-		IntegerList unused = new IntegerList();
-		unused.reserve(n - 1);
-		for (int i=1; i<n; i++) {
-			unused.push(i);
+	@SuppressWarnings("serial")
+	private class IslandTask extends RecursiveAction {
+		private final int first;
+		private final int end;
+		private final int iterations;
+
+		IslandTask(int first, int end, int iterations) {
+			this.first = first;
+			this.end = end;
+			this.iterations = iterations;
+		}
+
+		@Override
+		protected void compute() {
+			if ((end - first) == 1) {
+				island[first].run(iterations);
+			} else {
+				int mid = (first + end) >>> 1;
+				invokeAll(new IslandTask(first, mid, iterations), new IslandTask(mid, end, iterations));
+			}
 		}
-		
-		// Create a result list to use for the genome
-		// Add all the location indices randomly to the genome
-		IntegerList genome = new IntegerList();
-		genome.reserve(n - 1);
-		while (!unused.isEmpty()) {
-			int i = rnd.nextInt(unused.size());
-			genome.add(unused.get(i));
-			unused.removeUnordered(i);
-		}
-		return genome;
 	}
 	
+	/**
+	 * Fill a genome with every location index in a random order.
+	 * @param rnd The random number generator to use.
+	 * @param genome Receives the genome, which must have room for every location except the depot.
+	 */
+	static private void generateRandom(Random rnd, int[] genome) {
+		for (int i=0; i<genome.length; i++) {
+			int j = rnd.nextInt(i + 1);
+			genome[i] = genome[j];
+			genome[j] = i + 1;
+		}
+	}
 
 	/**
-	 * Get a string version of one of the parent routes.
+	 * Get the Zobrist hash of a whole genome, taking O(n) time.
+	 * @param genome The genome.
+	 * @return The hash.
+	 */
+	static private long getHash(int[] genome) {
+		long h = 0;
+		for (int g=0; g<genome.length; g++) h ^= getHash(g, genome[g]);
+		return h;
+	}
+
+	/**
+	 * Get the random value used within the Zobrist hash for a location at a position within a genome.
+	 * Values are made by mixing the bits of the position and location, so no table needs to be stored.
+	 * @param position The position within the genome.
+	 * @param location The location index.
+	 * @return The hash value.
+	 */
+	static private long getHash(int position, int location) {
+		long z = (((long)position << 32) | location) + 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Get a string version of one of the parent routes of the first island.
+	 * Locations are shown by their original index, as with Route.toString().
 	 * @param index Index of the requested parent route.
 	 * @return The route in string form.
 	 */
 	public String getParentString(int index) {
-		if (parentGenome[index].isEmpty()) {
+		final int[] list = island[0].genome[island[0].order[index]];
+		if (list.length == 0) {
 			return "";
 		} else {
-			IntegerList list = parentGenome[index];
-			String result = Integer.toString(list.get(0));
-			for (int i=1; i<list.size(); i++) result += "," + list.get(i);
+			String result = Integer.toString(distanceMatrix.getOriginalIndex(list[0]));
+			for (int i=1; i<list.length; i++) result += "," + distanceMatrix.getOriginalIndex(list[i]);
 			return result;
 		}
 	}
 	
 	/**
-	 * Use a genome integer list to generate a route list. 
-	 * @param genome Genome which is to be decoded.
-	 * @return Generated route list.
+	 * Create the decoders of an island.
+	 * @return One or more decoders.
 	 */
-	private Route[] decode(IntegerList genome) {
-		final int vMax = vehicleCapacity.length;
-		
-		// Create route list
-		Route[] route = new Route[vMax];
-		for (int v=0; v<vMax; v++) route[v] = new Route(distanceMatrix);
-
-		// Create a list used to store the number of locations each
-		// vehicle has been to since its last stop at the depot
-		int[] locationsVisited = new int[vMax];
-		for (int v=0; v<vMax; v++) locationsVisited[v] = 0;
-		
-		// Add the starting location to each route
-		for (Route r : route) r.add(0);
-		
-		// Make a copy of the genome which can be altered
-		// This will record the genes which have not yet been decoded
-		IntegerList pending = new IntegerList(genome);
-		
-		// Give locations to routes by interleaving the vehicle routes
-		// When a vehicle has becomes full then park it
-		// When all vehicles are parked then start when out again one at a time
-		int v = -1;
-		while (!pending.isEmpty()) {
-
-			// Increment the vehicle index
-			v = (v + 1) % vMax;
-	
-			// Check if the vehicle has visited the maximum number of locations
-			if (locationsVisited[v]++ < vehicleCapacity[v]) {
+	private Decoder[] createDecoders() {
+		Decoder[] result = new Decoder[decoderCount];
+		for (int i=0; i<decoderCount; i++) result[i] = new Decoder();
+		return result;
+	}
 
-				// Max locations not yet reached
-				// Add location to route
-				route[v].add(pending.pop());
-					
-			} else {
-				
-				// Max locations reached
-				// Add a trip back to the depot
-				locationsVisited[v] = 0;
-				route[v].add(0);
-			}
-		}
-		
-		// Add the return depot trip to the vehicles, if required
-		for (Route r : route) {
-			if (r.getLocationIndex(r.size() - 1) != 0) r.add(0);
-		}
-		
-		if (genome.size() != (distanceMatrix.size() - 1)) {
-			System.out.println("---------- Genome size "+genome.size()+","+distanceMatrix.size());
-		}
-		
-		//IntegerList temp = new IntegerList(genome);
-		//for (route)
-		
-		
-		
-		
-		return route;
+	/**
+	 * Create the local search of an island.
+	 * Each island only creates its local search when first needed, so copies of the solver which are never run
+	 * do not allocate its working arrays.
+	 * @return The local search, or null if local search is not used.
+	 */
+	private LocalSearch createLocalSearch() {
+		return (neighbourList != null) ? new LocalSearch(distanceMatrix, vehicleCapacity, neighbourList) : null;
 	}
-	
+
+	/**
+	 * Create an empty route list, with one route per vehicle.
+	 * @return The route list.
+	 */
+	private Route[] createRouteList() {
+		Route[] result = new Route[vehicleCapacity.length];
+		for (int v=0; v<result.length; v++) result[v] = new Route(distanceMatrix);
+		return result;
+	}
+
 	/**
 	 * Solver constructor.
+	 * The available processors are shared out as islands of decoderCountDefault decoders each, so that both the
+	 * islands and the children within each island are run in parallel.
 	 * @param d Distance matrix used to initialise the solver.
 	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
 	 */
 	public SolverGA(DistanceMatrix d, int[] vehicleCapacity) {
+		this(d, vehicleCapacity, Runtime.getRuntime().availableProcessors() / decoderCountDefault);
+	}
+	
+	/**
+	 * Solver constructor.
+	 * The available processors are shared between the islands, giving each island at least one decoder.
+	 * @param d Distance matrix used to initialise the solver.
+	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
+	 * @param islandCount Number of islands, each of which holds its own population.
+	 */
+	public SolverGA(DistanceMatrix d, int[] vehicleCapacity, int islandCount) {
+		this(d, vehicleCapacity, islandCount, Runtime.getRuntime().availableProcessors() / Math.max(1, islandCount),
+			parentCountDefault, candidateCountDefault);
+	}
+	
+	/**
+	 * Solver constructor.
+	 * @param d Distance matrix used to initialise the solver.
+	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
+	 * @param islandCount Number of islands, each of which holds its own population.
+	 * @param decoderCount Number of decoders each island uses to cost its children in parallel, at least one.
+	 * @param parentCount Number of parent genomes which each island stores between runs, at least two.
+	 * @param candidateCount Number of candidate genomes each island generates per generation, at least one.
+	 */
+	public SolverGA(DistanceMatrix d, int[] vehicleCapacity, int islandCount, int decoderCount, int parentCount,
+			int candidateCount) {
 		assert d != null;
 		assert d.size() > 0;
 		
 		// Record general values
 		distanceMatrix = d;
 		this.vehicleCapacity = (vehicleCapacity != null) ? vehicleCapacity : new int[]{Integer.MAX_VALUE};
+		tripMax = Arrays.stream(this.vehicleCapacity).max().getAsInt();
+		migrationInterval = migrationIntervalDefault;
+		this.decoderCount = Math.max(1, decoderCount);
+		this.parentCount = Math.max(2, parentCount);
+		this.candidateCount = Math.max(1, candidateCount);
+		poolSize = this.parentCount + this.candidateCount;
+		neighbourList = new NeighbourList(d, LocalSearch.neighbourCountDefault);
 
-		// Create a new random number generator
+		// Create a new random number generator, used to seed the generator of each island
 		rnd = new Random();
 		rnd.nextFloat(); // Run once
 
-		// Create parent lists
-		parentGenome = new IntegerList[parentMax];
-		parentRoute = new Route[parentMax][this.vehicleCapacity.length];
-		for (int i=0; i<parentMax; i++) {
-			parentGenome[i] = generateRandom();
-			parentRoute[i] = decode(parentGenome[i]);
+		// Create the islands and the migration ring
+		island = new Island[Math.max(1, islandCount)];
+		for (int i=0; i<island.length; i++) {
+			island[i] = new Island(i, new Random(rnd.nextLong()));
 		}
+		migration = new AtomicReferenceArray<int[]>(island.length);
 	}
 	
 	/**
 	 * Copy constructor.
+	 * The neighbour list is never changed once built, so it is shared with the source.
 	 */
 	public SolverGA(SolverGA src) {
 		assert src != null;
@@ -365,23 +984,38 @@ public class SolverGA implements Solver {
 		// Record general values
 		distanceMatrix = src.distanceMatrix;
 		vehicleCapacity = src.vehicleCapacity;
+		tripMax = src.tripMax;
+		migrationInterval = src.migrationInterval;
+		decoderCount = src.decoderCount;
+		parentCount = src.parentCount;
+		candidateCount = src.candidateCount;
+		poolSize = src.poolSize;
+		runTime = src.runTime;
+		neighbourList = src.neighbourList;
 
-		// Create a new random number generator
+		// Create a new random number generator, used to seed the generator of each island
 		rnd = new Random();
 		rnd.nextFloat(); // Run once
 		
-		// Create parent lists
-		parentGenome = new IntegerList[parentMax];
-		parentRoute = new Route[parentMax][vehicleCapacity.length];
-		for (int i=0; i<parentMax; i++) {
-			parentGenome[i] = new IntegerList(src.parentGenome[i]);
-			parentRoute[i] = Route.makeCopy(src.parentRoute[i]);
+		// Copy the islands
+		island = new Island[src.island.length];
+		for (int i=0; i<island.length; i++) {
+			island[i] = new Island(src.island[i], new Random(rnd.nextLong()));
 		}
+		migration = new AtomicReferenceArray<int[]>(island.length);
 	}
 	
-	final private DistanceMatrix distanceMatrix;
+	private DistanceMatrix distanceMatrix;
 	final private int[] vehicleCapacity;
-	private IntegerList[] parentGenome;
-	private Route[][] parentRoute;
+	final private int tripMax;
+	final private int decoderCount;
+	final private int parentCount;
+	final private int candidateCount;
+	final private int poolSize;
+	final private Island[] island;
+	final private AtomicReferenceArray<int[]> migration;
+	private NeighbourList neighbourList;
+	private int migrationInterval;
+	private long runTime;
 	private Random rnd;
 }
@@ -0,0 +1,260 @@
+package dvr;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A solver which uses the MAX-MIN Ant System (MMAS) to find routes.
+ * Ants are built in the same way as the ant colony solver, but the pheromone values are handled differently:
+ * <ul>
+ * <li>Every value is limited to lie between a lower and upper bound, so no path is ever ruled out or fixed.</li>
+ * <li>Only one route list deposits each iteration, either the best of the iteration or the best found so far.</li>
+ * <li>If the best route list has not improved for a while, every value is reset to the upper bound.</li>
+ * </ul>
+ * Deposits are scaled by the best cost found so far, so the bounds do not depend on the size of the problem.
+ * When local search is used, the best route list of each iteration is improved before it is compared or deposits.
+ */
+public class SolverMMAS extends SolverACO {
+
+	/**
+	 * Get the type of solver.
+	 * @return The solver type.
+	 */
+	@Override
+	public SolverType getType() {
+		return SolverType.MMAS;
+	}
+
+	/**
+	 * Calculate and return a route.
+	 * The returned route may not initially be optimal but should get better each run.
+	 * Each iteration builds a colony of ants in parallel, then evaporates the pheromone and lets one route list deposit.
+	 * @param iterations Number of ants to build. This is rounded up to a whole number of colonies.
+	 * @return One or more routes.
+	 */
+	@Override
+	public Route[] run(int iterations) {
+
+		// Get the ants, each with its own random number generator and buffers
+		final int antCount = Math.max(colonyMin, getAntsPerGeneration());
+		final Ant[] ants = getAnts(antCount);
+
+		// Loop until the requested number of ants have been built
+		for (int it=0; it<iterations; it+=antCount) {
+
+			// Build every ant of the colony
+			ForkJoinPool.commonPool().invoke(new AntTask(ants, 0, antCount));
+
+			// Find the best ant of this iteration
+			// Update average route distance
+			int iterationBest = 0;
+			long iterationBestCost = Long.MAX_VALUE;
+			for (int i=0; i<antCount; i++) {
+				long totalCost = ants[i].trace.getCost();
+				if (costAverage == 0) {
+					costAverage = totalCost;
+				} else {
+					costAverage = ((costAverage * 99) + totalCost) / 100;
+				}
+				if (totalCost < iterationBestCost) {
+					iterationBestCost = totalCost;
+					iterationBest = i;
+				}
+			}
+			RouteTrace iterationTrace = ants[iterationBest].trace;
+			iterationCount++;
+
+			// Improve the best route list of the iteration with a local search, if used
+			// Otherwise the trace is only copied into a route list if it is the best so far
+			Route[] iterationRoute = null;
+			final LocalSearch localSearch = getLocalSearch();
+			if (localSearch != null) {
+				if (improvedRoute == null) improvedRoute = createRouteList();
+				iterationTrace.fill(improvedRoute);
+				iterationBestCost = localSearch.improve(improvedRoute);
+				iterationRoute = improvedRoute;
+			}
+
+			// Check if the best route list has improved
+			// An improved route list swaps buffers with the old best route list
+			if (iterationBestCost < bestCost) {
+				bestCost = iterationBestCost;
+				stagnationCount = 0;
+				if (bestRoute == null) bestRoute = createRouteList();
+				if (iterationRoute != null) {
+					improvedRoute = bestRoute;
+					bestRoute = iterationRoute;
+				} else {
+					iterationTrace.fill(bestRoute);
+				}
+			} else {
+				stagnationCount++;
+			}
+
+			// Reset the pheromone values if the search has stagnated
+			// Otherwise evaporate, then let either the iteration best or the best so far deposit
+			if (stagnationCount >= stagnationLimit) {
+				usage.fill(tauMax);
+				stagnationCount = 0;
+			} else {
+				usage.evaporate(1 - evaporationRate);
+				if ((iterationCount % globalBestInterval) == 0) {
+					increase(bestRoute, tauMax * evaporationRate);
+				} else if (iterationRoute != null) {
+					increase(iterationRoute, tauMax * evaporationRate * bestCost / iterationBestCost);
+				} else {
+					increase(iterationTrace, tauMax * evaporationRate * bestCost / iterationBestCost);
+				}
+			}
+		}
+
+		// Record route
+		return Route.makeCopy(bestRoute);
+	}
+
+	/**
+	 * Get the pheromone part of the probability of travelling between two locations.
+	 * The value is limited to lie between the lower and upper bound.
+	 * @param layer The usage matrix layer used by the vehicle.
+	 * @param v The vehicle index.
+	 * @param locationA The location the vehicle is at.
+	 * @param locationB The location the vehicle may travel to.
+	 * @return The usage value.
+	 */
+	@Override
+	protected float getUsage(int layer, int v, int locationA, int locationB) {
+		float pUsage = Math.min(Math.max(usage.get(layer, locationA, locationB), tauMin), tauMax);
+		if (getPheromoneMode() == PheromoneMode.SHARED_WITH_BIAS) pUsage += usage.getBias(v, locationB);
+		return pUsage;
+	}
+
+	/**
+	 * Get the lower bound of each pheromone value.
+	 * @return The lower bound.
+	 */
+	public float getTauMin() {
+		return tauMin;
+	}
+
+	/**
+	 * Get the cost of the best route list found thus far.
+	 * @return Total cost of the best route list, or Long.MAX_VALUE if none has been found.
+	 */
+	public long getBestCost() {
+		return bestCost;
+	}
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location added to the end of the previous one.
+	 * The best route list no longer visits every location, so it is discarded.
+	 * @param d The new distance matrix.
+	 */
+	@Override
+	public void locationAdded(DistanceMatrix d) {
+		super.locationAdded(d);
+		resetBest();
+	}
+
+	/**
+	 * Move the solver onto a new distance matrix, which has a location removed from the previous one.
+	 * The best route list no longer matches the location indices, so it is discarded.
+	 * @param d The new distance matrix.
+	 * @param index Index of the removed location.
+	 */
+	@Override
+	public void locationRemoved(DistanceMatrix d, int index) {
+		super.locationRemoved(d, index);
+		resetBest();
+	}
+
+	/**
+	 * Discard the best route list and the spare route list, which may use an older distance matrix,
+	 * and update the lower bound to suit the number of locations.
+	 * The lower bound is chosen so that an ant which has converged onto the best route list still builds it
+	 * with a probability of about bestRouteProbability, following the usual MMAS formula.
+	 */
+	private void resetBest() {
+		bestRoute = null;
+		improvedRoute = null;
+		bestCost = Long.MAX_VALUE;
+		stagnationCount = 0;
+		double pDec = Math.pow(bestRouteProbability, 1.0 / Math.max(size(), 2));
+		double choices = Math.max(neighbourMax / 2.0, 2.0);
+		tauMin = (float)Math.min(tauMax * (1 - pDec) / ((choices - 1) * pDec), tauMax);
+	}
+
+	/**
+	 * Solver constructor.
+	 * Each vehicle has its own pheromone matrix. The shared modes, which use less memory with large fleets,
+	 * must be asked for with the constructor which takes a pheromone mode.
+	 * @param d Distance matrix used to initialise the solver.
+	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
+	 */
+	public SolverMMAS(DistanceMatrix d, int[] vehicleCapacity) {
+		this(d, vehicleCapacity, PheromoneMode.PER_VEHICLE);
+	}
+
+	/**
+	 * Solver constructor.
+	 * Every pheromone value starts at the upper bound.
+	 * @param d Distance matrix used to initialise the solver.
+	 * @param vehicleCapacity Capacity of each delivery vehicle. List length dictates the number of vehicles.
+	 * @param mode The way pheromone values are stored.
+	 */
+	public SolverMMAS(DistanceMatrix d, int[] vehicleCapacity, PheromoneMode mode) {
+		super(d, vehicleCapacity, mode);
+		usage.fill(tauMax);
+		iterationCount = 0;
+		resetBest();
+	}
+
+	/**
+	 * Copy constructor.
+	 */
+	public SolverMMAS(SolverMMAS src) {
+		super(src);
+		bestRoute = (src.bestRoute != null) ? Route.makeCopy(src.bestRoute) : null;
+		bestCost = src.bestCost;
+		tauMin = src.tauMin;
+		iterationCount = src.iterationCount;
+		stagnationCount = src.stagnationCount;
+	}
+
+	/**
+	 * The fraction of each pheromone value which evaporates every iteration.
+	 */
+	static final public float evaporationRate = 0.02f;
+
+	/**
+	 * The upper bound of each pheromone value. A route list which keeps depositing the best cost approaches this value.
+	 * It is kept below the largest heuristic value, so the distance to each location still matters once the search converges.
+	 */
+	static final public float tauMax = 0.25f;
+
+	/**
+	 * The probability used to set the lower bound of the pheromone values.
+	 */
+	static final public double bestRouteProbability = 0.05;
+
+	/**
+	 * The best route list found so far deposits once every this many iterations.
+	 * The best route list of the iteration deposits at all other times.
+	 */
+	static final public int globalBestInterval = 5;
+
+	/**
+	 * The number of iterations without improvement after which the pheromone values are reset.
+	 */
+	static final public int stagnationLimit = 100;
+
+	/**
+	 * The smallest number of ants built each iteration.
+	 */
+	static final public int colonyMin = 8;
+
+	private Route[] bestRoute;
+	private Route[] improvedRoute;
+	private long bestCost;
+	private float tauMin;
+	private int iterationCount;
+	private int stagnationCount;
+}
@@ -1,19 +1,105 @@
 package dvr;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Contains the current location list, solver, and best route.
+ * <p>
+ * These are published together as an unchangeable {@link SolverState}, held within an atomic reference, so readers
+ * never take a lock and never block the solver thread. Each state has a generation number one higher than the state
+ * it replaced. The solver thread uses compare-and-set to swap in a strictly cheaper route, which fails if the solver
+ * has been replaced in the meantime. Changes to the vehicles or solver type are still made one at a time while holding
+ * the monitor of this object. Locations to add or remove are queued instead, and the solver thread makes the changes
+ * between runs, so the caller never waits for a run to finish.
+ * <p>
+ * A published distance matrix is never changed, so adding or removing a location creates a new distance matrix,
+ * which is published along with a route list which uses it. The GUI and the master routing agent call
+ * {@link #awaitNewerThan(long, long)} to wait for the next state rather than polling.
  */
 public class SolverThread extends Thread {
+
+	/**
+	 * The location list, solver, and best route, as published together.
+	 * The route list held within is never changed once published.
+	 */
+	static public class SolverState {
+
+		/**
+		 * Solver state constructor.
+		 */
+		private SolverState(long generation, DistanceMatrix d, int[] vehicleCapacity, Solver solver, Route[] route,
+				RouteSnapshot snapshot) {
+			this.generation = generation;
+			this.distanceMatrix = d;
+			this.vehicleCapacity = vehicleCapacity;
+			this.solver = solver;
+			this.route = route;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Get the generation number, which increases each time a new state is published.
+		 * @return The generation number.
+		 */
+		public long getGeneration() {
+			return generation;
+		}
+
+		/**
+		 * Get the distance matrix used by the solver.
+		 * The distance matrix is never changed once published, so it always matches the route of the same state.
+		 * @return The distance matrix.
+		 */
+		public DistanceMatrix getDistanceMatrix() {
+			return distanceMatrix;
+		}
+
+		/**
+		 * Get the type of solver used.
+		 * @return The solver type.
+		 */
+		public SolverType getSolverType() {
+			return solver.getType();
+		}
+
+		/**
+		 * Get the best route found.
+		 * @return The best route.
+		 */
+		public RouteSnapshot getRoute() {
+			return snapshot;
+		}
+
+		/**
+		 * Get the total cost of the best route found.
+		 * @return Total route cost/distance, or 0 if no route has been found.
+		 */
+		public long getCost() {
+			return snapshot.getCost();
+		}
+
+		final private long generation;
+		final private DistanceMatrix distanceMatrix;
+		final private int[] vehicleCapacity;
+		final private Solver solver;
+		final private Route[] route;
+		final private RouteSnapshot snapshot;
+	}
 	
 	/**
 	 * Default constructor.
 	 */
 	public SolverThread() {
 		paused = true;
-		distanceMatrix = new DistanceMatrix(Location.RandomList(3,  10));
-		vehicleCapacity = null;
-		solver = new SolverGA(distanceMatrix, vehicleCapacity);
-		resetRoute();
+		pheromoneMode = PheromoneMode.PER_VEHICLE;
+		pendingChanges = new ConcurrentLinkedQueue<LocationChange>();
+		generationLock = new Object();
+		DistanceMatrix d = new DistanceMatrix(Location.RandomList(3,  10));
+		Route[] route = createEmptyRoute(d);
+		state = new AtomicReference<SolverState>(
+			new SolverState(0, d, null, new SolverGA(d, null), route, new RouteSnapshot(route)));
 		setDaemon(true); // This thread should not stop the program from terminating
 	}
 	
@@ -21,51 +107,30 @@ public class SolverThread extends Thread {
 	 * When the thread is started, this is the method which is run.
 	 */
 	public void run() {
-		Solver localSolver;
 		
 		// Run forever
 		// This is a daemon thread and should not keep the program from terminating
 		while (true) {
 			
+			// Make any changes to the locations which were requested during the last run
+			applyPendingChanges();
+			
 			// Check if paused
-			// Wait here if required
-			synchronized(this) {
-				if (paused) {
-					try {
-						wait();
-					} catch (Exception e) {
-					}
-					continue; // Go back to top of while loop
-				} else {
-					
-					// Make a copy of the solver to use
-					// Cannot access solver value outside synchronised section
-					localSolver = solver;
-				}
+			// Wait here if required, until unparked by unpause()
+			if (paused) {
+				LockSupport.park(this);
+				continue; // Go back to top of while loop
 			}
 			
 			// Run solver
-			// Must not use any values which require synchronisation
-			//System.out.println("Start "+localSolver.getType());
+			// Locations are only added or removed by this thread between runs, so the solver is never moved
+			// onto a new distance matrix during a run
+			// Each solver improves its own routes with a local search, so the new route is used as it is
+			final Solver localSolver = state.get().solver;
 			Route[] newRoute = localSolver.run();
-			//System.out.println("Finish");
-			
-			// Get the total cost of all the routes combined
-			int newTotalCost = 0;
-			for (Route r : newRoute) newTotalCost += r.getCost();
 			
-			// Check if new route is better than previous
-			// If so then swap it out
-			synchronized(this) {
-				if (localSolver == solver) {
-					if ((totalCost >= newTotalCost) || (totalCost < 1)) {
-						route = newRoute;
-						totalCost = newTotalCost;
-					}
-				} else {
-					resetRoute();
-				}
-			}
+			// Swap in the new route if it is better, unless the solver has been replaced
+			publishRoute(localSolver, newRoute);
 		}
 	}
 	
@@ -74,28 +139,65 @@ public class SolverThread extends Thread {
 	 * @return True if the solver is running, or false if paused.
 	 */
 	public boolean isPaused() {
-		synchronized(this) {
-			return paused;
-		}
+		return paused;
 	}
 	
 	/**
 	 * Tell the solver to stop running and wait.
 	 */
 	public void pause() {
-		synchronized(this) {
-			paused = true;
-		}
+		paused = true;
 	}
 	
 	/**
 	 * Tell the solver to resume running.
 	 */
 	public void unpause() {
-		synchronized(this) {
-			paused = false;
-			notify();
+		paused = false;
+		LockSupport.unpark(this);
+	}
+	
+	/**
+	 * Get the current state, without waiting.
+	 * @return The current location list, solver, and best route.
+	 */
+	public SolverState getSolverState() {
+		return state.get();
+	}
+	
+	/**
+	 * Wait until a state newer than a given generation has been published.
+	 * @param generation The generation number already seen.
+	 * @return The current state, which is newer than the given generation.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public SolverState awaitNewerThan(long generation) throws InterruptedException {
+		return awaitNewerThan(generation, 0);
+	}
+	
+	/**
+	 * Wait until a state newer than a given generation has been published, or a time limit has passed.
+	 * @param generation The generation number already seen.
+	 * @param timeout Longest time to wait in milliseconds, or 0 to wait without limit.
+	 * @return The current state, which is only as old as the given generation if the time limit passed.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public SolverState awaitNewerThan(long generation, long timeout) throws InterruptedException {
+		SolverState current = state.get();
+		if (current.generation > generation) return current;
+		final long deadline = System.nanoTime() + (timeout * 1000000);
+		synchronized(generationLock) {
+			while ((current = state.get()).generation <= generation) {
+				if (timeout <= 0) {
+					generationLock.wait();
+				} else {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) break;
+					generationLock.wait(Math.max(1, remaining / 1000000));
+				}
+			}
 		}
+		return current;
 	}
 	
 	/**
@@ -104,9 +206,47 @@ public class SolverThread extends Thread {
 	 */
 	public void setDistanceMatrix(DistanceMatrix dm) {
 		synchronized(this) {
-			distanceMatrix = dm;
-			recreateSolver(solver.getType());
+			SolverState current = state.get();
+			recreateSolver(dm, current.vehicleCapacity, current.solver.getType());
+		}
+	}
+
+	/**
+	 * Add a new location without restarting the solver.
+	 * The change is queued, and made by the solver thread once its current run has finished.
+	 * The location is then appended to the distance matrix, the solver state is updated to include it,
+	 * and it is inserted into the current best route where it adds the least distance.
+	 * The location is given the next original index, and every other location keeps its original index.
+	 * @param l The location to add.
+	 */
+	public void addLocation(Location l) {
+		assert l != null;
+		pendingChanges.add(new LocationChange(l, -1));
+		requestChanges();
+	}
+
+	/**
+	 * Remove a location without restarting the solver.
+	 * The change is queued, and made by the solver thread once its current run has finished.
+	 * The last location within the distance matrix is then moved into the index of the removed location.
+	 * Every other location keeps its original index, and the original index of the removed location is not reused.
+	 * A location which has already been removed by the time the change is made is ignored.
+	 * @param original Original index of the location to remove. The depot (location 0) cannot be removed.
+	 */
+	public void removeLocation(int original) {
+		if (original <= 0) {
+			throw new IllegalArgumentException("Invalid location index: " + original);
 		}
+		pendingChanges.add(new LocationChange(null, original));
+		requestChanges();
+	}
+
+	/**
+	 * Check if any requested changes to the locations have not yet been made.
+	 * @return True if changes are waiting for the solver thread.
+	 */
+	public boolean hasPendingChanges() {
+		return !pendingChanges.isEmpty();
 	}
 
 	/**
@@ -115,30 +255,54 @@ public class SolverThread extends Thread {
 	 */
 	public void setSolverType(SolverType t) {
 		synchronized(this) {
-			if (t != solver.getType()) {
-				recreateSolver(t);
+			SolverState current = state.get();
+			if (t != current.solver.getType()) {
+				recreateSolver(current.distanceMatrix, current.vehicleCapacity, t);
+			}
+		}
+	}
+	
+	/**
+	 * Change the way the ant colony solvers store their pheromone values.
+	 * An ant colony solver which is in use is recreated with the new mode.
+	 * @param mode The new pheromone mode.
+	 */
+	public void setPheromoneMode(PheromoneMode mode) {
+		assert mode != null;
+		synchronized(this) {
+			if (mode == pheromoneMode) return;
+			pheromoneMode = mode;
+			SolverState current = state.get();
+			SolverType t = current.solver.getType();
+			if ((t == SolverType.ACO) || (t == SolverType.MMAS)) {
+				recreateSolver(current.distanceMatrix, current.vehicleCapacity, t);
 			}
 		}
 	}
 	
+	/**
+	 * Get the way the ant colony solvers store their pheromone values.
+	 * @return The pheromone mode.
+	 */
+	public PheromoneMode getPheromoneMode() {
+		return pheromoneMode;
+	}
+	
 	/**
 	 * Get the current type of solver being used.
 	 * @return Current solver type.
 	 */
 	public SolverType getSolverType() {
-		synchronized(this) {
-			return solver.getType();
-		}
+		return state.get().getSolverType();
 	}
 	
 	/**
 	 * Get the current best route available.
+	 * The snapshot is taken once each time a better route is found, and is shared by every caller without copying.
 	 * @return The current best route.
 	 */
-	public Route[] getRoute() {
-		synchronized(this) {
-			return Route.makeCopy(route);
-		}
+	public RouteSnapshot getRoute() {
+		return state.get().snapshot;
 	}
 
 	/**
@@ -146,24 +310,28 @@ public class SolverThread extends Thread {
 	 * @return Distance matrix currently in use.
 	 */
 	public DistanceMatrix getDistanceMatrix() {
-		synchronized(this) {
-			return distanceMatrix;
-		}
+		return state.get().distanceMatrix;
 	}
 
 	/**
 	 * Get a copy of the current solver being used by the solver-thread.
+	 * The copy is taken while holding the same lock used to add and remove locations, which move the solver
+	 * onto a new distance matrix, so the copy is never taken part way through such a change.
 	 * @return Copy of the solver being used.
 	 */
 	public Solver getSolver() {
 		synchronized(this) {
+			SolverState current = state.get();
+			Solver solver = current.solver;
 			switch (solver.getType()) {
 			case ACO:
 				return new SolverACO((SolverACO)solver);
+			case MMAS:
+				return new SolverMMAS((SolverMMAS)solver);
 			case GA:
 				return new SolverGA((SolverGA)solver);
 			default:
-				return new SolverGA(distanceMatrix, vehicleCapacity);
+				return new SolverGA(current.distanceMatrix, current.vehicleCapacity);
 			}
 		}
 	}
@@ -176,6 +344,8 @@ public class SolverThread extends Thread {
 	public int addVehicle(int capacity) {
 		capacity = Math.max(capacity, 1);
 		synchronized(this) {
+			SolverState current = state.get();
+			int[] vehicleCapacity = current.vehicleCapacity;
 	    	if (vehicleCapacity == null) {
 	    		vehicleCapacity = new int[1];
 	    		vehicleCapacity[0] = capacity;
@@ -185,20 +355,108 @@ public class SolverThread extends Thread {
 	    		temp[vehicleCapacity.length] = capacity;
 	    		vehicleCapacity = temp;
 	    	}
-	    	recreateSolver(solver.getType());
+	    	recreateSolver(current.distanceMatrix, vehicleCapacity, current.solver.getType());
 	    	return vehicleCapacity.length - 1;
 		}
 	}
 	
 	/**
-	 * Used internally to recreate the solver when needed.
+	 * Used internally to have the queued changes to the locations made.
+	 * A running solver thread is woken in case it is paused, otherwise the changes are made straight away.
+	 */
+	private void requestChanges() {
+		if (isAlive()) {
+			LockSupport.unpark(this);
+		} else {
+			applyPendingChanges();
+		}
+	}
+
+	/**
+	 * Used internally to make every queued change to the locations, in the order they were requested.
+	 * The queue is emptied while holding the monitor of this object, so changes are never made out of order.
+	 */
+	private void applyPendingChanges() {
+		if (pendingChanges.isEmpty()) return;
+		synchronized(this) {
+			LocationChange c;
+			while ((c = pendingChanges.poll()) != null) {
+				if (c.added != null) {
+					applyAddLocation(c.added);
+				} else {
+					applyRemoveLocation(c.removed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used internally to add a location, moving the solver and a copy of the route onto a new distance matrix.
+	 * This method must be protected by synchronisation, as it has none of its own.
+	 */
+	private void applyAddLocation(Location l) {
+		SolverState current = state.get();
+		DistanceMatrix distanceMatrix = current.distanceMatrix;
+		
+		// Create a new distance matrix, leaving the published one unchanged for its readers
+		// Restart the solver if the distance matrix had to be rebuilt, as the locations may have new indices
+		final int original = distanceMatrix.getOriginalCount();
+		DistanceMatrix next = distanceMatrix.withLocationAdded(l);
+		if (!distanceMatrix.isResizable()) {
+			recreateSolver(next, current.vehicleCapacity, current.solver.getType());
+			return;
+		}
+		
+		// Move the solver and a copy of the route onto the new distance matrix
+		int index = next.getInternalIndex(original);
+		current.solver.locationAdded(next);
+		Route[] route = Route.makeCopy(current.route, next);
+		Route.insertLocation(route, index, current.vehicleCapacity);
+		publish(next, current.vehicleCapacity, current.solver, route);
+	}
+
+	/**
+	 * Used internally to remove a location, moving the solver and a copy of the route onto a new distance matrix.
 	 * This method must be protected by synchronisation, as it has none of its own.
+	 */
+	private void applyRemoveLocation(int original) {
+		SolverState current = state.get();
+		DistanceMatrix distanceMatrix = current.distanceMatrix;
+		if (original >= distanceMatrix.getOriginalCount()) return;
+		final int index = distanceMatrix.getInternalIndex(original);
+		if (index <= 0) return;
+		
+		// Create a new distance matrix, leaving the published one unchanged for its readers
+		// Restart the solver if the distance matrix had to be rebuilt, as the locations may have new indices
+		DistanceMatrix next = distanceMatrix.withLocationRemoved(index);
+		if (!distanceMatrix.isResizable()) {
+			recreateSolver(next, current.vehicleCapacity, current.solver.getType());
+			return;
+		}
+		
+		// Move the solver and a copy of the route onto the new distance matrix
+		current.solver.locationRemoved(next, index);
+		Route[] route = Route.makeCopy(current.route, next);
+		Route.removeLocation(route, index, next.size());
+		publish(next, current.vehicleCapacity, current.solver, route);
+	}
+
+	/**
+	 * Used internally to recreate the solver when needed, publishing it along with an empty route.
+	 * Ant colony solvers are given the current pheromone mode.
+	 * This method must be protected by synchronisation, as it has none of its own.
+	 * @param distanceMatrix The distance matrix to use.
+	 * @param vehicleCapacity Capacity of each vehicle, or null if there is no limit.
 	 * @param t The type of solver to create.
 	 */
-	private void recreateSolver(SolverType t) {
+	private void recreateSolver(DistanceMatrix distanceMatrix, int[] vehicleCapacity, SolverType t) {
+		Solver solver;
 		switch (t) {
 		case ACO:
-			solver = new SolverACO(distanceMatrix, vehicleCapacity);
+			solver = new SolverACO(distanceMatrix, vehicleCapacity, pheromoneMode);
+			break;
+		case MMAS:
+			solver = new SolverMMAS(distanceMatrix, vehicleCapacity, pheromoneMode);
 			break;
 		case GA:
 			solver = new SolverGA(distanceMatrix, vehicleCapacity);
@@ -207,21 +465,87 @@ public class SolverThread extends Thread {
 			System.out.println("Found unknown solver type while recreating solver");
 			solver = new SolverGA(distanceMatrix, vehicleCapacity);
 		}
-		resetRoute();
+		publish(distanceMatrix, vehicleCapacity, solver, createEmptyRoute(distanceMatrix));
 	}
-	
+
+	/**
+	 * Used internally to publish a new state, replacing whatever state is current.
+	 * Compare-and-set is used, so the generation number is one higher than the state actually replaced,
+	 * even if the solver thread swaps in a route at the same time.
+	 * This method must be protected by synchronisation, so changes are not lost to each other.
+	 */
+	private void publish(DistanceMatrix distanceMatrix, int[] vehicleCapacity, Solver solver, Route[] route) {
+		final RouteSnapshot snapshot = new RouteSnapshot(route);
+		SolverState current;
+		SolverState next;
+		do {
+			current = state.get();
+			next = new SolverState(current.generation + 1, distanceMatrix, vehicleCapacity, solver, route, snapshot);
+		} while (!state.compareAndSet(current, next));
+		signalGeneration();
+	}
+
+	/**
+	 * Used internally by the solver thread to swap in a new route, if it is cheaper than the current route.
+	 * A route of equal cost is dropped, unlike a better one. Each new state wakes every thread waiting within
+	 * awaitNewerThan(), and a solver which has settled on its best cost would otherwise publish after every run.
+	 * Compare-and-set is used, so the route is dropped if the solver has been replaced since the run began.
+	 * @param solver The solver which produced the route.
+	 * @param route The new route.
+	 */
+	private void publishRoute(Solver solver, Route[] route) {
+		final long cost = Route.getCost(route);
+		RouteSnapshot snapshot = null;
+		while (true) {
+			final SolverState current = state.get();
+			if (current.solver != solver) return;
+			if (!current.snapshot.isEmpty() && (current.getCost() <= cost)) return;
+			if (snapshot == null) snapshot = new RouteSnapshot(route);
+			final SolverState next = new SolverState(
+				current.generation + 1, current.distanceMatrix, current.vehicleCapacity, solver, route, snapshot);
+			if (state.compareAndSet(current, next)) break;
+		}
+		signalGeneration();
+	}
+
+	/**
+	 * Wake every thread waiting within awaitNewerThan().
+	 */
+	private void signalGeneration() {
+		synchronized(generationLock) {
+			generationLock.notifyAll();
+		}
+	}
+
+	/**
+	 * A change to the location list, waiting to be made by the solver thread between runs.
+	 */
+	static private class LocationChange {
+
+		/**
+		 * Location change constructor.
+		 * @param added The location to add, or null if a location is to be removed.
+		 * @param removed Original index of the location to remove, if no location is to be added.
+		 */
+		LocationChange(Location added, int removed) {
+			this.added = added;
+			this.removed = removed;
+		}
+
+		final Location added;
+		final int removed;
+	}
+
 	/**
-	 * Reset the current best route to nothing.
+	 * Create a route list holding a single empty route.
 	 */
-	private void resetRoute() {
-		route = new Route[] {new Route(distanceMatrix)};
-		totalCost = 0;
+	static private Route[] createEmptyRoute(DistanceMatrix d) {
+		return new Route[] {new Route(d)};
 	}
 	
-	private boolean paused;
-	private DistanceMatrix distanceMatrix;
-	private Solver solver;
-	private Route[] route;
-	private int totalCost;
-	private int[] vehicleCapacity;
+	private volatile boolean paused;
+	private volatile PheromoneMode pheromoneMode;
+	private final ConcurrentLinkedQueue<LocationChange> pendingChanges;
+	private final Object generationLock;
+	private final AtomicReference<SolverState> state;
 }
@@ -10,6 +10,11 @@ public enum SolverType {
 	 */
 	ACO,
 	
+	/**
+	 * MAX-MIN Ant System.
+	 */
+	MMAS,
+	
 	/**
 	 * Genetic Algorithm.
 	 */
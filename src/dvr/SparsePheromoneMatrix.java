@@ -0,0 +1,400 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * Used to hold the pheromone (path usage) values of an ant colony solver, with values only for the paths
+ * which have been given one. Every other path reads the default value.
+ * Ants mostly travel between nearest neighbours, so only a small fraction of paths are ever used,
+ * which lets this store handle location lists far too large for a dense matrix.
+ * <p>
+ * Values are held in an open-addressing hash table using linear probing, keyed by layer and location indices.
+ * As with the dense matrix, a single decay factor is applied when values are read. When the stored values are
+ * renormalised, any which have decayed back to the default value are dropped from the table.
+ */
+public class SparsePheromoneMatrix implements PheromoneStore {
+
+	/**
+	 * The decay factor below which the stored values are renormalised.
+	 */
+	static final public float renormaliseLimit = 1e-6f;
+
+	/**
+	 * Values this close to the default value are dropped when renormalising.
+	 */
+	static final public float pruneLimit = 1e-5f;
+
+	/**
+	 * The largest location index which can be held, plus one.
+	 */
+	static final public int locationMax = 1 << 24;
+
+	/**
+	 * Sparse pheromone matrix constructor. Every value starts at zero.
+	 * @param layers Number of layers, normally one per vehicle.
+	 * @param capacity Number of locations each layer has room for.
+	 * @param biasLayers Number of bias vectors, normally zero or one per vehicle.
+	 */
+	public SparsePheromoneMatrix(int layers, int capacity, int biasLayers) {
+		assert layers > 0;
+		assert capacity > 0;
+		assert biasLayers >= 0;
+		if (capacity > locationMax) {
+			throw new IllegalArgumentException("Too many locations for a sparse pheromone matrix: " + capacity);
+		}
+		this.layers = layers;
+		this.capacity = capacity;
+		this.biasLayers = biasLayers;
+		bias = new float[biasLayers * capacity];
+		clear(tableSizeMin);
+		decay = 1;
+		rawMax = 0;
+		rawDefault = 0;
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param src The pheromone matrix to copy.
+	 */
+	public SparsePheromoneMatrix(SparsePheromoneMatrix src) {
+		layers = src.layers;
+		capacity = src.capacity;
+		biasLayers = src.biasLayers;
+		key = src.key.clone();
+		value = src.value.clone();
+		entryCount = src.entryCount;
+		bias = src.bias.clone();
+		decay = src.decay;
+		rawMax = src.rawMax;
+		rawDefault = src.rawDefault;
+	}
+
+	/**
+	 * Create a copy of the matrix.
+	 * @return The copy.
+	 */
+	@Override
+	public PheromoneStore copy() {
+		return new SparsePheromoneMatrix(this);
+	}
+
+	/**
+	 * Get the number of layers.
+	 * @return Number of layers.
+	 */
+	@Override
+	public int getLayers() {
+		return layers;
+	}
+
+	/**
+	 * Get the number of bias vectors.
+	 * @return Number of bias vectors.
+	 */
+	@Override
+	public int getBiasLayers() {
+		return biasLayers;
+	}
+
+	/**
+	 * Get the number of locations each layer has room for.
+	 * @return Layer capacity.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the number of paths which hold a value.
+	 * @return Number of stored paths.
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Get the pheromone value of a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @return The pheromone value.
+	 */
+	@Override
+	public float get(int layer, int locationA, int locationB) {
+		int i = find(getKey(layer, locationA, locationB));
+		return ((key[i] != emptyKey) ? value[i] : rawDefault) * decay;
+	}
+
+	/**
+	 * Add pheromone to a path.
+	 * @param layer The layer (vehicle) index.
+	 * @param locationA The index of the location the path starts at.
+	 * @param locationB The index of the location the path ends at.
+	 * @param amount The amount to add.
+	 */
+	@Override
+	public void add(int layer, int locationA, int locationB, float amount) {
+		long k = getKey(layer, locationA, locationB);
+		int i = find(k);
+		if (key[i] == emptyKey) {
+			key[i] = k;
+			value[i] = rawDefault;
+			if (++entryCount > (key.length >> 1)) {
+				grow();
+				i = find(k);
+			}
+		}
+		float raw = value[i] + (amount / decay);
+		value[i] = raw;
+		if (rawMax < raw) rawMax = raw;
+	}
+
+	/**
+	 * Get the bias value of a location.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @return The bias value.
+	 */
+	@Override
+	public float getBias(int layer, int location) {
+		return bias[(layer * capacity) + location] * decay;
+	}
+
+	/**
+	 * Add to the bias value of a location.
+	 * Bias values evaporate along with the rest of the matrix, but do not affect the highest value.
+	 * @param layer The bias vector (vehicle) index.
+	 * @param location The index of the location.
+	 * @param amount The amount to add.
+	 */
+	@Override
+	public void addBias(int layer, int location, float amount) {
+		bias[(layer * capacity) + location] += amount / decay;
+	}
+
+	/**
+	 * Multiply every pheromone value by the same amount.
+	 * This takes O(1) time, except when the values need to be renormalised.
+	 * @param multiplier The amount to multiply each value by, between 0 and 1.
+	 */
+	@Override
+	public void evaporate(float multiplier) {
+		assert (0 < multiplier) && (multiplier <= 1);
+		decay *= multiplier;
+		if (decay < renormaliseLimit) renormalise();
+	}
+
+	/**
+	 * Set every pheromone value to the same amount, and clear every bias value.
+	 * The amount becomes the default value, so this only takes O(n) time.
+	 * @param amount The value to set.
+	 */
+	@Override
+	public void fill(float amount) {
+		clear(tableSizeMin);
+		Arrays.fill(bias, 0);
+		decay = 1;
+		rawMax = amount;
+		rawDefault = amount;
+	}
+
+	/**
+	 * Get the highest pheromone value within the matrix.
+	 * After a location is moved or cleared this may be higher than any remaining value.
+	 * @return The highest single value.
+	 */
+	@Override
+	public float getMax() {
+		return rawMax * decay;
+	}
+
+	/**
+	 * Change the number of locations each layer has room for.
+	 * Only the bias vectors need to be copied.
+	 * @param newCapacity The new capacity.
+	 * @param size The number of locations in use, which are kept.
+	 * @return This matrix.
+	 */
+	@Override
+	public PheromoneStore resize(int newCapacity, int size) {
+		assert size <= Math.min(capacity, newCapacity);
+		if (newCapacity > locationMax) {
+			throw new IllegalArgumentException("Too many locations for a sparse pheromone matrix: " + newCapacity);
+		}
+		float[] tempBias = new float[biasLayers * newCapacity];
+		for (int layer=0; layer<biasLayers; layer++) {
+			System.arraycopy(bias, layer * capacity, tempBias, layer * newCapacity, size);
+		}
+		bias = tempBias;
+		capacity = newCapacity;
+		return this;
+	}
+
+	/**
+	 * Move the values of one location into another, then clear the first location.
+	 * Used when a location is removed and the last location takes its index.
+	 * The table is rebuilt, taking time in proportion to the number of stored paths.
+	 * @param from Index of the location to move.
+	 * @param to Index which the location is moved to.
+	 * @param size The number of locations in use.
+	 */
+	@Override
+	public void moveLocation(int from, int to, int size) {
+		final long[] oldKey = key;
+		final float[] oldValue = value;
+		clear(key.length);
+		for (int i=0; i<oldKey.length; i++) {
+			long k = oldKey[i];
+			if (k == emptyKey) continue;
+			int layer = getLayer(k);
+			int a = getLocationA(k);
+			int b = getLocationB(k);
+
+			// Drop the old values of the target location, and move the values of the source location
+			if ((a == to) || (b == to)) continue;
+			if (a == from) a = to;
+			if (b == from) b = to;
+			if ((a == to) && (b == to)) continue;
+			insert(getKey(layer, a, b), oldValue[i]);
+		}
+		for (int layer=0; layer<biasLayers; layer++) {
+			bias[(layer * capacity) + to] = bias[(layer * capacity) + from];
+			bias[(layer * capacity) + from] = 0;
+		}
+	}
+
+	/**
+	 * Visit every stored path between locations in use.
+	 * Paths which have never been given a value are skipped.
+	 * @param size The number of locations in use.
+	 * @param visitor Called once for each path.
+	 */
+	@Override
+	public void forEach(int size, PathVisitor visitor) {
+		for (int i=0; i<key.length; i++) {
+			long k = key[i];
+			if (k == emptyKey) continue;
+			int a = getLocationA(k);
+			int b = getLocationB(k);
+			if ((a < size) && (b < size)) visitor.visit(getLayer(k), a, b, value[i] * decay);
+		}
+	}
+
+	/**
+	 * Apply the decay factor to every stored value, then reset it.
+	 * Values which have decayed back to the default value are dropped.
+	 */
+	private void renormalise() {
+		final long[] oldKey = key;
+		final float[] oldValue = value;
+		rawDefault *= decay;
+		clear(tableSizeMin);
+		for (int i=0; i<oldKey.length; i++) {
+			if (oldKey[i] == emptyKey) continue;
+			float v = oldValue[i] * decay;
+			if (Math.abs(v - rawDefault) >= pruneLimit) insert(oldKey[i], v);
+		}
+		for (int i=0; i<bias.length; i++) bias[i] *= decay;
+		rawMax *= decay;
+		decay = 1;
+	}
+
+	/**
+	 * Double the size of the table.
+	 */
+	private void grow() {
+		final long[] oldKey = key;
+		final float[] oldValue = value;
+		clear(key.length * 2);
+		for (int i=0; i<oldKey.length; i++) {
+			if (oldKey[i] != emptyKey) insert(oldKey[i], oldValue[i]);
+		}
+	}
+
+	/**
+	 * Insert a key which is not yet within the table, growing the table if required.
+	 */
+	private void insert(long k, float raw) {
+		if (entryCount >= (key.length >> 1)) grow();
+		int i = find(k);
+		assert key[i] == emptyKey;
+		key[i] = k;
+		value[i] = raw;
+		entryCount++;
+	}
+
+	/**
+	 * Replace the table with an empty one.
+	 * @param tableSize Number of slots, which must be a power of two.
+	 */
+	private void clear(int tableSize) {
+		key = new long[tableSize];
+		value = new float[tableSize];
+		Arrays.fill(key, emptyKey);
+		entryCount = 0;
+	}
+
+	/**
+	 * Find the slot holding a key, or the empty slot where it should be inserted.
+	 */
+	private int find(long k) {
+		final int mask = key.length - 1;
+		int i = hash(k) & mask;
+		while ((key[i] != k) && (key[i] != emptyKey)) i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Mix the bits of a key, so that nearby paths are spread across the table.
+	 */
+	static private int hash(long k) {
+		k = (k ^ (k >>> 33)) * 0xff51afd7ed558ccdL;
+		k = (k ^ (k >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return (int)(k ^ (k >>> 33));
+	}
+
+	/**
+	 * Get the key of a path.
+	 */
+	static private long getKey(int layer, int locationA, int locationB) {
+		assert (0 <= locationA) && (locationA < locationMax);
+		assert (0 <= locationB) && (locationB < locationMax);
+		return ((long)layer << 48) | ((long)locationA << 24) | locationB;
+	}
+
+	/**
+	 * Get the layer index of a key.
+	 */
+	static private int getLayer(long k) {
+		return (int)(k >>> 48);
+	}
+
+	/**
+	 * Get the index of the location a path starts at from its key.
+	 */
+	static private int getLocationA(long k) {
+		return (int)(k >>> 24) & (locationMax - 1);
+	}
+
+	/**
+	 * Get the index of the location a path ends at from its key.
+	 */
+	static private int getLocationB(long k) {
+		return (int)k & (locationMax - 1);
+	}
+
+	static final private long emptyKey = -1;
+	static final private int tableSizeMin = 1024;
+
+	final private int layers;
+	final private int biasLayers;
+	private int capacity;
+	private long[] key;
+	private float[] value;
+	private int entryCount;
+	private float[] bias;
+	private float decay;
+	private float rawMax;
+	private float rawDefault;
+}
@@ -0,0 +1,260 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid used to quickly find coordinates which are close to each other.
+ * The grid covers the AABB of the coordinates, and is sized so that each cell holds only a few of them.
+ * Coordinates may be removed from the grid, so a grid which is shared between threads should be
+ * treated as read-only, with each thread removing coordinates from its own copy.
+ */
+public class SpatialGrid {
+
+	/**
+	 * The average number of coordinates the grid aims to place within each cell.
+	 */
+	static final public int pointsPerCell = 2;
+
+	/**
+	 * Spatial grid constructor.
+	 * @param c The coordinates to add to the grid. The index of each coordinate is used to identify it.
+	 */
+	public SpatialGrid(Coordinate[] c) {
+		assert c != null;
+		coord = c;
+
+		// Find the area covered by the coordinates
+		aabb = new AABB();
+		for (Coordinate i : c) aabb.add(i);
+
+		// Choose a cell size which gives roughly the requested number of coordinates per cell
+		// The width and height are measured in cells
+		final int n = c.length;
+		double w = aabb.isValid() ? (double)(aabb.xMax - aabb.xMin) + 1 : 1;
+		double h = aabb.isValid() ? (double)(aabb.yMax - aabb.yMin) + 1 : 1;
+		double cells = Math.max(1.0, (double)n / pointsPerCell);
+
+		// Thin areas only need a single row or column of cells
+		double size = Math.sqrt((w * h) / cells);
+		if (h < size) size = w / cells;
+		if (w < size) size = h / cells;
+		cellSize = Math.max(1.0, size);
+		width = (int)Math.ceil(w / cellSize);
+		height = (int)Math.ceil(h / cellSize);
+
+		// Count the coordinates within each cell
+		cellStart = new int[(width * height) + 1];
+		int[] cellOf = new int[n];
+		for (int i=0; i<n; i++) {
+			cellOf[i] = getCell(cellX(c[i].x), cellY(c[i].y));
+			cellStart[cellOf[i] + 1]++;
+		}
+
+		// Convert the counts to start offsets, then fill the cell contents
+		for (int i=0; i<(width * height); i++) cellStart[i + 1] += cellStart[i];
+		cellItem = new int[n];
+		itemPosition = new int[n];
+		int[] fill = new int[width * height];
+		for (int i=0; i<n; i++) {
+			int cell = cellOf[i];
+			itemPosition[i] = cellStart[cell] + fill[cell]++;
+			cellItem[itemPosition[i]] = i;
+		}
+		itemCell = cellOf;
+		cellEnd = Arrays.copyOfRange(cellStart, 1, cellStart.length);
+	}
+
+	/**
+	 * Copy constructor.
+	 * The copy shares the fixed grid layout, but coordinates can be removed from it independently.
+	 * @param src The spatial grid to copy.
+	 */
+	public SpatialGrid(SpatialGrid src) {
+		coord = src.coord;
+		aabb = src.aabb;
+		cellSize = src.cellSize;
+		width = src.width;
+		height = src.height;
+		cellStart = src.cellStart;
+		itemCell = src.itemCell;
+		cellItem = src.cellItem.clone();
+		itemPosition = src.itemPosition.clone();
+		cellEnd = src.cellEnd.clone();
+	}
+
+	/**
+	 * Restore the coordinates of a grid which this grid was copied from.
+	 * This takes O(n) time, and undoes any coordinates removed from this grid since it was copied.
+	 * @param src The spatial grid this grid was copied from.
+	 */
+	public void reset(SpatialGrid src) {
+		assert src.cellStart == cellStart;
+		System.arraycopy(src.cellItem, 0, cellItem, 0, cellItem.length);
+		System.arraycopy(src.itemPosition, 0, itemPosition, 0, itemPosition.length);
+		System.arraycopy(src.cellEnd, 0, cellEnd, 0, cellEnd.length);
+	}
+
+	/**
+	 * Remove a coordinate from the grid, so that it will no longer be found.
+	 * This takes O(1) time.
+	 * @param index Index of the coordinate to remove.
+	 */
+	public void remove(int index) {
+		if (!contains(index)) return;
+		int cell = itemCell[index];
+		int p = itemPosition[index];
+
+		// Swap the last coordinate of the cell into the removed position
+		int last = --cellEnd[cell];
+		int moved = cellItem[last];
+		cellItem[p] = moved;
+		itemPosition[moved] = p;
+		cellItem[last] = index;
+		itemPosition[index] = last;
+	}
+
+	/**
+	 * Get the number of coordinates within the grid.
+	 * @return Number of coordinates.
+	 */
+	public int size() {
+		return coord.length;
+	}
+
+	/**
+	 * Get a copy of the axis aligned bounding box which encompasses all coordinates.
+	 * @return AABB encompassing all coordinates.
+	 */
+	public AABB getAABB() {
+		return new AABB(aabb);
+	}
+
+	/**
+	 * Check if a coordinate is still within the grid.
+	 * @param index Index of the coordinate.
+	 * @return False if the coordinate has been removed.
+	 */
+	public boolean contains(int index) {
+		return itemPosition[index] < cellEnd[itemCell[index]];
+	}
+
+	/**
+	 * Find the coordinate closest to a point.
+	 * @param x X-component of the point.
+	 * @param y Y-component of the point.
+	 * @return Index of the closest coordinate, or -1 if the grid is empty.
+	 */
+	public int nearest(long x, long y) {
+		int[] result = new int[1];
+		return (nearest(x, y, -1, 1, result) > 0) ? result[0] : -1;
+	}
+
+	/**
+	 * Find the coordinates closest to a point, sorted from nearest to furthest.
+	 * @param x X-component of the point.
+	 * @param y Y-component of the point.
+	 * @param exclude Index of a coordinate to ignore, or -1 to include all coordinates.
+	 * @param k The maximum number of coordinates to find.
+	 * @param result Receives the indices of the coordinates found. Must hold at least k values.
+	 * @return The number of coordinates found.
+	 */
+	public int nearest(long x, long y, int exclude, int k, int[] result) {
+		return nearest(x, y, exclude, k, result, new double[k]);
+	}
+
+	/**
+	 * Find the coordinates closest to a point, sorted from nearest to furthest, without allocating memory.
+	 * @param x X-component of the point.
+	 * @param y Y-component of the point.
+	 * @param exclude Index of a coordinate to ignore, or -1 to include all coordinates.
+	 * @param k The maximum number of coordinates to find.
+	 * @param result Receives the indices of the coordinates found. Must hold at least k values.
+	 * @param best Receives the squared distance of each coordinate found. Must hold at least k values.
+	 * @return The number of coordinates found.
+	 */
+	public int nearest(long x, long y, int exclude, int k, int[] result, double[] best) {
+		assert result.length >= k;
+		assert best.length >= k;
+		if (k <= 0) return 0;
+
+		// The best coordinates found so far are kept sorted by squared distance
+		int found = 0;
+
+		// Search rings of cells around the cell containing the point
+		// Any cell in ring r+1 is at least r cells away, so stop once the k-th best is closer than that
+		final int cx = cellX(x);
+		final int cy = cellY(y);
+		final int ringMax = Math.max(width, height);
+		for (int r=0; r<=ringMax; r++) {
+			if (found == k) {
+				double limit = (r - 1) * cellSize;
+				if ((limit > 0) && (best[k - 1] <= limit * limit)) break;
+			}
+
+			// Loop through the cells on the edge of the ring
+			for (int gy=cy-r; gy<=cy+r; gy++) {
+				if ((gy < 0) || (gy >= height)) continue;
+				boolean edgeRow = (gy == cy - r) || (gy == cy + r);
+				int step = edgeRow ? 1 : Math.max(1, 2 * r);
+				for (int gx=cx-r; gx<=cx+r; gx+=step) {
+					if ((gx < 0) || (gx >= width)) continue;
+
+					// Test each coordinate within the cell
+					int cell = getCell(gx, gy);
+					for (int j=cellStart[cell]; j<cellEnd[cell]; j++) {
+						int i = cellItem[j];
+						if (i == exclude) continue;
+						double dx = coord[i].x - x;
+						double dy = coord[i].y - y;
+						double d = (dx * dx) + (dy * dy);
+						if ((found < k) || (d < best[found - 1])) {
+
+							// Insert into the sorted list, dropping the furthest if full
+							int p = (found < k) ? found++ : found - 1;
+							while ((p > 0) && (best[p - 1] > d)) {
+								best[p] = best[p - 1];
+								result[p] = result[p - 1];
+								p--;
+							}
+							best[p] = d;
+							result[p] = i;
+						}
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Get the column of the cell containing an x-component.
+	 */
+	private int cellX(long x) {
+		return (int)Math.max(0, Math.min(width - 1, (long)((x - aabb.xMin) / cellSize)));
+	}
+
+	/**
+	 * Get the row of the cell containing a y-component.
+	 */
+	private int cellY(long y) {
+		return (int)Math.max(0, Math.min(height - 1, (long)((y - aabb.yMin) / cellSize)));
+	}
+
+	/**
+	 * Get the index of a cell from its column and row.
+	 */
+	private int getCell(int gx, int gy) {
+		return (gy * width) + gx;
+	}
+
+	final private Coordinate[] coord;
+	final private AABB aabb;
+	final private double cellSize;
+	final private int width;
+	final private int height;
+	final private int[] cellStart;
+	final private int[] cellEnd;
+	final private int[] cellItem;
+	final private int[] itemCell;
+	final private int[] itemPosition;
+}
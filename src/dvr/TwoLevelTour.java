@@ -0,0 +1,412 @@
+package dvr;
+
+import java.util.Arrays;
+
+/**
+ * A closed tour of locations held as a two-level doubly-linked list, so part of the tour can be reversed quickly.
+ * <p>
+ * The tour is cut into segments of up to about 2*sqrt(n) locations. Each segment is a doubly-linked list of
+ * locations with a reversed flag, and the segments form a doubly-linked ring. Reversing part of the tour splits at
+ * most two segments, then reverses the order of the segments between and flips their flags, without touching the
+ * locations within them. Segments left small by a split are merged with their new neighbours, so every pair of
+ * neighbouring segments holds more than the maximum segment size and the number of segments stays O(sqrt(n)).
+ * Reversal therefore takes O(sqrt(n)) time, while next, prev and between take O(1) time.
+ * <p>
+ * A location is named by its index within the distance matrix, and each location may only appear once, so a tour
+ * holds a single trip with the depot (location index 0) appearing once. The direction of the tour may flip when
+ * part of it is reversed, as the distance is the same in both directions.
+ */
+public class TwoLevelTour {
+
+	/**
+	 * The smallest limit used for the number of locations within one segment.
+	 */
+	static final public int segmentMin = 8;
+
+	/**
+	 * Two-level tour constructor.
+	 * @param capacity Number of locations which may be named, which are those with an index below this.
+	 */
+	public TwoLevelTour(int capacity) {
+		assert capacity > 0;
+		nodeNext = new int[capacity];
+		nodePrev = new int[capacity];
+		nodeRank = new int[capacity];
+		nodeParent = new int[capacity];
+		allocateSegments(segmentMin);
+	}
+
+	/**
+	 * Replace the tour with a list of locations, with the last location joining back to the first.
+	 * @param locations The locations to visit, each of which must be different.
+	 * @param count Number of locations to use from the start of the list.
+	 */
+	public void load(int[] locations, int count) {
+		assert (0 < count) && (count <= locations.length);
+		size = count;
+		anchor = locations[0];
+		segmentMax = Math.max(segmentMin, 2 * (int)Math.ceil(Math.sqrt(count)));
+
+		// Cut the tour into equal segments just over half the maximum size,
+		// so every pair of neighbouring segments is too large to merge, unless the tour is very short
+		segmentCount = Math.max((count + segmentMax - 1) / segmentMax, count / (segmentMax / 2 + 1));
+		if (segFirst.length < segmentCount + 2) allocateSegments(segmentCount + 2);
+		freeCount = 0;
+		for (int s=segFirst.length-1; s>=segmentCount; s--) free[freeCount++] = s;
+		for (int s=0; s<segmentCount; s++) {
+			final int start = (int)((long)count * s / segmentCount);
+			final int end = (int)((long)count * (s + 1) / segmentCount);
+			assert end - start <= segmentMax;
+			for (int i=start; i<end; i++) {
+				final int l = locations[i];
+				assert (0 <= l) && (l < nodeNext.length);
+				nodeParent[l] = s;
+				nodeRank[l] = i - start;
+				nodeNext[l] = (i + 1 < end) ? locations[i + 1] : -1;
+				nodePrev[l] = (i > start) ? locations[i - 1] : -1;
+			}
+			segFirst[s] = locations[start];
+			segLast[s] = locations[end - 1];
+			segSize[s] = end - start;
+			segReversed[s] = false;
+			segRank[s] = s;
+			segNext[s] = (s + 1) % segmentCount;
+			segPrev[s] = (s + segmentCount - 1) % segmentCount;
+		}
+	}
+
+	/**
+	 * Get the number of locations within the tour.
+	 * @return Number of locations.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of segments the tour is currently cut into.
+	 * @return Number of segments.
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * Get the location after a location within the tour.
+	 * @param l Index of the location.
+	 * @return Index of the next location.
+	 */
+	public int next(int l) {
+		final int s = nodeParent[l];
+		if (l == getTail(s)) return getHead(segNext[s]);
+		return segReversed[s] ? nodePrev[l] : nodeNext[l];
+	}
+
+	/**
+	 * Get the location before a location within the tour.
+	 * @param l Index of the location.
+	 * @return Index of the previous location.
+	 */
+	public int prev(int l) {
+		final int s = nodeParent[l];
+		if (l == getHead(s)) return getTail(segPrev[s]);
+		return segReversed[s] ? nodeNext[l] : nodePrev[l];
+	}
+
+	/**
+	 * Test if a location lies on the path which runs forward from one location to another, including both ends.
+	 * @param a Index of the location the path starts at.
+	 * @param b Index of the location to test.
+	 * @param c Index of the location the path ends at.
+	 * @return True if the location is on the path.
+	 */
+	public boolean between(int a, int b, int c) {
+		if ((b == a) || (b == c)) return true;
+		if (!isBefore(c, a)) return isBefore(a, b) && isBefore(b, c);
+		return isBefore(a, b) || isBefore(b, c);
+	}
+
+	/**
+	 * Reverse the path which runs forward from one location to another, including both ends.
+	 * The path is replaced by the rest of the tour if that holds fewer segments, which joins the same locations.
+	 * @param a Index of the location the path starts at.
+	 * @param b Index of the location the path ends at.
+	 */
+	public void reverse(int a, int b) {
+
+		// Reversing the whole tour only changes its direction
+		final int c = next(b);
+		if (c == a) return;
+		final int p = prev(a);
+
+		// Split the segments so the path starts and ends on a segment boundary
+		split(a);
+		split(c);
+
+		// Reverse whichever side of the tour holds fewer segments
+		int first = nodeParent[a];
+		int last = nodeParent[b];
+		final int count = ((segRank[last] - segRank[first] + segmentCount) % segmentCount) + 1;
+		if (2 * count > segmentCount) {
+			first = nodeParent[c];
+			last = nodeParent[p];
+		}
+		final int before = segPrev[first];
+		final int after = segNext[last];
+		for (int s=first; ; ) {
+			final int n = segNext[s];
+			segNext[s] = segPrev[s];
+			segPrev[s] = n;
+			segReversed[s] = !segReversed[s];
+			if (s == last) break;
+			s = n;
+		}
+		segNext[before] = last;
+		segPrev[last] = before;
+		segNext[first] = after;
+		segPrev[after] = first;
+
+		// Merge each segment next to the ends of the path with its neighbours where they fit together,
+		// found by location as merging frees segments
+		boolean merged = true;
+		while (merged) {
+			merged = tryMergeAround(a) | tryMergeAround(b) | tryMergeAround(c) | tryMergeAround(p);
+		}
+		updateSegmentRanks();
+	}
+
+	/**
+	 * Copy the tour into a list, starting from a location and following the tour forward.
+	 * @param start Index of the location to start at.
+	 * @param result The list to write into, with room for every location.
+	 */
+	public void toArray(int start, int[] result) {
+		assert result.length >= size;
+		int l = start;
+		for (int i=0; i<size; i++) {
+			result[i] = l;
+			l = next(l);
+		}
+		assert l == start;
+	}
+
+	/**
+	 * Get the first location of a segment, in tour order.
+	 */
+	private int getHead(int s) {
+		return segReversed[s] ? segLast[s] : segFirst[s];
+	}
+
+	/**
+	 * Get the last location of a segment, in tour order.
+	 */
+	private int getTail(int s) {
+		return segReversed[s] ? segFirst[s] : segLast[s];
+	}
+
+	/**
+	 * Test if one location comes before another, counting from the segment with the lowest rank.
+	 */
+	private boolean isBefore(int x, int y) {
+		final int sx = nodeParent[x];
+		final int sy = nodeParent[y];
+		if (sx != sy) return segRank[sx] < segRank[sy];
+		return segReversed[sx] ? (nodeRank[x] > nodeRank[y]) : (nodeRank[x] < nodeRank[y]);
+	}
+
+	/**
+	 * Split a segment so that a location becomes the first of its segment, in tour order.
+	 * The smaller part is moved into a new segment, taking O(segment size) time.
+	 */
+	private void split(int x) {
+		final int s = nodeParent[x];
+		if (x == getHead(s)) return;
+
+		// The list is cut between raw positions l and r, with the location before x on the other side of the cut
+		final boolean reversed = segReversed[s];
+		final int p = reversed ? nodeNext[x] : nodePrev[x];
+		final int l = reversed ? x : p;
+		final int r = reversed ? p : x;
+		final int leftCount = nodeRank[l] - nodeRank[segFirst[s]] + 1;
+		final boolean moveLeft = (2 * leftCount <= segSize[s]);
+
+		// Move the smaller part into a new segment
+		final int t = allocateSegment();
+		segReversed[t] = reversed;
+		if (moveLeft) {
+			segFirst[t] = segFirst[s];
+			segLast[t] = l;
+			segFirst[s] = r;
+		} else {
+			segFirst[t] = r;
+			segLast[t] = segLast[s];
+			segLast[s] = l;
+		}
+		nodeNext[l] = -1;
+		nodePrev[r] = -1;
+		segSize[t] = 0;
+		for (int n=segFirst[t]; n>=0; n=nodeNext[n]) {
+			nodeParent[n] = t;
+			segSize[t]++;
+		}
+		segSize[s] -= segSize[t];
+
+		// In tour order the left part comes first, unless the segment is reversed
+		if (moveLeft != reversed) {
+			linkSegmentBefore(t, s);
+		} else {
+			linkSegmentBefore(t, segNext[s]);
+		}
+		updateSegmentRanks();
+	}
+
+	/**
+	 * Merge the segment holding a location with the segments either side of it, where they fit together.
+	 * @return True if a merge was made.
+	 */
+	private boolean tryMergeAround(int l) {
+		final boolean mergedBefore = tryMerge(segPrev[nodeParent[l]]);
+		return tryMerge(nodeParent[l]) || mergedBefore;
+	}
+
+	/**
+	 * Merge a segment with the segment after it, if together they fit within the maximum segment size.
+	 * The locations of the smaller segment are moved into the larger, taking O(segment size) time.
+	 * @return True if the segments were merged.
+	 */
+	private boolean tryMerge(int x) {
+		final int y = segNext[x];
+		if ((x == y) || (segSize[x] + segSize[y] > segmentMax)) return false;
+		if (segSize[x] >= segSize[y]) {
+
+			// Append the locations of y to the tour end of x
+			for (int i=0, n=getHead(y); i<segSize[y]; i++) {
+				final int following = segReversed[y] ? nodePrev[n] : nodeNext[n];
+				if (segReversed[x]) {
+					nodePrev[segFirst[x]] = n;
+					nodeNext[n] = segFirst[x];
+					nodePrev[n] = -1;
+					segFirst[x] = n;
+				} else {
+					nodeNext[segLast[x]] = n;
+					nodePrev[n] = segLast[x];
+					nodeNext[n] = -1;
+					segLast[x] = n;
+				}
+				nodeParent[n] = x;
+				n = following;
+			}
+			segSize[x] += segSize[y];
+			unlinkSegment(y);
+			updateNodeRanks(x);
+		} else {
+
+			// Prepend the locations of x to the tour start of y, working backwards
+			for (int i=0, n=getTail(x); i<segSize[x]; i++) {
+				final int preceding = segReversed[x] ? nodeNext[n] : nodePrev[n];
+				if (segReversed[y]) {
+					nodeNext[segLast[y]] = n;
+					nodePrev[n] = segLast[y];
+					nodeNext[n] = -1;
+					segLast[y] = n;
+				} else {
+					nodePrev[segFirst[y]] = n;
+					nodeNext[n] = segFirst[y];
+					nodePrev[n] = -1;
+					segFirst[y] = n;
+				}
+				nodeParent[n] = y;
+				n = preceding;
+			}
+			segSize[y] += segSize[x];
+			unlinkSegment(x);
+			updateNodeRanks(y);
+		}
+		return true;
+	}
+
+	/**
+	 * Number the locations of a segment in raw list order.
+	 */
+	private void updateNodeRanks(int s) {
+		int rank = 0;
+		for (int n=segFirst[s]; n>=0; n=nodeNext[n]) nodeRank[n] = rank++;
+	}
+
+	/**
+	 * Number the segments in tour order, starting from the segment holding the first location loaded.
+	 */
+	private void updateSegmentRanks() {
+		int s = nodeParent[anchor];
+		for (int i=0; i<segmentCount; i++) {
+			segRank[s] = i;
+			s = segNext[s];
+		}
+	}
+
+	/**
+	 * Insert a segment into the ring before another segment.
+	 */
+	private void linkSegmentBefore(int t, int s) {
+		final int p = segPrev[s];
+		segNext[p] = t;
+		segPrev[t] = p;
+		segNext[t] = s;
+		segPrev[s] = t;
+	}
+
+	/**
+	 * Remove a segment from the ring and free it.
+	 */
+	private void unlinkSegment(int s) {
+		segNext[segPrev[s]] = segNext[s];
+		segPrev[segNext[s]] = segPrev[s];
+		free[freeCount++] = s;
+		segmentCount--;
+	}
+
+	/**
+	 * Take a free segment, making room for more if needed.
+	 */
+	private int allocateSegment() {
+		if (freeCount == 0) {
+			final int n = segFirst.length;
+			allocateSegments(n * 2);
+			for (int s=segFirst.length-1; s>=n; s--) free[freeCount++] = s;
+		}
+		segmentCount++;
+		return free[--freeCount];
+	}
+
+	/**
+	 * Enlarge the segment arrays, keeping their contents.
+	 */
+	private void allocateSegments(int n) {
+		segFirst = (segFirst == null) ? new int[n] : Arrays.copyOf(segFirst, n);
+		segLast = (segLast == null) ? new int[n] : Arrays.copyOf(segLast, n);
+		segSize = (segSize == null) ? new int[n] : Arrays.copyOf(segSize, n);
+		segRank = (segRank == null) ? new int[n] : Arrays.copyOf(segRank, n);
+		segNext = (segNext == null) ? new int[n] : Arrays.copyOf(segNext, n);
+		segPrev = (segPrev == null) ? new int[n] : Arrays.copyOf(segPrev, n);
+		segReversed = (segReversed == null) ? new boolean[n] : Arrays.copyOf(segReversed, n);
+		free = (free == null) ? new int[n] : Arrays.copyOf(free, n);
+	}
+
+	final private int[] nodeNext;
+	final private int[] nodePrev;
+	final private int[] nodeRank;
+	final private int[] nodeParent;
+	private int[] segFirst;
+	private int[] segLast;
+	private int[] segSize;
+	private int[] segRank;
+	private int[] segNext;
+	private int[] segPrev;
+	private boolean[] segReversed;
+	private int[] free;
+	private int freeCount;
+	private int anchor;
+	private int segmentCount;
+	private int segmentMax;
+	private int size;
+}
@@ -0,0 +1,149 @@
+package dvr;
+
+/**
+ * Used to choose which vehicle receives the next location while a route list is being built.
+ * Vehicles which are not parked take turns in index order, using a circular queue.
+ * Parked vehicles are held in a binary heap ordered by route cost, so that when every vehicle is parked
+ * the one with the lowest cost can be resumed. Each choice takes O(log n) time, rather than O(n).
+ */
+public class VehicleDispatch {
+
+	/**
+	 * Vehicle dispatch constructor.
+	 * Every vehicle starts out not parked.
+	 * @param vehicleCount Number of vehicles.
+	 */
+	public VehicleDispatch(int vehicleCount) {
+		assert vehicleCount > 0;
+		queue = new int[vehicleCount];
+		heap = new int[vehicleCount];
+		cost = new long[vehicleCount];
+		parked = new boolean[vehicleCount];
+		reset();
+	}
+
+	/**
+	 * Unpark every vehicle, and restart the turns from vehicle 0.
+	 */
+	public void reset() {
+		for (int v=0; v<queue.length; v++) {
+			queue[v] = v;
+			parked[v] = false;
+		}
+		queueFirst = 0;
+		queueCount = queue.length;
+		heapCount = 0;
+	}
+
+	/**
+	 * Park every vehicle with a cost of zero, so that each call to {@link #next()} takes the vehicle with the lowest cost.
+	 */
+	public void parkAll() {
+		queueFirst = 0;
+		queueCount = 0;
+		heapCount = 0;
+		for (int v=0; v<heap.length; v++) {
+			parked[v] = true;
+			cost[v] = 0;
+			heap[heapCount++] = v; // Entries in index order already form a valid heap
+		}
+	}
+
+	/**
+	 * Restart the turns from vehicle 0 for a new set of empty routes.
+	 * Vehicles which are parked stay parked, and their costs are reset to zero so they are resumed in index order.
+	 */
+	public void restart() {
+		queueFirst = 0;
+		queueCount = 0;
+		heapCount = 0;
+		for (int v=0; v<queue.length; v++) {
+			if (parked[v]) {
+				cost[v] = 0;
+				heap[heapCount++] = v; // Entries in index order already form a valid heap
+			} else {
+				queue[queueCount++] = v;
+			}
+		}
+	}
+
+	/**
+	 * Take the vehicle which should receive the next location.
+	 * This is the next vehicle in turn which is not parked. If every vehicle is parked then the parked vehicle
+	 * with the lowest cost is resumed, with ties going to the lowest index.
+	 * The vehicle must then be given back by calling either {@link #requeue(int)} or {@link #park(int, long)}.
+	 * @return The vehicle index.
+	 */
+	public int next() {
+		if (queueCount > 0) {
+			int v = queue[queueFirst];
+			queueFirst = (queueFirst + 1) % queue.length;
+			queueCount--;
+			return v;
+		}
+		assert heapCount > 0;
+
+		// Remove the top of the heap, then move the last entry down from the top
+		int v = heap[0];
+		int last = heap[--heapCount];
+		int i = 0;
+		while (true) {
+			int child = (2 * i) + 1;
+			if (child >= heapCount) break;
+			if ((child + 1 < heapCount) && isLess(heap[child + 1], heap[child])) child++;
+			if (!isLess(heap[child], last)) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		parked[v] = false;
+		return v;
+	}
+
+	/**
+	 * Give a vehicle back, so that it takes another turn after every other vehicle which is not parked.
+	 * @param v The vehicle index.
+	 */
+	public void requeue(int v) {
+		assert queueCount < queue.length;
+		queue[(queueFirst + queueCount) % queue.length] = v;
+		queueCount++;
+	}
+
+	/**
+	 * Give a vehicle back and park it.
+	 * The cost must not change while the vehicle is parked.
+	 * @param v The vehicle index.
+	 * @param routeCost The cost of the route of the vehicle.
+	 */
+	public void park(int v, long routeCost) {
+		assert heapCount < heap.length;
+		parked[v] = true;
+		cost[v] = routeCost;
+
+		// Add to the bottom of the heap, then move up towards the top
+		int i = heapCount++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isLess(v, heap[parent])) break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = v;
+	}
+
+	/**
+	 * Check if one parked vehicle should be resumed before another.
+	 */
+	private boolean isLess(int a, int b) {
+		return (cost[a] < cost[b]) || ((cost[a] == cost[b]) && (a < b));
+	}
+
+	final private int[] queue;
+	final private int[] heap;
+	final private long[] cost;
+	final private boolean[] parked;
+	private int queueFirst;
+	private int queueCount;
+	private int heapCount;
+}
@@ -0,0 +1,254 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the distance matrix classes.
+ * Each stored distance is compared with the straight-line distance between its two locations,
+ * and mapped files are compared with the matrix they were written from.
+ */
+public class DistanceMatrixTest {
+
+	/**
+	 * Locations within a small area fit 16-bit cells, which hold each distance exactly.
+	 */
+	@Test
+	public void smallAreaIsExact() {
+		DistanceMatrix d = new DistanceMatrix(scatter(new Random(1), 300, 1000));
+		assertEquals(Short.BYTES, d.getCellWidth());
+		assertEquals(1, d.getCellScale());
+		assertCellsMatch(d);
+	}
+
+	/**
+	 * Locations spread over a huge area need scaled cells, which round each distance to the nearest step.
+	 */
+	@Test
+	public void hugeAreaIsRounded() {
+		DistanceMatrix d = new DistanceMatrix(scatter(new Random(2), 300, 1L << 40));
+		assertTrue(d.getCellScale() > 1, "Expected scaled cells");
+		assertCellsMatch(d);
+	}
+
+	/**
+	 * The largest distance found is the largest cell, and a single location has no distances at all.
+	 */
+	@Test
+	public void maxDistanceIsLargestCell() {
+		DistanceMatrix d = new DistanceMatrix(scatter(new Random(3), 50, 5000));
+		long max = 0;
+		for (int a=0; a<d.size(); a++) {
+			for (int b=0; b<d.size(); b++) max = Math.max(max, d.getDistance(a, b));
+		}
+		assertEquals(max, d.getMaxDistance());
+
+		DistanceMatrix single = new DistanceMatrix(scatter(new Random(3), 1, 5000));
+		assertEquals(1, single.size());
+		assertEquals(0, single.getDistance(0, 0));
+	}
+
+	/**
+	 * A lazy matrix whose cache holds only a few rows keeps evicting them, and still gives every distance.
+	 */
+	@Test
+	public void lazyWithTinyCache() {
+		LazyDistanceMatrix d = new LazyDistanceMatrix(scatter(new Random(4), 300, 1L << 40), 7);
+		assertCellsMatch(d);
+		assertEquals(7, d.getRowCacheSize());
+		assertTrue(d.getCacheHits() > 0, "Expected cache hits");
+		assertTrue(d.getCacheMisses() >= d.size() - 1, "Expected every row to be calculated");
+	}
+
+	/**
+	 * Several threads reading a lazy matrix at once, with rows being evicted under them, all see the right distances.
+	 * @throws InterruptedException If interrupted while waiting for the threads.
+	 */
+	@Test
+	public void lazySharedBetweenThreads() throws InterruptedException {
+		final Location[] l = scatter(new Random(5), 200, 1000);
+		final LazyDistanceMatrix d = new LazyDistanceMatrix(l, 5);
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] reader = new Thread[4];
+		for (int t=0; t<reader.length; t++) {
+			final Random rnd = new Random(t);
+			reader[t] = new Thread(() -> {
+				for (int i=0; i<100000; i++) {
+					int a = rnd.nextInt(l.length);
+					int b = rnd.nextInt(l.length);
+					if (d.getDistance(a, b) != ((a != b) ? straightLine(l[a], l[b]) : 0)) wrong.incrementAndGet();
+				}
+			});
+			reader[t].start();
+		}
+		for (Thread t : reader) t.join();
+		assertEquals(0, wrong.get());
+	}
+
+	/**
+	 * Adding and removing locations one at a time keeps the cells right, with the last location
+	 * taking the index of each removed location. Each change gives a new matrix and leaves the old one as it was.
+	 */
+	@Test
+	public void addAndRemoveKeepCellsRight() {
+		Random rnd = new Random(9);
+		DistanceMatrix d = new DistanceMatrix(scatter(rnd, 30, 1000));
+		ArrayList<Location> expected = new ArrayList<>();
+		for (int i=0; i<d.size(); i++) expected.add(d.getLocation(i));
+		for (int step=0; step<300; step++) {
+			DistanceMatrix old = d;
+			final int oldSize = old.size();
+			final long oldCell = old.getDistance(oldSize - 1, 0);
+			if ((expected.size() > 2) && (rnd.nextInt(5) < 2)) {
+				int index = 1 + rnd.nextInt(expected.size() - 1);
+				d = old.withLocationRemoved(index);
+				expected.set(index, expected.get(expected.size() - 1));
+				expected.remove(expected.size() - 1);
+			} else {
+				Location l = scatter(rnd, 1, 1000)[0];
+				d = old.withLocationAdded(l);
+				assertSame(l, d.getLocation(oldSize));
+				expected.add(l);
+			}
+			assertEquals(oldSize, old.size());
+			assertEquals(oldCell, old.getDistance(oldSize - 1, 0));
+			assertEquals(expected.size(), d.size());
+			for (int i=0; i<d.size(); i++) assertSame(expected.get(i), d.getLocation(i));
+		}
+		assertCellsMatch(d);
+	}
+
+	/**
+	 * A location far outside the others no longer fits the narrow cells, so the new matrix has wider cells.
+	 */
+	@Test
+	public void addFarLocationWidensCells() {
+		DistanceMatrix d = new DistanceMatrix(scatter(new Random(10), 100, 1000));
+		assertEquals(Short.BYTES, d.getCellWidth());
+		DistanceMatrix wide = d.withLocationAdded(new Location(1L << 36, 1L << 36, "far"));
+		assertEquals(Integer.BYTES, wide.getCellWidth());
+		assertEquals(Short.BYTES, d.getCellWidth());
+		assertCellsMatch(wide);
+		assertCellsMatch(d);
+	}
+
+	/**
+	 * A lazy matrix copy starts with no cached rows, so no stale row is read after a location is added or removed.
+	 */
+	@Test
+	public void lazyAddAndRemove() {
+		LazyDistanceMatrix d = new LazyDistanceMatrix(scatter(new Random(11), 80, 1000), 10);
+		assertCellsMatch(d);
+		DistanceMatrix added = d.withLocationAdded(new Location(5, 5, "added"));
+		assertTrue(added instanceof LazyDistanceMatrix, "Expected a lazy copy");
+		assertCellsMatch(added);
+		DistanceMatrix removed = added.withLocationRemoved(3);
+		assertCellsMatch(removed);
+		assertCellsMatch(d);
+	}
+
+	/**
+	 * A file written from a packed matrix maps back to the very same cells.
+	 * @throws IOException If the file could not be written or mapped.
+	 */
+	@Test
+	public void mappedFromPackedIsIdentical() throws IOException {
+		Location[] l = scatter(new Random(6), 250, 1L << 40);
+		DistanceMatrix src = new DistanceMatrix(l);
+		File file = File.createTempFile("packed", MappedDistanceMatrix.fileExtension);
+		try {
+			MappedDistanceMatrix.write(src, file);
+			DistanceMatrix d = new MappedDistanceMatrix(l, file);
+			assertEquals(src.getCellWidth(), d.getCellWidth());
+			assertEquals(src.getCellScale(), d.getCellScale());
+			assertEquals(src.getMaxDistance(), d.getMaxDistance());
+			for (int a=0; a<l.length; a++) {
+				for (int b=0; b<l.length; b++) assertEquals(src.getDistance(a, b), d.getDistance(a, b));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A lazy matrix has no cell format of its own, so its distances are rounded into the cells of the file.
+	 * @throws IOException If the file could not be written or mapped.
+	 */
+	@Test
+	public void mappedFromLazyIsRounded() throws IOException {
+		Location[] l = scatter(new Random(7), 250, 1L << 40);
+		File file = File.createTempFile("lazy", MappedDistanceMatrix.fileExtension);
+		try {
+			MappedDistanceMatrix.write(new LazyDistanceMatrix(l, 16), file);
+			assertCellsMatch(new MappedDistanceMatrix(l, file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Moving one location makes the file unusable for the new list.
+	 * @throws IOException If the file could not be written.
+	 */
+	@Test
+	public void mappedRefusesChangedList() throws IOException {
+		Location[] l = scatter(new Random(8), 40, 1000);
+		File file = File.createTempFile("moved", MappedDistanceMatrix.fileExtension);
+		try {
+			MappedDistanceMatrix.write(new DistanceMatrix(l), file);
+			l[17] = new Location(l[17].coord.x + 1, l[17].coord.y, l[17].name);
+			assertThrows(IOException.class, () -> new MappedDistanceMatrix(l, file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Assert that every cell of a distance matrix is within half a cell step of the straight-line distance.
+	 * @param d The distance matrix to check.
+	 */
+	static void assertCellsMatch(DistanceMatrix d) {
+		final long tolerance = d.getCellScale() / 2;
+		for (int a=0; a<d.size(); a++) {
+			for (int b=0; b<d.size(); b++) {
+				long expected = (a != b) ? straightLine(d.getLocation(a), d.getLocation(b)) : 0;
+				long error = Math.abs(d.getDistance(a, b) - expected);
+				assertTrue(error <= tolerance, "Cell " + a + "," + b + " is off by " + error);
+			}
+		}
+	}
+
+	/**
+	 * Get the straight-line distance between two locations, rounded down in the same way as the distance matrix.
+	 */
+	static long straightLine(Location a, Location b) {
+		double dx = a.coord.x - b.coord.x;
+		double dy = a.coord.y - b.coord.y;
+		return (long)Math.sqrt((dx * dx) + (dy * dy));
+	}
+
+	/**
+	 * Scatter locations at random across a square.
+	 * @param rnd The random number generator to use.
+	 * @param count Number of locations.
+	 * @param side Length of each side of the square.
+	 * @return The location list.
+	 */
+	static Location[] scatter(Random rnd, int count, long side) {
+		Location[] l = new Location[count];
+		for (int i=0; i<count; i++) {
+			l[i] = new Location((long)(rnd.nextDouble() * side), (long)(rnd.nextDouble() * side), "L" + i);
+		}
+		return l;
+	}
+}
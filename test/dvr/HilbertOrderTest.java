@@ -0,0 +1,125 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for reordering location lists along a Hilbert curve.
+ */
+public class HilbertOrderTest {
+
+	/**
+	 * The depot stays first and every other location is listed exactly once.
+	 */
+	@Test
+	public void orderIsPermutationWithDepotFirst() {
+		Location[] l = DistanceMatrixTest.scatter(new Random(31), 5000, 1L << 30);
+		int[] order = DistanceMatrix.getHilbertOrder(l);
+		assertEquals(l.length, order.length);
+		assertEquals(0, order[0]);
+		boolean[] seen = new boolean[l.length];
+		seen[0] = true;
+		for (int i=1; i<order.length; i++) {
+			assertTrue(!seen[order[i]], "Location " + order[i] + " is listed twice");
+			seen[order[i]] = true;
+		}
+	}
+
+	/**
+	 * Visiting random locations in curve order gives a far shorter path than visiting them in list order.
+	 * A space-filling curve path through n random points in a unit square is O(sqrt(n)) long, against O(n) at random.
+	 */
+	@Test
+	public void curveOrderKeepsNeighboursTogether() {
+		Location[] l = DistanceMatrixTest.scatter(new Random(32), 4000, 1000000);
+		int[] order = DistanceMatrix.getHilbertOrder(l);
+		long listPath = 0;
+		long curvePath = 0;
+		for (int i=2; i<l.length; i++) {
+			listPath += DistanceMatrixTest.straightLine(l[i - 1], l[i]);
+			curvePath += DistanceMatrixTest.straightLine(l[order[i - 1]], l[order[i]]);
+		}
+		assertTrue(curvePath * 10 < listPath, "Curve path " + curvePath + " against list path " + listPath);
+	}
+
+	/**
+	 * A reordered distance matrix maps each index back to the location's place within the given list.
+	 */
+	@Test
+	public void reorderedMatrixMapsBackToList() {
+		Location[] l = DistanceMatrixTest.scatter(new Random(33), 1500, 100000);
+		DistanceMatrix d = DistanceMatrix.create(l, null, true);
+		assertSame(l[0], d.getLocation(0));
+		for (int i=0; i<d.size(); i++) {
+			assertSame(l[d.getOriginalIndex(i)], d.getLocation(i));
+			assertEquals(i, d.getInternalIndex(d.getOriginalIndex(i)));
+		}
+		Location[] original = d.getOriginalList();
+		for (int i=0; i<l.length; i++) assertSame(l[i], original[i]);
+	}
+
+	/**
+	 * The curve starts up the first column of the grid and ends at the far end of the bottom row,
+	 * visiting the four cells of the corner block in a U shape.
+	 */
+	@Test
+	public void curveEndsAreKnown() {
+		assertEquals(0, DistanceMatrix.getHilbertIndex(0, 0));
+		assertEquals(1, DistanceMatrix.getHilbertIndex(0, 1));
+		assertEquals(2, DistanceMatrix.getHilbertIndex(1, 1));
+		assertEquals(3, DistanceMatrix.getHilbertIndex(1, 0));
+		final int side = 1 << 15;
+		assertEquals((long)side * side - 1, DistanceMatrix.getHilbertIndex(side - 1, 0));
+	}
+
+	/**
+	 * Each step along the curve moves to a cell next to the last one, so the first 64 by 64 block
+	 * is filled by the first 4096 indices, one step at a time.
+	 */
+	@Test
+	public void cornerBlockIsFilledStepByStep() {
+		final int side = 64;
+		int[] x = new int[side * side];
+		int[] y = new int[side * side];
+		boolean[] used = new boolean[side * side];
+		for (int i=0; i<side; i++) {
+			for (int j=0; j<side; j++) {
+				long d = DistanceMatrix.getHilbertIndex(i, j);
+				assertTrue((d < used.length) && !used[(int)d], "Index " + d + " at " + i + "," + j);
+				used[(int)d] = true;
+				x[(int)d] = i;
+				y[(int)d] = j;
+			}
+		}
+		for (int d=1; d<used.length; d++) {
+			assertEquals(1, Math.abs(x[d] - x[d - 1]) + Math.abs(y[d] - y[d - 1]), "Step to index " + d);
+		}
+	}
+
+	/**
+	 * Locations spread to the very edge of the grid, where the curve index uses every bit, are still sorted by
+	 * their curve index. The locations span the grid exactly, so they are not scaled.
+	 */
+	@Test
+	public void orderFollowsCurveToFarCorner() {
+		final int side = 1 << 15;
+		Random rnd = new Random(34);
+		Location[] l = new Location[3000];
+		l[0] = new Location(0, 0, "depot");
+		l[1] = new Location(side - 1, side - 1, "far");
+		for (int i=2; i<l.length; i++) l[i] = new Location(rnd.nextInt(side), rnd.nextInt(side), "L" + i);
+		int[] order = DistanceMatrix.getHilbertOrder(l);
+		for (int i=2; i<order.length; i++) {
+			Location a = l[order[i - 1]];
+			Location b = l[order[i]];
+			long da = DistanceMatrix.getHilbertIndex((int)a.coord.x, (int)a.coord.y);
+			long db = DistanceMatrix.getHilbertIndex((int)b.coord.x, (int)b.coord.y);
+			assertTrue(da <= db, "Location " + order[i] + " comes before " + order[i - 1] + " along the curve");
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the local search.
+ * The small cases each lead to a single known move. The larger cases check that whatever moves are made,
+ * the routes stay valid and the cost reported is the cost of the routes.
+ */
+public class LocalSearchTest {
+
+	/**
+	 * The pair of locations 1 and 2 belongs after location 3, the very next location of the trip,
+	 * so Or-opt moves the segment past its own neighbour.
+	 */
+	@Test
+	public void orOptPastNextLocation() {
+		DistanceMatrix d = new DistanceMatrix(new Location[] {
+			new Location(90, 60, "depot"), new Location(10, 30, "1"), new Location(0, 0, "2"),
+			new Location(20, 70, "3"), new Location(40, 30, "4"), new Location(80, 50, "5")
+		});
+		Route[] route = {route(d, 0, 1, 2, 3, 4, 5, 0)};
+		LocalSearch search = new LocalSearch(d, null);
+		long cost = search.improve(route);
+		assertEquals(1, search.getMoveCount());
+		assertEquals("0 3 1 2 4 5 0", indices(route[0]));
+		assertEquals(route[0].getCost(), cost);
+		assertEquals(250, cost);
+	}
+
+	/**
+	 * Joining the start of one trip to the end of the other is shorter, but leaves one vehicle with four locations.
+	 * With no limit the tails are exchanged; with a capacity of three the routes must be left as they are.
+	 */
+	@Test
+	public void tailExchangeRespectsCapacity() {
+		DistanceMatrix d = new DistanceMatrix(new Location[] {
+			new Location(70, 30, "depot"), new Location(20, 60, "1"), new Location(80, 20, "2"),
+			new Location(0, 70, "3"), new Location(20, 90, "4"), new Location(30, 80, "5")
+		});
+		Route[] free = {route(d, 0, 1, 2, 0), route(d, 0, 3, 4, 5, 0)};
+		LocalSearch search = new LocalSearch(d, null);
+		search.improve(free);
+		assertEquals(1, search.getMoveCount());
+		assertEquals("0 1 3 4 5 0", indices(free[0]));
+		assertEquals("0 2 0", indices(free[1]));
+
+		Route[] limited = {route(d, 0, 1, 2, 0), route(d, 0, 3, 4, 5, 0)};
+		long before = Route.getCost(limited);
+		search = new LocalSearch(d, new int[] {3, 3});
+		assertEquals(before, search.improve(limited));
+		assertEquals(0, search.getMoveCount());
+		assertEquals("0 1 2 0", indices(limited[0]));
+		assertEquals("0 3 4 5 0", indices(limited[1]));
+	}
+
+	/**
+	 * Routes of several trips per vehicle, with vehicles of different sizes, are improved without losing or
+	 * repeating a location or overloading a trip. The cost returned is the cost of the routes as stored, and
+	 * each move saves at least one unit of distance.
+	 */
+	@Test
+	public void randomRoutesStayValid() {
+		Random rnd = new Random(41);
+		for (int round=0; round<40; round++) {
+			Location[] l = DistanceMatrixTest.scatter(rnd, 20 + rnd.nextInt(200), 100000);
+			DistanceMatrix d = new DistanceMatrix(l);
+			int[] capacity = new int[1 + rnd.nextInt(4)];
+			for (int v=0; v<capacity.length; v++) capacity[v] = 3 + rnd.nextInt(15);
+
+			// Deal the locations out at random, starting a new trip whenever a vehicle is full
+			Route[] route = new Route[capacity.length];
+			int[] load = new int[capacity.length];
+			for (int v=0; v<route.length; v++) route[v] = route(d, 0);
+			for (int i : shuffled(rnd, l.length)) {
+				int v = rnd.nextInt(route.length);
+				if (load[v] == capacity[v]) {
+					route[v].add(0);
+					load[v] = 0;
+				}
+				route[v].add(i);
+				load[v]++;
+			}
+			for (Route r : route) r.add(0);
+
+			long before = Route.getCost(route);
+			LocalSearch search = new LocalSearch(d, (round % 5 == 0) ? null : capacity);
+			long after = search.improve(route);
+			assertEquals(Route.getCost(route), after);
+			assertTrue(before - after >= search.getMoveCount(), "Saved " + (before - after) + " in " + search.getMoveCount() + " moves");
+			assertValid(route, l.length, (round % 5 == 0) ? null : capacity);
+		}
+	}
+
+	/**
+	 * A single vehicle with no room to spare visits enough locations for its trip to be improved on a two-level tour.
+	 * Starting from a random order there is plenty to gain, and the result must still be a valid route.
+	 */
+	@Test
+	public void longTripStaysValid() {
+		Random rnd = new Random(42);
+		Location[] l = DistanceMatrixTest.scatter(rnd, LocalSearch.tourMin + 200, 100000);
+		DistanceMatrix d = new DistanceMatrix(l);
+		Route[] route = {route(d, 0)};
+		for (int i : shuffled(rnd, l.length)) route[0].add(i);
+		route[0].add(0);
+
+		long before = Route.getCost(route);
+		LocalSearch search = new LocalSearch(d, new int[] {l.length - 1});
+		long after = search.improve(route);
+		assertEquals(Route.getCost(route), after);
+		assertTrue(after * 2 < before, "Cost only fell from " + before + " to " + after);
+		assertValid(route, l.length, new int[] {l.length - 1});
+	}
+
+	/**
+	 * Assert that every location is visited once, and that no trip holds more locations than its vehicle can carry.
+	 */
+	static void assertValid(Route[] route, int n, int[] capacity) {
+		int[] visits = new int[n];
+		for (int v=0; v<route.length; v++) {
+			Route r = route[v];
+			if (r.isEmpty()) continue;
+			assertEquals(0, r.getLocationIndex(0));
+			assertEquals(0, r.getLocationIndex(r.size() - 1));
+			int load = 0;
+			for (int i=1; i<r.size(); i++) {
+				int x = r.getLocationIndex(i);
+				if (x == 0) {
+					load = 0;
+					continue;
+				}
+				visits[x]++;
+				load++;
+				if (capacity != null) assertTrue(load <= capacity[v], "Vehicle " + v + " carries " + load);
+			}
+		}
+		for (int i=1; i<n; i++) assertEquals(1, visits[i], "Visits to location " + i);
+	}
+
+	/**
+	 * Build a route from a list of location indices.
+	 */
+	static Route route(DistanceMatrix d, int... index) {
+		Route r = new Route(d);
+		for (int i : index) r.add(i);
+		return r;
+	}
+
+	/**
+	 * List the location indices of a route, separated by spaces.
+	 */
+	static String indices(Route r) {
+		StringBuilder s = new StringBuilder();
+		for (int i=0; i<r.size(); i++) s.append((i > 0) ? " " : "").append(r.getLocationIndex(i));
+		return s.toString();
+	}
+
+	/**
+	 * Get the locations other than the depot in a random order.
+	 */
+	static int[] shuffled(Random rnd, int n) {
+		int[] order = new int[n - 1];
+		for (int i=0; i<order.length; i++) order[i] = i + 1;
+		for (int i=order.length-1; i>0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+		return order;
+	}
+}
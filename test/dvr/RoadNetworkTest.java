@@ -0,0 +1,253 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for road network travel costs.
+ * The contraction hierarchy must give the same costs as a Dijkstra search over the original roads.
+ */
+public class RoadNetworkTest {
+
+	/**
+	 * On a square with one diagonal, travel between opposite corners takes the diagonal only if it is cheaper,
+	 * and a location away from the nodes pays the straight-line distance to its nearest node.
+	 */
+	@Test
+	public void smallNetworkCosts() {
+		Coordinate[] node = {
+			new Coordinate(0, 0), new Coordinate(100, 0), new Coordinate(100, 100), new Coordinate(0, 100)
+		};
+		int[] a = {0, 1, 2, 3, 0};
+		int[] b = {1, 2, 3, 0, 2};
+		Location from = new Location(0, -30, "from");
+		Location to = new Location(100, 140, "to");
+
+		RoadNetwork slowDiagonal = new RoadNetwork(node, a, b, new long[] {10, 10, 10, 10, 50});
+		assertEquals(30 + 20 + 40, slowDiagonal.getCost(from, to));
+		RoadNetwork fastDiagonal = new RoadNetwork(node, a, b, new long[] {10, 10, 10, 10, 5});
+		assertEquals(30 + 5 + 40, fastDiagonal.getCost(from, to));
+		assertEquals(0, fastDiagonal.getCost(from, from));
+	}
+
+	/**
+	 * Single queries between random locations on a random grid match Dijkstra, including locations on an island
+	 * with no road to the grid, which fall back to the straight-line distance.
+	 */
+	@Test
+	public void getCostMatchesDijkstra() {
+		Grid g = new Grid(new Random(21));
+		Location[] l = g.scatter(new Random(22), 40);
+		for (int a=0; a<l.length; a++) {
+			long[] expected = g.dijkstra(l, a);
+			for (int b=0; b<l.length; b++) {
+				assertEquals(expected[b], g.network.getCost(l[a], l[b]), "Cost from " + a + " to " + b);
+			}
+		}
+	}
+
+	/**
+	 * The bucket-based search for a whole list matches Dijkstra for every location.
+	 */
+	@Test
+	public void getCostsMatchesDijkstra() {
+		Grid g = new Grid(new Random(23));
+		Location[] l = g.scatter(new Random(24), 60);
+		long[] cost = new long[l.length];
+		for (int b=1; b<l.length; b++) {
+			g.network.getCosts(l, b, cost);
+			long[] expected = g.dijkstra(l, b);
+			for (int a=0; a<b; a++) assertEquals(expected[a], cost[a], "Cost from " + b + " to " + a);
+		}
+	}
+
+	/**
+	 * A distance matrix built on the network holds the Dijkstra costs, rounded to its cells.
+	 */
+	@Test
+	public void distanceMatrixUsesNetwork() {
+		Grid g = new Grid(new Random(25));
+		Location[] l = g.scatter(new Random(26), 50);
+		DistanceMatrix d = new DistanceMatrix(l, g.network);
+		for (int a=0; a<l.length; a++) {
+			long[] expected = g.dijkstra(l, a);
+			for (int b=0; b<l.length; b++) {
+				long error = Math.abs(d.getDistance(a, b) - expected[b]);
+				assertTrue(error <= d.getCellScale() / 2, "Distance from " + a + " to " + b + " is off by " + error);
+			}
+		}
+	}
+
+	/**
+	 * Moving a location within the same list, or freeing the buckets, gives fresh costs rather than those
+	 * of the buckets built for the list as it was.
+	 */
+	@Test
+	public void alteredListGetsNewBuckets() {
+		Grid g = new Grid(new Random(27));
+		Location[] l = g.scatter(new Random(28), 30);
+		long[] cost = new long[l.length];
+		g.network.getCosts(l, l.length - 1, cost);
+
+		l[5] = g.scatter(new Random(29), 1)[0];
+		g.network.getCosts(l, l.length - 1, cost);
+		assertEquals(g.dijkstra(l, l.length - 1)[5], cost[5]);
+
+		g.network.clearBuckets();
+		for (int b=1; b<l.length; b++) {
+			g.network.getCosts(l, b, cost);
+			long[] expected = g.dijkstra(l, b);
+			for (int a=0; a<b; a++) assertEquals(expected[a], cost[a], "Cost from " + b + " to " + a);
+		}
+	}
+
+	/**
+	 * A location added to a distance matrix built on the network is costed over the roads.
+	 */
+	@Test
+	public void addedLocationUsesNetwork() {
+		Grid g = new Grid(new Random(30));
+		Location[] l = g.scatter(new Random(31), 40);
+		DistanceMatrix d = new DistanceMatrix(l, g.network);
+		Location extra = g.scatter(new Random(32), 1)[0];
+		DistanceMatrix added = d.withLocationAdded(extra);
+		Location[] all = Arrays.copyOf(l, l.length + 1);
+		all[l.length] = extra;
+		long[] expected = g.dijkstra(all, l.length);
+		for (int a=0; a<all.length; a++) {
+			long error = Math.abs(added.getDistance(l.length, a) - expected[a]);
+			assertTrue(error <= added.getCellScale() / 2, "Distance to " + a + " is off by " + error);
+		}
+	}
+
+	/**
+	 * A grid of jittered nodes with some roads missing and some long roads added, next to an island of nodes
+	 * which has no road to the grid.
+	 */
+	static class Grid {
+		static final int side = 15;
+		static final int spacing = 100;
+		static final int islandSize = 5;
+		final Coordinate[] node;
+		final int[] edgeA;
+		final int[] edgeB;
+		final long[] edgeWeight;
+		final RoadNetwork network;
+
+		Grid(Random rnd) {
+			final int gridNodes = side * side;
+			node = new Coordinate[gridNodes + islandSize];
+			for (int i=0; i<gridNodes; i++) {
+				node[i] = new Coordinate(((i % side) * spacing) + rnd.nextInt(spacing / 2), ((i / side) * spacing) + rnd.nextInt(spacing / 2));
+			}
+			for (int i=0; i<islandSize; i++) {
+				node[gridNodes + i] = new Coordinate(((side + 2) * spacing) + rnd.nextInt(spacing), rnd.nextInt(side * spacing));
+			}
+
+			// Roads between grid neighbours, a few long roads across the grid, and a line of roads along the island
+			ArrayList<long[]> road = new ArrayList<>();
+			for (int i=0; i<gridNodes; i++) {
+				if (((i % side) < side - 1) && (rnd.nextInt(10) > 0)) road.add(new long[] {i, i + 1, spacing + rnd.nextInt(2 * spacing)});
+				if (((i / side) < side - 1) && (rnd.nextInt(10) > 0)) road.add(new long[] {i, i + side, spacing + rnd.nextInt(2 * spacing)});
+				if (rnd.nextInt(20) == 0) road.add(new long[] {i, rnd.nextInt(gridNodes), spacing * (1 + rnd.nextInt(side))});
+			}
+			for (int i=gridNodes+1; i<node.length; i++) road.add(new long[] {i - 1, i, spacing});
+			edgeA = new int[road.size()];
+			edgeB = new int[road.size()];
+			edgeWeight = new long[road.size()];
+			for (int e=0; e<road.size(); e++) {
+				edgeA[e] = (int)road.get(e)[0];
+				edgeB[e] = (int)road.get(e)[1];
+				edgeWeight[e] = road.get(e)[2];
+			}
+			network = new RoadNetwork(node, edgeA, edgeB, edgeWeight);
+		}
+
+		/**
+		 * Scatter locations over the grid and the island.
+		 */
+		Location[] scatter(Random rnd, int count) {
+			Location[] l = new Location[count];
+			for (int i=0; i<count; i++) {
+				l[i] = new Location(rnd.nextInt((side + 3) * spacing), rnd.nextInt(side * spacing), "L" + i);
+			}
+			return l;
+		}
+
+		/**
+		 * Find the cost from one location to every location of a list, with a Dijkstra search over every road
+		 * from the node nearest the location. The nearest nodes are found by checking every node.
+		 * @param l The location list.
+		 * @param from Index of the location to travel from.
+		 * @return The cost to each location.
+		 */
+		long[] dijkstra(Location[] l, int from) {
+			long[] nodeCost = new long[node.length];
+			Arrays.fill(nodeCost, Long.MAX_VALUE);
+			final int start = nearest(l[from].coord);
+			nodeCost[start] = 0;
+			PriorityQueue<long[]> open = new PriorityQueue<>((x, y) -> Long.compare(x[0], y[0]));
+			open.add(new long[] {0, start});
+			while (!open.isEmpty()) {
+				long[] top = open.poll();
+				final int u = (int)top[1];
+				if (top[0] > nodeCost[u]) continue;
+				for (int e=0; e<edgeA.length; e++) {
+					final int v = (edgeA[e] == u) ? edgeB[e] : (edgeB[e] == u) ? edgeA[e] : -1;
+					if ((v >= 0) && (nodeCost[u] + edgeWeight[e] < nodeCost[v])) {
+						nodeCost[v] = nodeCost[u] + edgeWeight[e];
+						open.add(new long[] {nodeCost[v], v});
+					}
+				}
+			}
+
+			long[] cost = new long[l.length];
+			for (int b=0; b<l.length; b++) {
+				final int end = nearest(l[b].coord);
+				if (b == from) {
+					cost[b] = 0;
+				} else if (nodeCost[end] == Long.MAX_VALUE) {
+					cost[b] = straightLine(l[from].coord, l[b].coord);
+				} else {
+					cost[b] = nodeCost[end] + straightLine(l[from].coord, node[start]) + straightLine(l[b].coord, node[end]);
+				}
+			}
+			return cost;
+		}
+
+		/**
+		 * Find the node nearest to a coordinate, comparing squared distances so that nodes at almost the same
+		 * distance are not mistaken for a tie.
+		 */
+		int nearest(Coordinate c) {
+			int best = 0;
+			for (int i=1; i<node.length; i++) {
+				if (squared(c, node[i]) < squared(c, node[best])) best = i;
+			}
+			return best;
+		}
+
+		/**
+		 * Get the squared distance between two coordinates.
+		 */
+		static long squared(Coordinate a, Coordinate b) {
+			long dx = a.x - b.x;
+			long dy = a.y - b.y;
+			return (dx * dx) + (dy * dy);
+		}
+
+		/**
+		 * Get the straight-line distance between two coordinates, rounded down.
+		 */
+		static long straightLine(Coordinate a, Coordinate b) {
+			return (long)Math.sqrt(squared(a, b));
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the genetic algorithm solver.
+ * The giant-tour split is compared with an exhaustive search on small genomes and with a plain O(n*Q)
+ * shortest path on larger ones.
+ */
+public class SolverGATest {
+
+	/**
+	 * Three locations in a row with a trip limit of two: serving the far pair together beats every other split.
+	 */
+	@Test
+	public void splitKnownExample() {
+		Location[] l = {
+			new Location(0, 0, "depot"), new Location(10, 0, "near"), new Location(100, 0, "far"), new Location(101, 0, "farther")
+		};
+		DistanceMatrix d = new DistanceMatrix(l);
+		Route[] route = createRoutes(d, 2);
+		long cost = createSplitter(d, new int[] {2, 2}).decode(new int[] {1, 2, 3}, route);
+		assertEquals(20 + 202, cost);
+		assertEquals(cost, Route.getCost(route));
+	}
+
+	/**
+	 * On short genomes the split is as cheap as the best of every way to cut the genome into trips.
+	 */
+	@Test
+	public void splitIsExhaustiveBest() {
+		Random rnd = new Random(41);
+		for (int run=0; run<200; run++) {
+			final int n = 1 + rnd.nextInt(12);
+			DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, n + 1, 1000));
+			int[] capacity = randomFleet(rnd, n);
+			int[] genome = shuffled(rnd, n);
+			long expected = exhaustiveSplit(d, genome, largest(capacity));
+			assertEquals(expected, createSplitter(d, capacity).getCost(genome), "Run " + run);
+		}
+	}
+
+	/**
+	 * On longer genomes the queue of trip starts gives the same cost as trying every start for every trip end.
+	 */
+	@Test
+	public void splitMatchesPlainShortestPath() {
+		Random rnd = new Random(42);
+		for (int run=0; run<40; run++) {
+			final int n = 20 + rnd.nextInt(300);
+			DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, n + 1, 10000));
+			int[] capacity = randomFleet(rnd, n);
+			int[] genome = shuffled(rnd, n);
+			long expected = shortestPathSplit(d, genome, largest(capacity));
+			assertEquals(expected, createSplitter(d, capacity).decode(genome, createRoutes(d, capacity.length)), "Run " + run);
+		}
+	}
+
+	/**
+	 * The decoded routes cost the same as the genome was costed at, visit every location once, and never overfill a vehicle.
+	 */
+	@Test
+	public void decodedRoutesAreValid() {
+		Random rnd = new Random(43);
+		for (int run=0; run<40; run++) {
+			final int n = 10 + rnd.nextInt(200);
+			DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, n + 1, 10000));
+			int[] capacity = randomFleet(rnd, n);
+			Route[] route = createRoutes(d, capacity.length);
+			SolverGA.Decoder decoder = createSplitter(d, capacity);
+			int[] genome = shuffled(rnd, n);
+			long cost = decoder.decode(genome, route);
+			assertEquals(decoder.getCost(genome), cost);
+
+			long total = 0;
+			boolean[] visited = new boolean[n + 1];
+			for (int v=0; v<route.length; v++) {
+				int load = 0;
+				for (int i=1; i<route[v].size(); i++) {
+					final int l = route[v].getLocationIndex(i);
+					total += d.getDistance(route[v].getLocationIndex(i - 1), l);
+					if (l == 0) {
+						load = 0;
+					} else {
+						assertTrue(!visited[l], "Location " + l + " is visited twice");
+						visited[l] = true;
+						assertTrue(++load <= capacity[v], "Vehicle " + v + " is overfilled");
+					}
+				}
+			}
+			assertEquals(cost, total);
+			for (int l=1; l<=n; l++) assertTrue(visited[l], "Location " + l + " is not visited");
+		}
+	}
+
+	/**
+	 * An island which costs its children with several decoders at once still returns the route of its cheapest parent.
+	 */
+	@Test
+	public void parallelDecodersPickCheapestParent() {
+		Random rnd = new Random(44);
+		DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, 81, 10000));
+		int[] capacity = {20, 20, 20, 20, 20};
+		SolverGA solver = new SolverGA(d, capacity, 1, 4, 4, 40);
+		solver.setLocalSearch(false);
+		assertEquals(4, solver.getDecoderCount());
+		assertEquals(4, new SolverGA(solver).getDecoderCount());
+
+		SolverGA.Decoder decoder = createSplitter(d, capacity);
+		for (int run=0; run<5; run++) {
+			final long total = Route.getCost(solver.run(10));
+			long cheapest = Long.MAX_VALUE;
+			for (int p=0; p<solver.getParentCount(); p++) {
+				int[] genome = Arrays.stream(solver.getParentString(p).split(",")).mapToInt(o -> d.getInternalIndex(Integer.parseInt(o))).toArray();
+				cheapest = Math.min(cheapest, decoder.getCost(genome));
+			}
+			assertEquals(cheapest, total, "Run " + run);
+		}
+	}
+
+	/**
+	 * Create an object which splits genomes for a distance matrix and fleet.
+	 */
+	static private SolverGA.Decoder createSplitter(DistanceMatrix d, int[] capacity) {
+		SolverGA.Decoder decoder = new SolverGA(d, capacity, 1).new Decoder();
+		decoder.allocate(d.size() - 1);
+		return decoder;
+	}
+
+	/**
+	 * Create an empty route list.
+	 */
+	static private Route[] createRoutes(DistanceMatrix d, int count) {
+		Route[] route = new Route[count];
+		for (int v=0; v<count; v++) route[v] = new Route(d);
+		return route;
+	}
+
+	/**
+	 * Try every set of places to cut the genome, skipping any which give a trip longer than the limit.
+	 */
+	static private long exhaustiveSplit(DistanceMatrix d, int[] genome, int tripMax) {
+		final int n = genome.length;
+		long best = Long.MAX_VALUE;
+		for (int cuts=0; cuts<(1 << (n - 1)); cuts++) {
+
+			// Bit i set means a trip ends after position i
+			long cost = 0;
+			int start = 0;
+			for (int i=0; (i < n) && (cost != Long.MAX_VALUE); i++) {
+				if ((i < n - 1) && ((cuts & (1 << i)) == 0)) continue;
+				cost = (i + 1 - start <= tripMax) ? cost + tripCost(d, genome, start, i + 1) : Long.MAX_VALUE;
+				start = i + 1;
+			}
+			best = Math.min(best, cost);
+		}
+		return best;
+	}
+
+	/**
+	 * Find the cheapest split by trying every trip start for every trip end.
+	 */
+	static private long shortestPathSplit(DistanceMatrix d, int[] genome, int tripMax) {
+		long[] best = new long[genome.length + 1];
+		for (int j=1; j<best.length; j++) {
+			best[j] = Long.MAX_VALUE;
+			for (int i=Math.max(0, j - tripMax); i<j; i++) best[j] = Math.min(best[j], best[i] + tripCost(d, genome, i, j));
+		}
+		return best[genome.length];
+	}
+
+	/**
+	 * Get the cost of leaving the depot, visiting genome positions start to end-1 in order, and returning.
+	 */
+	static private long tripCost(DistanceMatrix d, int[] genome, int start, int end) {
+		long cost = d.getDistance(0, genome[start]) + d.getDistance(genome[end - 1], 0);
+		for (int i=start+1; i<end; i++) cost += d.getDistance(genome[i - 1], genome[i]);
+		return cost;
+	}
+
+	/**
+	 * Get locations 1 to n in a random order.
+	 */
+	static private int[] shuffled(Random rnd, int n) {
+		int[] genome = new int[n];
+		for (int i=0; i<n; i++) {
+			final int j = rnd.nextInt(i + 1);
+			genome[i] = genome[j];
+			genome[j] = i + 1;
+		}
+		return genome;
+	}
+
+	/**
+	 * Get the capacities of one to four vehicles.
+	 */
+	static private int[] randomFleet(Random rnd, int n) {
+		int[] capacity = new int[1 + rnd.nextInt(4)];
+		for (int v=0; v<capacity.length; v++) capacity[v] = 1 + rnd.nextInt(Math.max(1, n / 2));
+		return capacity;
+	}
+
+	/**
+	 * Get the largest capacity within a fleet.
+	 */
+	static private int largest(int[] capacity) {
+		int max = 0;
+		for (int c : capacity) max = Math.max(max, c);
+		return max;
+	}
+}
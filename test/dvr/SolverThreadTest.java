@@ -0,0 +1,200 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for adding and removing locations while a solver holds its search state.
+ * Each change must carry the existing pheromone, genomes and routes over to the new location indices.
+ */
+public class SolverThreadTest {
+
+	/**
+	 * Removing a location moves the pheromone of the last location into the removed index, and a location added
+	 * afterwards starts with none. Every other path keeps its pheromone.
+	 */
+	@Test
+	public void acoPheromoneFollowsMovedLocation() {
+		Random rnd = new Random(71);
+		DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, 30, 1000));
+		SolverACO solver = new SolverACO(d, new int[] {6, 6, 6});
+		solver.run(20);
+		float[][] before = getUsage(solver, d.size());
+		assertTrue(solver.getMaxUsage() > 0, "Expected some pheromone");
+
+		final int removed = 7;
+		final int last = d.size() - 1;
+		DistanceMatrix smaller = d.withLocationRemoved(removed);
+		solver.locationRemoved(smaller, removed);
+		assertEquals(last, solver.size());
+		for (int a=0; a<last; a++) {
+			for (int b=0; b<last; b++) {
+				float expected = before[(a == removed) ? last : a][(b == removed) ? last : b];
+				assertEquals(expected, solver.getMaxUsage(a, b), "Path " + a + "," + b);
+			}
+		}
+
+		float[][] kept = getUsage(solver, last);
+		DistanceMatrix larger = smaller.withLocationAdded(new Location(500, 500, "added"));
+		solver.locationAdded(larger);
+		for (int a=0; a<larger.size(); a++) {
+			for (int b=0; b<larger.size(); b++) {
+				float expected = ((a < last) && (b < last)) ? kept[a][b] : 0;
+				assertEquals(expected, solver.getMaxUsage(a, b), "Path " + a + "," + b);
+			}
+		}
+		assertVisitsEach(larger, solver.run(5));
+	}
+
+	/**
+	 * Each parent genome keeps holding every location once, by original index, as locations come and go.
+	 */
+	@Test
+	public void gaGenomesFollowChanges() {
+		Random rnd = new Random(72);
+		DistanceMatrix d = new DistanceMatrix(DistanceMatrixTest.scatter(rnd, 40, 1000));
+		SolverGA solver = new SolverGA(d, new int[] {8, 8}, 2);
+		solver.run(10);
+		for (int step=0; step<20; step++) {
+			if ((step % 3 == 2) && (d.size() > 3)) {
+				final int index = 1 + rnd.nextInt(d.size() - 1);
+				d = d.withLocationRemoved(index);
+				solver.locationRemoved(d, index);
+			} else {
+				d = d.withLocationAdded(DistanceMatrixTest.scatter(rnd, 1, 1000)[0]);
+				solver.locationAdded(d);
+			}
+			int[] expected = new int[d.size() - 1];
+			for (int i=1; i<d.size(); i++) expected[i - 1] = d.getOriginalIndex(i);
+			Arrays.sort(expected);
+			for (int p=0; p<solver.getParentCount(); p++) {
+				int[] genome = Arrays.stream(solver.getParentString(p).split(",")).mapToInt(Integer::parseInt).toArray();
+				Arrays.sort(genome);
+				assertArrayEquals(expected, genome);
+			}
+		}
+		assertVisitsEach(d, solver.run(5));
+	}
+
+	/**
+	 * Locations added and removed through a running solver thread are placed into the published route,
+	 * with the ant colony and then the genetic algorithm, and changes made while paused are still made.
+	 * @throws InterruptedException If interrupted while waiting for the solver thread.
+	 */
+	@Test
+	public void queuedChangesReachTheRoute() throws InterruptedException {
+		Random rnd = new Random(73);
+		for (SolverType type : new SolverType[] {SolverType.ACO, SolverType.GA}) {
+			SolverThread thread = new SolverThread();
+			thread.setDistanceMatrix(new DistanceMatrix(DistanceMatrixTest.scatter(rnd, 40, 1000)));
+			thread.addVehicle(10);
+			thread.addVehicle(10);
+			thread.setSolverType(type);
+			thread.start();
+			thread.unpause();
+			awaitState(thread, s -> !s.getRoute().isEmpty());
+
+			// Queue several changes at once, which are made in order between two runs
+			thread.addLocation(new Location(-50, -50, "a"));
+			thread.removeLocation(5);
+			thread.addLocation(new Location(1050, 1050, "b"));
+			thread.removeLocation(40);
+			thread.removeLocation(17);
+			SolverThread.SolverState state = awaitState(thread, s -> (s.getDistanceMatrix().getOriginalCount() == 42) &&
+				(s.getDistanceMatrix().size() == 39));
+			assertEquals(-1, state.getDistanceMatrix().getInternalIndex(5));
+			assertEquals(-1, state.getDistanceMatrix().getInternalIndex(17));
+			assertEquals(-1, state.getDistanceMatrix().getInternalIndex(40));
+			assertVisitsEach(state);
+
+			// A paused solver thread still makes the change
+			thread.pause();
+			thread.addLocation(new Location(500, -50, "c"));
+			state = awaitState(thread, s -> s.getDistanceMatrix().getOriginalCount() == 43);
+			assertVisitsEach(state);
+		}
+	}
+
+	/**
+	 * The pheromone mode is passed to the ant colony solvers, both when it changes and when the solver type changes.
+	 */
+	@Test
+	public void pheromoneModeReachesTheSolver() {
+		SolverThread thread = new SolverThread();
+		thread.setDistanceMatrix(new DistanceMatrix(DistanceMatrixTest.scatter(new Random(74), 20, 1000)));
+		thread.addVehicle(10);
+		thread.addVehicle(10);
+		thread.setSolverType(SolverType.ACO);
+		assertEquals(PheromoneMode.PER_VEHICLE, ((SolverACO)thread.getSolver()).getPheromoneMode());
+
+		thread.setPheromoneMode(PheromoneMode.SHARED);
+		assertEquals(PheromoneMode.SHARED, ((SolverACO)thread.getSolver()).getPheromoneMode());
+
+		thread.setSolverType(SolverType.GA);
+		thread.setPheromoneMode(PheromoneMode.SHARED_WITH_BIAS);
+		thread.setSolverType(SolverType.MMAS);
+		assertEquals(PheromoneMode.SHARED_WITH_BIAS, ((SolverMMAS)thread.getSolver()).getPheromoneMode());
+	}
+
+	/**
+	 * A condition on a published solver state.
+	 */
+	interface StateCondition {
+		boolean test(SolverThread.SolverState state);
+	}
+
+	/**
+	 * Wait for the solver thread to publish a state which meets a condition.
+	 */
+	static SolverThread.SolverState awaitState(SolverThread thread, StateCondition condition) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 20000;
+		SolverThread.SolverState state = thread.getSolverState();
+		while (!condition.test(state)) {
+			if (System.currentTimeMillis() > deadline) fail("Timed out waiting for the solver thread");
+			state = thread.awaitNewerThan(state.getGeneration(), 100);
+		}
+		return state;
+	}
+
+	/**
+	 * Assert that the route of a state visits every location of its distance matrix once.
+	 */
+	static void assertVisitsEach(SolverThread.SolverState state) {
+		DistanceMatrix d = state.getDistanceMatrix();
+		RouteSnapshot route = state.getRoute();
+		int[] visits = new int[d.getOriginalCount()];
+		for (int r=0; r<route.getRouteCount(); r++) {
+			for (int i=0; i<route.size(r); i++) visits[route.getOriginalIndex(r, i)]++;
+		}
+		for (int i=1; i<d.size(); i++) assertEquals(1, visits[d.getOriginalIndex(i)], "Visits to location " + d.getOriginalIndex(i));
+	}
+
+	/**
+	 * Assert that a route list visits every location of a distance matrix once.
+	 */
+	static void assertVisitsEach(DistanceMatrix d, Route[] route) {
+		int[] visits = new int[d.size()];
+		for (Route r : route) {
+			for (int i=0; i<r.size(); i++) visits[r.getLocationIndex(i)]++;
+		}
+		for (int i=1; i<d.size(); i++) assertEquals(1, visits[i], "Visits to location " + i);
+	}
+
+	/**
+	 * Copy the pheromone of every path, taking the highest value of any layer.
+	 */
+	static float[][] getUsage(SolverACO solver, int n) {
+		float[][] usage = new float[n][n];
+		for (int a=0; a<n; a++) {
+			for (int b=0; b<n; b++) usage[a][b] = solver.getMaxUsage(a, b);
+		}
+		return usage;
+	}
+}
@@ -0,0 +1,157 @@
+package dvr;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the two-level tour list.
+ * A tour may change direction when part of it is reversed, so tours are compared in whichever direction matches.
+ */
+public class TwoLevelTourTest {
+
+	/**
+	 * Reversing a path which crosses segment boundaries, a path which wraps past the start of the list,
+	 * and the whole tour, on a tour of twenty locations cut into segments of up to ten.
+	 */
+	@Test
+	public void reverseKnownPaths() {
+		TwoLevelTour tour = new TwoLevelTour(20);
+		int[] order = new int[20];
+		for (int i=0; i<order.length; i++) order[i] = i;
+		tour.load(order, order.length);
+		assertTrue(tour.getSegmentCount() > 1, "Expected several segments");
+
+		tour.reverse(3, 12);
+		assertTourIs(tour, 0, 1, 2, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 13, 14, 15, 16, 17, 18, 19);
+		final boolean forward = (tour.next(2) == 12);
+		assertEquals(forward, tour.between(2, 7, 13));
+		assertEquals(!forward, tour.between(13, 7, 2));
+
+		// Reverse 18, 19, 0, 1, which runs forward from 1 to 18 if the tour has changed direction
+		if (forward) {
+			tour.reverse(18, 1);
+		} else {
+			tour.reverse(1, 18);
+		}
+		assertTourIs(tour, 1, 0, 19, 18, 2, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 13, 14, 15, 16, 17);
+
+		// The path from a location round to the one before it is the whole tour, which is left as it is
+		int[] before = new int[20];
+		tour.toArray(0, before);
+		tour.reverse(tour.next(5), 5);
+		int[] after = new int[20];
+		tour.toArray(0, after);
+		assertArrayEquals(before, after);
+	}
+
+	/**
+	 * Random reversals on tours of many lengths, each followed by the same reversal of an array.
+	 * Every location of the tour is then checked, along with some random uses of between.
+	 */
+	@Test
+	public void randomReversalsMatchArray() {
+		Random rnd = new Random(61);
+		for (int n : new int[] {2, 3, 5, 9, 17, 40, 100, 333, 1000}) {
+			final int capacity = n + rnd.nextInt(n);
+			TwoLevelTour tour = new TwoLevelTour(capacity);
+			int[] array = load(rnd, tour, n, capacity);
+			for (int i=0; i<300; i++) {
+				final int a = array[rnd.nextInt(n)];
+				final int b = (i % 3 == 0) ? array[(indexOf(array, a) + rnd.nextInt(10)) % n] : array[rnd.nextInt(n)];
+				array = reverse(tour, array, a, b);
+				assertMatches(rnd, tour, array);
+			}
+		}
+	}
+
+	/**
+	 * Assert that a tour visits the given locations in order, in either direction.
+	 */
+	static void assertTourIs(TwoLevelTour tour, int... expected) {
+		final int n = expected.length;
+		assertEquals(n, tour.size());
+		final boolean forward = (tour.next(expected[0]) == expected[1]);
+		for (int i=0; i<n; i++) {
+			final int following = forward ? expected[(i + 1) % n] : expected[(i + n - 1) % n];
+			assertEquals(following, tour.next(expected[i]), "Location after " + expected[i]);
+		}
+	}
+
+	/**
+	 * Load a tour with some of the locations it may name, in a random order.
+	 * @return The locations in tour order.
+	 */
+	static int[] load(Random rnd, TwoLevelTour tour, int n, int capacity) {
+		int[] all = new int[capacity];
+		for (int i=0; i<capacity; i++) all[i] = i;
+		for (int i=capacity-1; i>0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int temp = all[i];
+			all[i] = all[j];
+			all[j] = temp;
+		}
+		tour.load(all, n);
+		int[] array = new int[n];
+		System.arraycopy(all, 0, array, 0, n);
+		return array;
+	}
+
+	/**
+	 * Reverse the forward path between two locations within both a tour and an array.
+	 * @return The array after the reversal, turned round if the tour has changed direction.
+	 */
+	static int[] reverse(TwoLevelTour tour, int[] array, int a, int b) {
+		final int n = array.length;
+		final int start = indexOf(array, a);
+		final int length = ((indexOf(array, b) - start + n) % n) + 1;
+		tour.reverse(a, b);
+		int[] result = array.clone();
+		for (int i=0; i<length; i++) result[(start + i) % n] = array[(start + length - 1 - i) % n];
+		if ((n > 2) && (tour.next(result[0]) != result[1])) {
+			int[] turned = new int[n];
+			for (int i=0; i<n; i++) turned[i] = result[(n - i) % n];
+			return turned;
+		}
+		return result;
+	}
+
+	/**
+	 * Assert that a tour matches an array, using next, prev, toArray and between,
+	 * and that the segments have not grown too many.
+	 */
+	static void assertMatches(Random rnd, TwoLevelTour tour, int[] array) {
+		final int n = array.length;
+		for (int i=0; i<n; i++) {
+			assertEquals(array[(i + 1) % n], tour.next(array[i]), "Location after " + array[i]);
+			assertEquals(array[(i + n - 1) % n], tour.prev(array[i]), "Location before " + array[i]);
+		}
+		int[] list = new int[n];
+		tour.toArray(array[0], list);
+		assertArrayEquals(array, list);
+		for (int i=0; i<20; i++) {
+			final int a = rnd.nextInt(n);
+			final int b = rnd.nextInt(n);
+			final int c = rnd.nextInt(n);
+			assertEquals(((b - a + n) % n) <= ((c - a + n) % n), tour.between(array[a], array[b], array[c]));
+		}
+
+		// Neighbouring segments are always too large to merge, which bounds the number of segments
+		final int segmentMax = Math.max(TwoLevelTour.segmentMin, 2 * (int)Math.ceil(Math.sqrt(n)));
+		assertTrue(tour.getSegmentCount() <= (2 * n / segmentMax) + 2, tour.getSegmentCount() + " segments for " + n + " locations");
+	}
+
+	/**
+	 * Find a location within an array.
+	 */
+	static int indexOf(int[] array, int l) {
+		for (int i=0; i<array.length; i++) {
+			if (array[i] == l) return i;
+		}
+		throw new IllegalArgumentException("Location is not within the tour: " + l);
+	}
+}